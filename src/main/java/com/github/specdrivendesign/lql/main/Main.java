@@ -1,22 +1,42 @@
 package com.github.specdrivendesign.lql.main;
 
-import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.adapters.LazyJsonContext;
+import com.github.specdrivendesign.lql.pkg.adapters.ProjectingJsonReader;
 import com.github.specdrivendesign.lql.pkg.ast.expressions.Color;
+import com.github.specdrivendesign.lql.pkg.bundle.RuleBundle;
 import com.github.specdrivendesign.lql.pkg.bytecode.Bytecode;
+import com.github.specdrivendesign.lql.pkg.compiler.CompiledExpression;
+import com.github.specdrivendesign.lql.pkg.compiler.Compiler;
 import com.github.specdrivendesign.lql.pkg.env.Env;
 import com.github.specdrivendesign.lql.pkg.errors.Errors;
 import com.github.specdrivendesign.lql.pkg.lexer.Lexer;
 import com.github.specdrivendesign.lql.pkg.parser.Parser;
+import com.github.specdrivendesign.lql.pkg.signing.KeyRegistry;
 import com.github.specdrivendesign.lql.pkg.signing.Signing;
 import com.github.specdrivendesign.lql.pkg.testing.Testing;
+import com.github.specdrivendesign.lql.pkg.tokens.Tokens;
+import com.github.specdrivendesign.lql.pkg.types.Schema;
 import org.yaml.snakeyaml.Yaml;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 // Color constants
 public class Main {
@@ -27,15 +47,19 @@ public class Main {
     public static final String colorRed     = "\033[31m";
     public static final String colorYellow  = "\033[33m";
 
+    // Records per task in parallel stream mode.
+    private static final int STREAM_CHUNK_SIZE = 1024;
+
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.out.println("Subcommand required: test, compile, exec, repl, validate, highlight, or export-contexts");
+            System.out.println("Subcommand required: test, compile, bundle, exec, repl, validate, highlight, or export-contexts");
             System.out.println("Usage:");
             System.out.println("  lql test [--test-file=testcases.yml] [--fail-fast] [--verbose] [--output text|yaml]");
-            System.out.println("  lql compile -expr \"<expression>\" -out <outfile> [-signed -private <private.pem>]");
-            System.out.println("  lql exec -in <infile> [-signed -public <public.pem>]");
+            System.out.println("  lql compile -expr \"<expression>\" -out <outfile> [-format tokens|ast [-optimize]] [-signed -private <private.pem>]");
+            System.out.println("  lql bundle -in <dir of bytecode files> -out <bundle> [-signed -private <private.pem>]");
+            System.out.println("  lql exec -in <infile> | -bundle <bundle> -rule <id> [-signed -public <public.pem>] [-backend interpreter|closure|jit] [--stream ndjson|json] [--parallelism N]");
             System.out.println("  lql repl -expr \"<expression>\" [-format json|yaml]");
-            System.out.println("  lql validate -expr \"<expression>\" | -in <file>");
+            System.out.println("  lql validate -expr \"<expression>\" | -in <file> [-schema <schema.yml>]");
             System.out.println("  lql highlight -expr \"<expression>\" [-theme mild|vivid|dracula|solarized]");
             System.out.println("  lql export-contexts -expr \"<expression>\" | -in <file>");
             System.exit(1);
@@ -50,6 +74,9 @@ public class Main {
                 case "compile":
                     runCompileCmd(Arrays.copyOfRange(args, 1, args.length));
                     break;
+                case "bundle":
+                    runBundleCmd(Arrays.copyOfRange(args, 1, args.length));
+                    break;
                 case "exec":
                     runExecCmd(Arrays.copyOfRange(args, 1, args.length));
                     break;
@@ -141,6 +168,7 @@ private static void runTestCmd(String[] args) throws Exception {
             tc.setExpectedError((String) map.get("expectedError"));
             tc.setExpectedErrorMessage((String) map.get("expectedErrorMessage"));
             tc.setExpectedResult(map.get("expectedResult"));
+            tc.setSchema((Map<String, Object>) map.get("schema"));
             Object skipObj = map.get("skip");
             if (skipObj instanceof Boolean) {
                 tc.setSkip((Boolean) skipObj);
@@ -179,6 +207,7 @@ private static void runTestCmd(String[] args) throws Exception {
         String outFile = flags.get("out");
         boolean signed = flags.containsKey("signed");
         String privateKeyFile = flags.getOrDefault("private", "private.pem");
+        String format = flags.getOrDefault("format", "tokens");
 
         if ((expr == null || expr.isEmpty()) && (inFile == null || inFile.isEmpty())) {
             System.out.println("Either -expr or -in flag must be provided.");
@@ -192,82 +221,363 @@ private static void runTestCmd(String[] args) throws Exception {
             expr = new String(Files.readAllBytes(Paths.get(inFile))).trim();
         }
 
-        Lexer lex = new Lexer(expr);
+        // tokens (v1) must be parsed when loaded; ast (v2) holds the parsed tree.
         byte[] byteCode;
+        if (format.equalsIgnoreCase("ast")) {
+            byteCode = CompiledExpression.compile(expr).toByteCode(flags.containsKey("optimize"));
+        } else if (format.equalsIgnoreCase("tokens")) {
+            byteCode = new Lexer(expr).exportTokens();
+        } else {
+            System.out.println("Unsupported bytecode format: " + format + " (expected tokens or ast)");
+            System.exit(1);
+            return;
+        }
         if (signed) {
             if (privateKeyFile == null || privateKeyFile.isEmpty()) {
                 System.out.println("Private key file must be provided when -signed is true.");
                 System.exit(1);
             }
             java.security.PrivateKey privateKey = Signing.loadPrivateKey(privateKeyFile);
-            byteCode = lex.exportTokensSigned(privateKey);
-        } else {
-            byteCode = lex.exportTokens();
+            byteCode = Bytecode.sign(byteCode, privateKey);
         }
         Files.write(Paths.get(outFile), byteCode);
         System.out.println("Compilation successful. Bytecode written to " + outFile);
     }
 
+    // runBundleCmd packs the bytecode files in a directory, as written by compile
+    // without -signed, into one rule bundle; each rule's id is its file name without
+    // the extension.
+    private static void runBundleCmd(String[] args) throws Exception {
+        Map<String, String> flags = parseFlags(args);
+        String inDir = flags.get("in");
+        String outFile = flags.get("out");
+        boolean signed = flags.containsKey("signed");
+        String privateKeyFile = flags.getOrDefault("private", "private.pem");
+        if (inDir == null || inDir.isEmpty() || outFile == null || outFile.isEmpty()) {
+            System.out.println("The -in and -out flags are required.");
+            System.exit(1);
+        }
+        Map<String, byte[]> rules = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(inDir))) {
+            for (Path file : files) {
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                byte[] data = Files.readAllBytes(file);
+                if (new String(data, 0, Math.min(data.length, 4), StandardCharsets.ISO_8859_1).equals(Tokens.HeaderMagic)) {
+                    System.out.println("Signed bytecode cannot be bundled, compile without -signed: " + file);
+                    System.exit(1);
+                }
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                if (rules.put(dot > 0 ? name.substring(0, dot) : name, data) != null) {
+                    System.out.println("Duplicate rule id: " + name);
+                    System.exit(1);
+                }
+            }
+        }
+        java.security.PrivateKey privateKey = null;
+        if (signed) {
+            privateKey = Signing.loadPrivateKey(privateKeyFile);
+        }
+        RuleBundle.write(Paths.get(outFile), rules, privateKey);
+        System.out.println("Bundled " + rules.size() + " rules into " + outFile);
+    }
+
     private static void runExecCmd(String[] args) throws Exception {
         // Implementation analogous to the Go version.
-        // Parse flags: -in, -expr, -signed, -public, -format
+        // Parse flags: -in, -expr, -bundle, -rule, -signed, -public, -format, -backend, -stream, -parallelism
         Map<String, String> flags = parseFlags(args);
         String inFile = flags.get("in");
         String expr = flags.get("expr");
+        String bundleFile = flags.get("bundle");
         boolean signed = flags.containsKey("signed");
         String publicKeyFile = flags.get("public");
         String contextFormat = flags.getOrDefault("format", "yaml");
+        String backendName = flags.getOrDefault("backend", "closure");
+        Compiler.Backend backend = null;
+        for (Compiler.Backend b : Compiler.Backend.values()) {
+            if (b.name().equalsIgnoreCase(backendName)) {
+                backend = b;
+            }
+        }
+        if (backend == null) {
+            System.out.println("Unsupported backend: " + backendName + " (expected interpreter, closure or jit)");
+            System.exit(1);
+        }
+        String stream = flags.get("stream");
+        if (stream != null && !stream.equalsIgnoreCase("ndjson") && !stream.equalsIgnoreCase("json")) {
+            System.out.println("Unsupported stream format: " + stream + " (expected ndjson or json)");
+            System.exit(1);
+        }
+        int parallelism = 0;
+        try {
+            parallelism = Integer.parseInt(flags.getOrDefault("parallelism", "1"));
+        } catch (NumberFormatException e) {
+            // Reported below as not a positive number.
+        }
+        if (parallelism < 1 || (parallelism > 1 && stream == null)) {
+            System.out.println("--parallelism must be a positive number and requires --stream.");
+            System.exit(1);
+        }
 
-        // Read context from stdin
-        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-        StringBuilder contextData = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            contextData.append(line).append("\n");
+        if ((expr == null || expr.isEmpty()) && (inFile == null || inFile.isEmpty()) && (bundleFile == null || bundleFile.isEmpty())) {
+            System.out.println("Either -expr, -in or -bundle flag must be provided.");
+            System.exit(1);
+        }
+        Env env = Env.newEnvironment();
+        CompiledExpression compiled;
+        if (expr != null && !expr.isEmpty()) {
+            compiled = CompiledExpression.compile(expr, env, backend);
+        } else if (bundleFile != null && !bundleFile.isEmpty()) {
+            String rule = flags.get("rule");
+            if (rule == null || rule.isEmpty()) {
+                System.out.println("The -rule flag is required with -bundle.");
+                System.exit(1);
+            }
+            java.security.PublicKey pubKey = null;
+            if (signed) {
+                if (publicKeyFile == null || publicKeyFile.isEmpty()) {
+                    System.out.println("Public key file must be provided when -signed is true.");
+                    System.exit(1);
+                }
+                pubKey = KeyRegistry.shared().publicKey(publicKeyFile);
+            }
+            try (RuleBundle bundle = RuleBundle.open(Paths.get(bundleFile), pubKey)) {
+                compiled = bundle.load(rule, env, backend);
+            }
+        } else {
+            byte[] data = Files.readAllBytes(Paths.get(inFile));
+            if (signed) {
+                if (publicKeyFile == null || publicKeyFile.isEmpty()) {
+                    System.out.println("Public key file must be provided when -signed is true.");
+                    System.exit(1);
+                }
+                compiled = CompiledExpression.fromSignedByteCode(data, KeyRegistry.shared().publicKey(publicKeyFile), env, backend);
+            } else {
+                compiled = CompiledExpression.fromByteCode(data, env, backend);
+            }
         }
+        // JSON contexts are read building only the paths the expression reads.
+        Set<String> paths = compiled.getRequiredPaths();
+        if (stream != null) {
+            runExecStream(compiled, stream, parallelism, paths);
+            return;
+        }
+
+        // Read context from stdin
+        byte[] contextData = System.in.readAllBytes();
+        String contextText = new String(contextData, StandardCharsets.UTF_8);
         Map<String, Object> ctx;
-        if (contextData.toString().trim().length() > 0) {
+        if (contextText.trim().length() > 0) {
             if (contextFormat.equalsIgnoreCase("json")) {
-                ObjectMapper mapper = new ObjectMapper();
-                ctx = mapper.readValue(contextData.toString(), Map.class);
+                // The lazy context only scans what is read; reject a malformed document
+                // up front, as a full parse would.
+                LazyJsonContext.validate(contextData);
+                ctx = LazyJsonContext.parse(contextData, paths);
             } else {
                 Yaml yaml = new Yaml();
-                ctx = yaml.load(contextData.toString());
+                ctx = yaml.load(contextText);
             }
         } else {
             ctx = new HashMap<>();
         }
+        System.out.println("Execution result: " + compiled.evaluate(ctx));
+    }
 
-        if ((expr == null || expr.isEmpty()) && (inFile == null || inFile.isEmpty())) {
-            System.out.println("Either -expr or -in flag must be provided.");
-            System.exit(1);
+    // runExecStream evaluates compiled once per record on stdin and writes one JSON line
+    // per record: the result, or {"error": "..."} when the record cannot be parsed or the
+    // evaluation fails. With format ndjson each non-blank line is one JSON object; with
+    // json stdin holds a single array of objects, read element by element.
+    //
+    // With parallelism 1 records are evaluated in order on this thread, and output is
+    // flushed whenever stdin has nothing more ready, so results keep flowing in a
+    // pipeline. Otherwise records are cut into chunks that a pool of parallelism threads
+    // evaluates against the shared compiled expression; the futures queue up in input
+    // order and are written from the head, which keeps the output in input order and
+    // bounds how many chunks are in flight.
+    private static void runExecStream(CompiledExpression compiled, String format, int parallelism, Set<String> paths) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        BufferedReader in = null;
+        Iterator<Object> records;
+        if (format.equalsIgnoreCase("json")) {
+            records = jsonArrayRecords(mapper.getFactory().createParser(System.in), new ProjectingJsonReader(paths));
+        } else {
+            in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16);
+            records = ndjsonRecords(in);
         }
-        if (expr != null && !expr.isEmpty()) {
-            Lexer lex = new Lexer(expr);
-            Parser p = new Parser(lex);
-            Object ast = p.parseExpression();
-            Env env = Env.newEnvironment();
-            Object result = ((Expression) ast).eval(ctx, env);
-            System.out.println("Execution result: " + result);
+        if (parallelism == 1) {
+            while (records.hasNext()) {
+                out.write(evaluateRecord(compiled, mapper, paths, records.next()));
+                out.newLine();
+                if (in != null && !in.ready()) {
+                    out.flush();
+                }
+            }
+            out.flush();
             return;
         }
-        byte[] data = Files.readAllBytes(Paths.get(inFile));
-        Object tokenStream;
-        if (signed) {
-            if (publicKeyFile == null || publicKeyFile.isEmpty()) {
-                System.out.println("Public key file must be provided when -signed is true.");
-                System.exit(1);
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        Deque<Future<List<String>>> pending = new ArrayDeque<>();
+        try {
+            while (records.hasNext()) {
+                List<Object> chunk = new ArrayList<>(STREAM_CHUNK_SIZE);
+                while (chunk.size() < STREAM_CHUNK_SIZE && records.hasNext()) {
+                    chunk.add(records.next());
+                }
+                pending.add(pool.submit(() -> {
+                    List<String> lines = new ArrayList<>(chunk.size());
+                    for (Object record : chunk) {
+                        lines.add(evaluateRecord(compiled, mapper, paths, record));
+                    }
+                    return lines;
+                }));
+                if (pending.size() >= parallelism * 4) {
+                    writeLines(out, pending.poll().get());
+                }
             }
-            java.security.PublicKey pubKey = Signing.loadPublicKey(publicKeyFile);
-            tokenStream = Bytecode.newByteCodeReaderFromSignedData(data, pubKey);
-        } else {
-            tokenStream = Bytecode.newByteCodeReader(data);
+            while (!pending.isEmpty()) {
+                writeLines(out, pending.poll().get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        out.flush();
+    }
+
+    // ndjsonRecords returns the non-blank lines of in, unparsed; parsing happens where
+    // the record is evaluated.
+    private static Iterator<Object> ndjsonRecords(BufferedReader in) {
+        return new Iterator<Object>() {
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (next == null) {
+                        String line = in.readLine();
+                        if (line == null) {
+                            return false;
+                        }
+                        if (!line.trim().isEmpty()) {
+                            next = line;
+                        }
+                    }
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String line = next;
+                next = null;
+                return line;
+            }
+        };
+    }
+
+    // jsonArrayRecords returns the elements of the array parser is positioned before, as
+    // maps projected by reader. An element that is not an object becomes an exception,
+    // reported as that record's error. Input that is malformed or ends before the array
+    // does becomes a last exception record, so the results before it are still written.
+    private static Iterator<Object> jsonArrayRecords(JsonParser parser, ProjectingJsonReader reader) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IOException("--stream json expects a JSON array of contexts");
+        }
+        return new Iterator<Object>() {
+            private JsonToken token;
+            private IOException failure;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                if (done) {
+                    return false;
+                }
+                if (token == null && failure == null) {
+                    try {
+                        token = parser.nextToken();
+                        if (token == null) {
+                            failure = new IOException("malformed JSON array: unexpected end of input");
+                        }
+                    } catch (IOException e) {
+                        failure = malformedArray(e);
+                    }
+                }
+                return failure != null || token != JsonToken.END_ARRAY;
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (failure != null) {
+                    done = true;
+                    return failure;
+                }
+                try {
+                    if (token != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        return new IllegalArgumentException("context must be a JSON object");
+                    }
+                    return reader.read(parser);
+                } catch (IOException e) {
+                    // The parser cannot resume inside a malformed element.
+                    done = true;
+                    return malformedArray(e);
+                } finally {
+                    token = null;
+                }
+            }
+        };
+    }
+
+    private static IOException malformedArray(IOException e) {
+        String msg = e instanceof JsonProcessingException ? ((JsonProcessingException) e).getOriginalMessage() : e.getMessage();
+        return new IOException("malformed JSON array: " + msg, e);
+    }
+
+    private static String evaluateRecord(CompiledExpression compiled, ObjectMapper mapper, Set<String> paths, Object record) throws IOException {
+        try {
+            if (record instanceof Exception) {
+                throw (Exception) record;
+            }
+            Map<String, Object> ctx;
+            if (record instanceof String) {
+                byte[] json = ((String) record).getBytes(StandardCharsets.UTF_8);
+                LazyJsonContext.validate(json);
+                ctx = LazyJsonContext.parse(json, paths);
+            } else {
+                ctx = (Map<String, Object>) record;
+            }
+            return toJsonLine(mapper, compiled.evaluate(ctx == null ? new HashMap<>() : ctx));
+        } catch (Exception e) {
+            return mapper.writeValueAsString(Collections.singletonMap("error", e.getMessage()));
+        }
+    }
+
+    private static void writeLines(BufferedWriter out, List<String> lines) throws IOException {
+        for (String line : lines) {
+            out.write(line);
+            out.newLine();
+        }
+        out.flush();
+    }
+
+    private static String toJsonLine(ObjectMapper mapper, Object result) throws Exception {
+        try {
+            return mapper.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            // Values without a JSON form (times, colors) are written as their string.
+            return mapper.writeValueAsString(String.valueOf(result));
         }
-        Parser p = new Parser((Lexer) tokenStream);
-        Object ast = p.parseExpression();
-        Env env = Env.newEnvironment();
-        Object result = ((Expression) ast).eval(ctx, env);
-        System.out.println("Execution result: " + result);
     }
 
     private static void runReplCmd(String[] args) throws Exception {
@@ -277,10 +587,7 @@ private static void runTestCmd(String[] args) throws Exception {
             System.out.println("The -expr flag is required in repl mode.");
             System.exit(1);
         }
-        Lexer lex = new Lexer(expr);
-        Parser p = new Parser(lex);
-        Object ast = p.parseExpression();
-        Env env = Env.newEnvironment();
+        CompiledExpression compiled = CompiledExpression.compile(expr, Env.newEnvironment());
 
         try (BufferedReader br = new BufferedReader(new InputStreamReader(System.in))) {
             String input;
@@ -300,8 +607,7 @@ private static void runTestCmd(String[] args) throws Exception {
                     continue;
                 }
                 try {
-                    Object result = ((Expression) ast).eval(ctx, env);
-                    System.out.println(result);
+                    System.out.println(compiled.evaluate(ctx));
                 } catch (Exception e) {
                     System.out.println("Error executing expression: " + e.getMessage());
                 }
@@ -313,6 +619,7 @@ private static void runTestCmd(String[] args) throws Exception {
         Map<String, String> flags = parseFlags(args);
         String expr = flags.get("expr");
         String inFile = flags.get("in");
+        String schemaFile = flags.get("schema");
         String expression;
         if (inFile != null && !inFile.isEmpty()) {
             expression = new String(Files.readAllBytes(Paths.get(inFile))).trim();
@@ -327,6 +634,11 @@ private static void runTestCmd(String[] args) throws Exception {
         Parser p = new Parser(lex);
         try {
             p.parseExpression();
+            if (schemaFile != null && !schemaFile.isEmpty()) {
+                // With a schema, also type-check the expression against the declared
+                // context field types.
+                CompiledExpression.compile(expression, Env.newEnvironment(), loadSchema(schemaFile));
+            }
         } catch (Exception e) {
             System.out.println(e.getMessage());
             System.exit(1);
@@ -334,6 +646,17 @@ private static void runTestCmd(String[] args) throws Exception {
         System.exit(0);
     }
 
+    // loadSchema reads a YAML or JSON map of context field paths to type names, e.g.
+    // {"user.age": "int", "user.tags[]": "string"}.
+    @SuppressWarnings("unchecked")
+    private static Schema loadSchema(String file) throws Exception {
+        Object loaded = new Yaml().load(new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8));
+        if (!(loaded instanceof Map)) {
+            throw new IllegalArgumentException("schema file must contain a map of field paths to types");
+        }
+        return Schema.parse((Map<String, ?>) loaded);
+    }
+
     private static void runHighlightCmd(String[] args) throws Exception {
         Map<String, String> flags = parseFlags(args);
         String expr = flags.get("expr");
@@ -0,0 +1,168 @@
+package com.github.specdrivendesign.lql.pkg.adapters;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// BeanAdapter reads records through their component accessors, and other classes
+// through their public getters (getName, isActive) and public fields. The accessors of
+// each class are looked up once and kept as MethodHandles typed (Object)Object, so a
+// field read is a single invokeExact. JDK classes, and the library's own value types,
+// are not adapted.
+final class BeanAdapter implements ContextAdapter {
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<Map<String, MethodHandle>> properties = new ClassValue<Map<String, MethodHandle>>() {
+        @Override
+        protected Map<String, MethodHandle> computeValue(Class<?> type) {
+            return Collections.unmodifiableMap(findProperties(type));
+        }
+    };
+
+    @Override
+    public boolean supports(Class<?> type) {
+        String name = type.getName();
+        if (name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.")
+                || name.startsWith("com.github.specdrivendesign.lql.pkg.")) {
+            return false;
+        }
+        return !properties.get(type).isEmpty();
+    }
+
+    @Override
+    public Object adapt(Object obj) {
+        return new BeanView(obj, properties.get(obj.getClass()));
+    }
+
+    private static Map<String, MethodHandle> findProperties(Class<?> type) {
+        Map<String, MethodHandle> found = new LinkedHashMap<>();
+        if (type.isRecord()) {
+            for (RecordComponent component : type.getRecordComponents()) {
+                addGetter(found, component.getName(), component.getAccessor());
+            }
+            return found;
+        }
+        for (Method method : type.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0
+                    || method.getReturnType() == void.class || method.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            String name = method.getName();
+            if (name.startsWith("get") && name.length() > 3) {
+                addGetter(found, decapitalize(name.substring(3)), method);
+            } else if (name.startsWith("is") && name.length() > 2
+                    && (method.getReturnType() == boolean.class || method.getReturnType() == Boolean.class)) {
+                addGetter(found, decapitalize(name.substring(2)), method);
+            }
+        }
+        for (Field field : type.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !found.containsKey(field.getName())) {
+                try {
+                    found.put(field.getName(), MethodHandles.publicLookup().unreflectGetter(field).asType(GETTER));
+                } catch (IllegalAccessException e) {
+                    // Not readable from here; the field is left out.
+                }
+            }
+        }
+        return found;
+    }
+
+    private static void addGetter(Map<String, MethodHandle> found, String name, Method method) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            // Accessors of non-public classes (a private record, say) need access checks
+            // suppressed; when that is not allowed either, the property is left out.
+            try {
+                method.setAccessible(true);
+                handle = MethodHandles.lookup().unreflect(method);
+            } catch (RuntimeException | IllegalAccessException e2) {
+                return;
+            }
+        }
+        found.putIfAbsent(name, handle.asType(GETTER));
+    }
+
+    private static String decapitalize(String name) {
+        if (name.length() > 1 && Character.isUpperCase(name.charAt(1))) {
+            return name;
+        }
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    // BeanView is a read-only map over one object; every get calls the accessor.
+    private static final class BeanView extends AbstractMap<String, Object> {
+        private final Object obj;
+        private final Map<String, MethodHandle> getters;
+
+        BeanView(Object obj, Map<String, MethodHandle> getters) {
+            this.obj = obj;
+            this.getters = getters;
+        }
+
+        @Override
+        public Object get(Object key) {
+            MethodHandle getter = getters.get(key);
+            return getter == null ? null : read(getter);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return getters.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return getters.size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    Iterator<Entry<String, MethodHandle>> it = getters.entrySet().iterator();
+                    return new Iterator<Entry<String, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            Entry<String, MethodHandle> e = it.next();
+                            return new SimpleImmutableEntry<>(e.getKey(), read(e.getValue()));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return getters.size();
+                }
+            };
+        }
+
+        private Object read(MethodHandle getter) {
+            try {
+                return ContextAdapters.adaptNested((Object) getter.invokeExact(obj));
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException("reading " + obj.getClass().getName() + " failed", t);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.specdrivendesign.lql.pkg.adapters;
+
+// ContextAdapter lets expressions read domain objects directly, without converting
+// them to nested maps first. An adapter turns an object of a class it supports into an
+// LQL value: null, a Boolean, Long, Double or String, a List, or a Map, normally a
+// read-only view that reads fields from the object only when they are asked for.
+//
+// Adapters are registered with ContextAdapters.register or found through
+// java.util.ServiceLoader. They are shared by every thread, so adapt must be safe to
+// run concurrently.
+public interface ContextAdapter {
+
+    // supports reports whether this adapter reads objects of type. It is asked once per
+    // class; the answer is cached.
+    boolean supports(Class<?> type);
+
+    // adapt returns obj, an instance of a supported class, as an LQL value.
+    Object adapt(Object obj);
+}
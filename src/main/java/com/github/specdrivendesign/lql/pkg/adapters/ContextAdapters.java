@@ -0,0 +1,160 @@
+package com.github.specdrivendesign.lql.pkg.adapters;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.RandomAccess;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// ContextAdapters turns the values expressions read from a context into LQL values.
+// Maps, lists, strings, booleans, longs and doubles are used as they are; other
+// numbers, characters, enums, optionals and arrays are converted; any other object is
+// handed to the first adapter that supports its class: the registered ones, most
+// recent first, then the ones found by ServiceLoader, then the built-in adapters for
+// Jackson JsonNode trees and for records and JavaBeans. Objects no adapter supports
+// (such as the values of the time library) are left alone.
+public final class ContextAdapters {
+    private static final Object NONE = new Object();
+
+    private static final List<ContextAdapter> registered = new CopyOnWriteArrayList<>();
+    private static final List<ContextAdapter> builtIn = loadBuiltIn();
+    // byClass caches the adapter chosen for each class, or NONE.
+    private static final Map<Class<?>, Object> byClass = new ConcurrentHashMap<>();
+
+    private ContextAdapters() {
+    }
+
+    private static List<ContextAdapter> loadBuiltIn() {
+        List<ContextAdapter> adapters = new ArrayList<>();
+        for (ContextAdapter adapter : ServiceLoader.load(ContextAdapter.class)) {
+            adapters.add(adapter);
+        }
+        adapters.add(new JsonNodeAdapter());
+        adapters.add(new BeanAdapter());
+        return adapters;
+    }
+
+    // register adds adapter ahead of every adapter known so far.
+    public static void register(ContextAdapter adapter) {
+        registered.add(0, adapter);
+        byClass.clear();
+    }
+
+    // toContext returns obj as the root context of an evaluation.
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> toContext(Object obj) {
+        Object val = adapt(obj);
+        if (!(val instanceof Map<?, ?>)) {
+            throw new IllegalArgumentException("context must be an object, got " + (obj == null ? "null" : obj.getClass().getName()));
+        }
+        return (Map<String, Object>) val;
+    }
+
+    // adapt returns val as an LQL value. It is called on every value read from a context,
+    // so the types that need no conversion are tested first.
+    public static Object adapt(Object val) {
+        if (val == null || val instanceof String || val instanceof Long || val instanceof Boolean || val instanceof Double
+                || val instanceof Map<?, ?> || val instanceof List<?>) {
+            return val;
+        }
+        if (val instanceof Integer || val instanceof Short || val instanceof Byte) {
+            return ((Number) val).longValue();
+        }
+        if (val instanceof Float) {
+            return ((Float) val).doubleValue();
+        }
+        if (val instanceof BigInteger) {
+            BigInteger big = (BigInteger) val;
+            return big.bitLength() < 64 ? (Object) big.longValue() : (Object) big.doubleValue();
+        }
+        if (val instanceof BigDecimal) {
+            return ((BigDecimal) val).doubleValue();
+        }
+        if (val instanceof Character) {
+            return val.toString();
+        }
+        if (val instanceof Enum<?>) {
+            return ((Enum<?>) val).name();
+        }
+        if (val instanceof Optional<?>) {
+            return adapt(((Optional<?>) val).orElse(null));
+        }
+        if (val.getClass().isArray()) {
+            return new ArrayView(val);
+        }
+        if (val instanceof Collection<?>) {
+            return new AdaptedList(new ArrayList<>((Collection<?>) val));
+        }
+        Object adapter = byClass.computeIfAbsent(val.getClass(), ContextAdapters::find);
+        return adapter == NONE ? val : ((ContextAdapter) adapter).adapt(val);
+    }
+
+    // adaptNested adapts a value read from inside an adapted object. Lists there may
+    // hold domain objects too, so they are wrapped to adapt their elements as well.
+    static Object adaptNested(Object val) {
+        if (val instanceof List<?> && !(val instanceof AdaptedList)) {
+            return new AdaptedList((List<?>) val);
+        }
+        return adapt(val);
+    }
+
+    private static Object find(Class<?> type) {
+        for (ContextAdapter adapter : registered) {
+            if (adapter.supports(type)) {
+                return adapter;
+            }
+        }
+        for (ContextAdapter adapter : builtIn) {
+            if (adapter.supports(type)) {
+                return adapter;
+            }
+        }
+        return NONE;
+    }
+
+    // AdaptedList is a read-only view of a list that adapts each element as it is read.
+    static final class AdaptedList extends AbstractList<Object> implements RandomAccess {
+        private final List<?> list;
+
+        AdaptedList(List<?> list) {
+            this.list = list;
+        }
+
+        @Override
+        public Object get(int index) {
+            return adaptNested(list.get(index));
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+    }
+
+    // ArrayView is a read-only view of a Java array, of objects or of primitives.
+    private static final class ArrayView extends AbstractList<Object> implements RandomAccess {
+        private final Object array;
+
+        ArrayView(Object array) {
+            this.array = array;
+        }
+
+        @Override
+        public Object get(int index) {
+            return adaptNested(Array.get(array, index));
+        }
+
+        @Override
+        public int size() {
+            return Array.getLength(array);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.specdrivendesign.lql.pkg.adapters;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+// JsonNodeAdapter reads Jackson trees in place: objects and arrays become read-only
+// views, and scalar nodes the matching LQL value. Integral numbers that fit in a long
+// are Longs, all other numbers Doubles.
+final class JsonNodeAdapter implements ContextAdapter {
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return JsonNode.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public Object adapt(Object obj) {
+        return value((JsonNode) obj);
+    }
+
+    static Object value(JsonNode node) {
+        if (node == null) {
+            return null;
+        }
+        switch (node.getNodeType()) {
+            case OBJECT:
+                return new ObjectView(node);
+            case ARRAY:
+                return new ArrayView(node);
+            case STRING:
+                return node.textValue();
+            case BOOLEAN:
+                return node.booleanValue();
+            case NUMBER:
+                if (node.isIntegralNumber() && node.canConvertToLong()) {
+                    return node.longValue();
+                }
+                return node.doubleValue();
+            case POJO:
+                return ContextAdapters.adapt(((POJONode) node).getPojo());
+            case BINARY:
+                return node.asText();
+            default:
+                // NULL and MISSING
+                return null;
+        }
+    }
+
+    private static final class ObjectView extends AbstractMap<String, Object> {
+        private final JsonNode node;
+
+        ObjectView(JsonNode node) {
+            this.node = node;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return key instanceof String ? value(node.get((String) key)) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && node.has((String) key);
+        }
+
+        @Override
+        public int size() {
+            return node.size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    Iterator<Entry<String, JsonNode>> it = node.fields();
+                    return new Iterator<Entry<String, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            Entry<String, JsonNode> e = it.next();
+                            return new SimpleImmutableEntry<>(e.getKey(), value(e.getValue()));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return node.size();
+                }
+            };
+        }
+    }
+
+    private static final class ArrayView extends AbstractList<Object> implements RandomAccess {
+        private final JsonNode node;
+
+        ArrayView(JsonNode node) {
+            this.node = node;
+        }
+
+        @Override
+        public Object get(int index) {
+            if (index < 0 || index >= node.size()) {
+                throw new IndexOutOfBoundsException("index " + index + " out of bounds for length " + node.size());
+            }
+            return value(node.get(index));
+        }
+
+        @Override
+        public int size() {
+            return node.size();
+        }
+    }
+}
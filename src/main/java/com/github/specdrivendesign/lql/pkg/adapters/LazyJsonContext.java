@@ -0,0 +1,314 @@
+package com.github.specdrivendesign.lql.pkg.adapters;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+// LazyJsonContext reads a context straight from the bytes of a JSON document. Nothing
+// is parsed up front: looking up a field scans the enclosing object to its end, skipping
+// the values it passes over without building them, and remembers where each field
+// starts; a field's value is built only when it is read, nested objects and arrays as
+// further lazy views over the same bytes. As with a full parse, of a repeated field name
+// the last occurrence is used.
+//
+// The paths an expression reads (CompiledExpression.getRequiredPaths) narrow
+// this further: only the fields on those paths are recorded while scanning, the rest are
+// skipped. A field outside the paths can still be read; the object is then scanned again
+// in full. Skipping checks the syntax of what it passes over, but the parts of the
+// document no lookup reaches are not scanned at all: call validate first when a
+// malformed document must be rejected whatever the expression reads.
+public final class LazyJsonContext {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private LazyJsonContext() {
+    }
+
+    public static Map<String, Object> parse(byte[] json) {
+        return parse(json, null);
+    }
+
+    // parse returns the object json holds as a lazy map; paths may be null, meaning any
+    // field may be read. A document that is just null is an empty context.
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parse(byte[] json, Collection<String> paths) {
+        Object val = read(json, 0, PathTree.of(paths));
+        if (val == null) {
+            return new HashMap<>();
+        }
+        if (!(val instanceof Map<?, ?>)) {
+            throw new IllegalArgumentException("context must be a JSON object");
+        }
+        return (Map<String, Object>) val;
+    }
+
+    // validate checks the syntax of the whole document in one pass that builds nothing,
+    // and fails as parse would on the first error.
+    public static void validate(byte[] json) {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            if (parser.nextToken() == null) {
+                throw new IOException("unexpected end of input");
+            }
+            parser.skipChildren();
+        } catch (IOException e) {
+            throw malformed(e);
+        }
+    }
+
+    // read builds the value starting at offset; objects and arrays keep the parser open
+    // to go on scanning their members.
+    private static Object read(byte[] data, int offset, PathTree wanted) {
+        try {
+            JsonParser parser = FACTORY.createParser(data, offset, data.length - offset);
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                return new ObjectView(data, offset, parser, wanted);
+            }
+            if (token == JsonToken.START_ARRAY) {
+                return new ArrayView(data, offset, parser, wanted);
+            }
+            try {
+                return scalar(parser, token);
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            throw malformed(e);
+        }
+    }
+
+    static Object scalar(JsonParser parser, JsonToken token) throws IOException {
+        if (token == null) {
+            throw new IOException("unexpected end of input");
+        }
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_NUMBER_INT:
+                if (parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+                    return parser.getLongValue();
+                }
+                return parser.getDoubleValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            default:
+                return null;
+        }
+    }
+
+    // slot records the value parser is on, which starts at offset plus the parser's own
+    // offset. Numbers are read there and then: on its own, a number followed by a comma
+    // is not valid JSON.
+    private static Slot slot(JsonParser parser, JsonToken token, int offset, PathTree wanted) throws IOException {
+        Slot slot = new Slot(offset + (int) parser.currentTokenLocation().getByteOffset(), wanted);
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            slot.value = scalar(parser, token);
+            slot.built = true;
+        }
+        return slot;
+    }
+
+    private static IllegalArgumentException malformed(IOException e) {
+        String msg = e instanceof JsonProcessingException ? ((JsonProcessingException) e).getOriginalMessage() : e.getMessage();
+        return new IllegalArgumentException("malformed JSON context: " + msg, e);
+    }
+
+    // Slot is a member whose position is known and whose value is built on first read.
+    private static final class Slot {
+        final int offset;
+        final PathTree wanted;
+        Object value;
+        boolean built;
+
+        Slot(int offset, PathTree wanted) {
+            this.offset = offset;
+            this.wanted = wanted;
+        }
+
+        Object value(byte[] data) {
+            if (!built) {
+                value = read(data, offset, wanted);
+                built = true;
+            }
+            return value;
+        }
+    }
+
+    private static final class ObjectView extends AbstractMap<String, Object> {
+        private final byte[] data;
+        private final int offset;
+        private final Map<String, Slot> fields = new LinkedHashMap<>();
+        // parser is positioned inside the object until the scan reaches its end.
+        private JsonParser parser;
+        private PathTree wanted;
+        // settled holds the fields a finished scan recorded, which a rescan leaves alone.
+        private Set<String> settled = Collections.emptySet();
+
+        ObjectView(byte[] data, int offset, JsonParser parser, PathTree wanted) {
+            this.data = data;
+            this.offset = offset;
+            this.parser = parser;
+            this.wanted = wanted;
+        }
+
+        @Override
+        public synchronized Object get(Object key) {
+            Slot slot = key instanceof String ? find((String) key) : null;
+            return slot == null ? null : slot.value(data);
+        }
+
+        @Override
+        public synchronized boolean containsKey(Object key) {
+            return key instanceof String && find((String) key) != null;
+        }
+
+        @Override
+        public synchronized int size() {
+            scanAll();
+            return fields.size();
+        }
+
+        @Override
+        public synchronized Set<Entry<String, Object>> entrySet() {
+            scanAll();
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (Entry<String, Slot> e : fields.entrySet()) {
+                values.put(e.getKey(), e.getValue().value(data));
+            }
+            return Collections.unmodifiableMap(values).entrySet();
+        }
+
+        // find scans the object to its end before answering, so that a later duplicate of
+        // key overrides an earlier one.
+        private Slot find(String key) {
+            while (parser != null) {
+                next(key);
+            }
+            if (!fields.containsKey(key) && rescan()) {
+                while (parser != null) {
+                    next(key);
+                }
+            }
+            return fields.get(key);
+        }
+
+        private void scanAll() {
+            while (parser != null || rescan()) {
+                next(null);
+            }
+        }
+
+        // rescan starts a full scan over an object that was scanned for the wanted paths
+        // only; it returns false when the object was already scanned in full.
+        private boolean rescan() {
+            if (wanted == null) {
+                return false;
+            }
+            wanted = null;
+            // The fields recorded so far already hold their last occurrence.
+            settled = new HashSet<>(fields.keySet());
+            try {
+                parser = FACTORY.createParser(data, offset, data.length - offset);
+                parser.nextToken();
+            } catch (IOException e) {
+                throw malformed(e);
+            }
+            return true;
+        }
+
+        // next moves past one field, recording it when it is wanted or is key, and
+        // returns its name, or null at the end of the object.
+        private String next(String key) {
+            try {
+                JsonToken token = parser.nextToken();
+                if (token != JsonToken.FIELD_NAME) {
+                    if (token != JsonToken.END_OBJECT) {
+                        throw new IOException("unexpected " + token + " in object");
+                    }
+                    parser.close();
+                    parser = null;
+                    return null;
+                }
+                String name = parser.currentName();
+                token = parser.nextToken();
+                if ((wanted == null || wanted.wants(name) || name.equals(key)) && !settled.contains(name)) {
+                    fields.put(name, slot(parser, token, offset, wanted == null ? null : wanted.child(name)));
+                }
+                parser.skipChildren();
+                return name;
+            } catch (IOException e) {
+                throw malformed(e);
+            }
+        }
+    }
+
+    private static final class ArrayView extends AbstractList<Object> implements RandomAccess {
+        private final byte[] data;
+        private final int offset;
+        private final List<Slot> elements = new ArrayList<>();
+        private final PathTree element;
+        private JsonParser parser;
+
+        ArrayView(byte[] data, int offset, JsonParser parser, PathTree wanted) {
+            this.data = data;
+            this.offset = offset;
+            this.parser = parser;
+            this.element = wanted == null ? null : wanted.child("*");
+        }
+
+        @Override
+        public synchronized Object get(int index) {
+            while (index >= elements.size() && parser != null) {
+                next();
+            }
+            if (index < 0 || index >= elements.size()) {
+                throw new IndexOutOfBoundsException("index " + index + " out of bounds for length " + size());
+            }
+            return elements.get(index).value(data);
+        }
+
+        @Override
+        public synchronized int size() {
+            while (parser != null) {
+                next();
+            }
+            return elements.size();
+        }
+
+        private void next() {
+            try {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.END_ARRAY || token == null) {
+                    if (token == null) {
+                        throw new IOException("unexpected end of input in array");
+                    }
+                    parser.close();
+                    parser = null;
+                    return;
+                }
+                elements.add(slot(parser, token, offset, element));
+                parser.skipChildren();
+            } catch (IOException e) {
+                throw malformed(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.specdrivendesign.lql.pkg.adapters;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// PathTree is a tree of the context paths to read: "user.name" and "items.*.sku" (an
+// array index is written *) give user -> name and items -> * -> sku. A node where some
+// path ends wants its whole value, as does a missing tree (null).
+final class PathTree {
+    private final Map<String, PathTree> children = new HashMap<>();
+    private boolean whole;
+
+    // of returns the tree of paths, or null when paths is null or wants everything.
+    static PathTree of(Collection<String> paths) {
+        if (paths == null) {
+            return null;
+        }
+        PathTree root = new PathTree();
+        for (String path : paths) {
+            PathTree node = root;
+            for (String name : path.split("\\.")) {
+                node = node.children.computeIfAbsent(name, k -> new PathTree());
+            }
+            node.whole = true;
+        }
+        return root.whole ? null : root;
+    }
+
+    // wants reports whether the member name lies on some path. An object member is
+    // also wanted by '*', since an index on an object reads the member of that name.
+    boolean wants(String name) {
+        return children.containsKey(name) || children.containsKey("*");
+    }
+
+    // child returns what is wanted of the member name, or null for all of it.
+    PathTree child(String name) {
+        PathTree node = children.get(name);
+        PathTree any = children.get("*");
+        if (node == null) {
+            node = any;
+        } else if (any != null) {
+            return null;
+        }
+        return node == null || node.whole ? null : node;
+    }
+}
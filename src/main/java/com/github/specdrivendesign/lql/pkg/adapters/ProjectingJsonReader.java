@@ -0,0 +1,102 @@
+package com.github.specdrivendesign.lql.pkg.adapters;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// ProjectingJsonReader deserializes JSON contexts in one streaming pass, building only
+// the members that lie on the given paths, normally CompiledExpression.getRequiredPaths,
+// and skipping every other subtree without building it. Arrays on a path keep all their
+// elements, so indexes still line up. Evaluating the expression against the projected
+// map gives the same result as against the whole document.
+//
+// Unlike LazyJsonContext, which stops scanning as soon as the fields read are found,
+// the reader consumes the whole document and returns plain maps and lists, so it also
+// reads records off a shared parser. A reader holds no state between calls and may be
+// shared between threads.
+public final class ProjectingJsonReader {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final PathTree paths;
+
+    // paths may be null, meaning the whole document is read.
+    public ProjectingJsonReader(Collection<String> paths) {
+        this.paths = PathTree.of(paths);
+    }
+
+    public Map<String, Object> read(byte[] json) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            return read(parser);
+        }
+    }
+
+    public Map<String, Object> read(InputStream in) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(in)) {
+            return read(parser);
+        }
+    }
+
+    // read reads the object parser is on, or the next one when it is on no token, and
+    // leaves parser on its closing brace. A null document is an empty context.
+    public Map<String, Object> read(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken() == null ? parser.nextToken() : parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return new HashMap<>();
+        }
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            throw new IllegalArgumentException("context must be a JSON object");
+        }
+        return object(parser, paths);
+    }
+
+    private static Object value(JsonParser parser, JsonToken token, PathTree wanted) throws IOException {
+        if (token == JsonToken.START_OBJECT) {
+            return object(parser, wanted);
+        }
+        if (token == JsonToken.START_ARRAY) {
+            return array(parser, wanted == null ? null : wanted.child("*"));
+        }
+        return LazyJsonContext.scalar(parser, token);
+    }
+
+    private static Map<String, Object> object(JsonParser parser, PathTree wanted) throws IOException {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            token = parser.nextToken();
+            if (wanted == null || wanted.wants(name)) {
+                fields.put(name, value(parser, token, wanted == null ? null : wanted.child(name)));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (token != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "unexpected " + token + " in object");
+        }
+        return fields;
+    }
+
+    private static List<Object> array(JsonParser parser, PathTree element) throws IOException {
+        List<Object> elements = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new JsonParseException(parser, "unexpected end of input in array");
+            }
+            elements.add(value(parser, token, element));
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.specdrivendesign.lql.pkg.ast;
+
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ArrayLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Binary;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Context;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.FunctionCall;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ObjectLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Shared;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Unary;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Rewriter rebuilds an expression tree bottom-up. The rule is applied to every node
+// after its children have been rewritten; nodes whose children did not change are
+// reused as-is, so a rule that never replaces anything returns the original tree.
+public class Rewriter {
+
+    public interface Rule {
+        Expression apply(Expression expr) throws Exception;
+    }
+
+    public static Expression rewrite(Expression expr, Rule rule) throws Exception {
+        if (expr == null) {
+            return null;
+        }
+        Expression result = expr;
+        if (expr instanceof Binary) {
+            Binary b = (Binary) expr;
+            Expression left = rewrite(b.getLeft(), rule);
+            Expression right = rewrite(b.getRight(), rule);
+            if (left != b.getLeft() || right != b.getRight()) {
+                result = new Binary(left, b.getOperator(), right, b.getLine(), b.getColumn());
+            }
+        } else if (expr instanceof Unary) {
+            Unary u = (Unary) expr;
+            Expression operand = rewrite(u.getExpr(), rule);
+            if (operand != u.getExpr()) {
+                result = new Unary(u.getOperator(), operand, u.getLine(), u.getColumn());
+            }
+        } else if (expr instanceof ArrayLiteral) {
+            ArrayLiteral a = (ArrayLiteral) expr;
+            List<Expression> elements = rewriteAll(a.getElements(), rule);
+            if (elements != a.getElements()) {
+                result = new ArrayLiteral(elements, a.getLine(), a.getColumn());
+            }
+        } else if (expr instanceof ObjectLiteral) {
+            ObjectLiteral o = (ObjectLiteral) expr;
+            Map<String, Expression> fields = new LinkedHashMap<>();
+            boolean changed = false;
+            for (Map.Entry<String, Expression> entry : o.getFields().entrySet()) {
+                Expression value = rewrite(entry.getValue(), rule);
+                changed |= value != entry.getValue();
+                fields.put(entry.getKey(), value);
+            }
+            if (changed) {
+                result = new ObjectLiteral(fields, o.getLine(), o.getColumn());
+            }
+        } else if (expr instanceof FunctionCall) {
+            FunctionCall call = (FunctionCall) expr;
+            List<Expression> args = rewriteAll(call.getArgs(), rule);
+            if (args != call.getArgs()) {
+                result = call.bind(args, call.getLibrary());
+            }
+        } else if (expr instanceof MemberAccess) {
+            MemberAccess m = (MemberAccess) expr;
+            Expression target = rewrite(m.getTarget(), rule);
+            boolean changed = target != m.getTarget();
+            List<MemberAccess.MemberPart> parts = new ArrayList<>(m.getAccessParts().size());
+            for (MemberAccess.MemberPart part : m.getAccessParts()) {
+                Expression index = rewrite(part.getExpr(), rule);
+                if (index != part.getExpr()) {
+                    changed = true;
+                    part = new MemberAccess.MemberPart(part.isOptional(), part.isIndex(), part.getKey(), index, part.getLine(), part.getColumn());
+                }
+                parts.add(part);
+            }
+            if (changed) {
+                result = new MemberAccess(target, parts);
+            }
+        } else if (expr instanceof Shared) {
+            Shared sh = (Shared) expr;
+            Expression inner = rewrite(sh.getExpr(), rule);
+            if (inner != sh.getExpr()) {
+                result = new Shared(sh.getSlot(), inner);
+            }
+        } else if (expr instanceof Context) {
+            Context c = (Context) expr;
+            Expression subscript = rewrite(c.getSubscript(), rule);
+            if (subscript != c.getSubscript()) {
+                result = new Context(c.getIdent(), subscript, c.getLine(), c.getColumn());
+            }
+        }
+        return rule.apply(result);
+    }
+
+    private static List<Expression> rewriteAll(List<Expression> exprs, Rule rule) throws Exception {
+        List<Expression> result = new ArrayList<>(exprs.size());
+        boolean changed = false;
+        for (Expression e : exprs) {
+            Expression r = rewrite(e, rule);
+            changed |= r != e;
+            result.add(r);
+        }
+        return changed ? result : exprs;
+    }
+}
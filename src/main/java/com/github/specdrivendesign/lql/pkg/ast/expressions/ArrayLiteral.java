@@ -17,6 +17,18 @@ public class ArrayLiteral implements Expression {
         this.column = column;
     }
 
+    public List<Expression> getElements() {
+        return elements;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
     @Override
     public Object eval(java.util.Map<String, Object> ctx, Env env) throws Exception {
         List<Object> result = new ArrayList<>();
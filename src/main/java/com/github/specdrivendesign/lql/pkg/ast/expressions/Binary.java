@@ -23,6 +23,26 @@ public class Binary implements Expression {
         this.column = column;
     }
 
+    public Expression getLeft() {
+        return left;
+    }
+
+    public int getOperator() {
+        return operator;
+    }
+
+    public Expression getRight() {
+        return right;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
     @Override
     public Object eval(Map<String, Object> ctx, Env env) throws Exception {
         // Handle logical AND (short-circuit)
@@ -59,89 +79,94 @@ public class Binary implements Expression {
         else {
             Object leftVal = left.eval(ctx, env);
             Object rightVal = right.eval(ctx, env);
-            switch (operator) {
-                case Tokens.TokenPlus: {
-                    Double ln = Types.toFloat(leftVal);
-                    Double rn = Types.toFloat(rightVal);
-                    if (ln == null || rn == null) {
-                        throw Errors.newSemanticError("'+' operator used on non‑numeric type", line, column);
-                    }
-                    if (Types.isInt(leftVal) != Types.isInt(rightVal)) {
-                        throw Errors.newSemanticError("Mixed numeric types require explicit conversion", line, column);
-                    }
-                    if (Types.isInt(leftVal)) {
-                        return (long) (ln + rn);
-                    }
-                    return ln + rn;
+            return apply(operator, leftVal, rightVal, line, column);
+        }
+    }
+
+    // apply evaluates a non-logical binary operator on already evaluated operands.
+    public static Object apply(int operator, Object leftVal, Object rightVal, int line, int column) throws Exception {
+        switch (operator) {
+            case Tokens.TokenPlus: {
+                Double ln = Types.toFloat(leftVal);
+                Double rn = Types.toFloat(rightVal);
+                if (ln == null || rn == null) {
+                    throw Errors.newSemanticError("'+' operator used on non‑numeric type", line, column);
                 }
-                case Tokens.TokenMinus: {
-                    Double ln = Types.toFloat(leftVal);
-                    Double rn = Types.toFloat(rightVal);
-                    if (ln == null || rn == null) {
-                        throw Errors.newSemanticError("'-' operator used on non‑numeric type", line, column);
-                    }
-                    if (Types.isInt(leftVal) != Types.isInt(rightVal)) {
-                        throw Errors.newSemanticError("Mixed numeric types require explicit conversion", line, column);
-                    }
-                    if (Types.isInt(leftVal)) {
-                        return (long) (ln - rn);
-                    }
-                    return ln - rn;
+                if (Types.isInt(leftVal) != Types.isInt(rightVal)) {
+                    throw Errors.newSemanticError("Mixed numeric types require explicit conversion", line, column);
                 }
-                case Tokens.TokenMultiply: {
-                    Double ln = Types.toFloat(leftVal);
-                    Double rn = Types.toFloat(rightVal);
-                    if (ln == null || rn == null) {
-                        throw Errors.newSemanticError("'*' operator used on non‑numeric type", line, column);
-                    }
-                    if (Types.isInt(leftVal) != Types.isInt(rightVal)) {
-                        throw Errors.newSemanticError("Mixed numeric types require explicit conversion", line, column);
-                    }
-                    if (Types.isInt(leftVal)) {
-                        return (long) (ln * rn);
-                    }
-                    return ln * rn;
+                if (Types.isInt(leftVal)) {
+                    return Types.addInt(Types.toInt(leftVal), Types.toInt(rightVal));
                 }
-                case Tokens.TokenDivide: {
-                    Double ln = Types.toFloat(leftVal);
-                    Double rn = Types.toFloat(rightVal);
-                    if (ln == null || rn == null) {
-                        throw Errors.newSemanticError("'/' operator used on non‑numeric type", line, column);
-                    }
-                    if (rn == 0) {
-                        throw Errors.newDivideByZeroError("division by zero", line, column);
-                    }
-                    if (Types.isInt(leftVal) != Types.isInt(rightVal)) {
-                        throw Errors.newSemanticError("Mixed numeric types require explicit conversion", line, column);
-                    }
-                    if (Types.isInt(leftVal)) {
-                        return (long) (ln / rn);
-                    }
-                    return ln / rn;
+                return ln + rn;
+            }
+            case Tokens.TokenMinus: {
+                Double ln = Types.toFloat(leftVal);
+                Double rn = Types.toFloat(rightVal);
+                if (ln == null || rn == null) {
+                    throw Errors.newSemanticError("'-' operator used on non‑numeric type", line, column);
+                }
+                if (Types.isInt(leftVal) != Types.isInt(rightVal)) {
+                    throw Errors.newSemanticError("Mixed numeric types require explicit conversion", line, column);
+                }
+                if (Types.isInt(leftVal)) {
+                    return Types.subtractInt(Types.toInt(leftVal), Types.toInt(rightVal));
+                }
+                return ln - rn;
+            }
+            case Tokens.TokenMultiply: {
+                Double ln = Types.toFloat(leftVal);
+                Double rn = Types.toFloat(rightVal);
+                if (ln == null || rn == null) {
+                    throw Errors.newSemanticError("'*' operator used on non‑numeric type", line, column);
+                }
+                if (Types.isInt(leftVal) != Types.isInt(rightVal)) {
+                    throw Errors.newSemanticError("Mixed numeric types require explicit conversion", line, column);
+                }
+                if (Types.isInt(leftVal)) {
+                    return Types.multiplyInt(Types.toInt(leftVal), Types.toInt(rightVal));
                 }
-                case Tokens.TokenModulo: {
-                    Long ln = Types.toInt(leftVal);
-                    Long rn = Types.toInt(rightVal);
-                    if (ln == null || rn == null) {
-                        throw Errors.newSemanticError("'%' operator used on non‑numeric type", line, column);
-                    }
-                    return ln % rn;
+                return ln * rn;
+            }
+            case Tokens.TokenDivide: {
+                Double ln = Types.toFloat(leftVal);
+                Double rn = Types.toFloat(rightVal);
+                if (ln == null || rn == null) {
+                    throw Errors.newSemanticError("'/' operator used on non‑numeric type", line, column);
+                }
+                if (rn == 0) {
+                    throw Errors.newDivideByZeroError("division by zero", line, column);
+                }
+                if (Types.isInt(leftVal) != Types.isInt(rightVal)) {
+                    throw Errors.newSemanticError("Mixed numeric types require explicit conversion", line, column);
+                }
+                if (Types.isInt(leftVal)) {
+                    return Types.divideInt(Types.toInt(leftVal), Types.toInt(rightVal));
+                }
+                return ln / rn;
+            }
+            case Tokens.TokenModulo: {
+                Long ln = Types.toInt(leftVal);
+                Long rn = Types.toInt(rightVal);
+                if (ln == null || rn == null) {
+                    throw Errors.newSemanticError("'%' operator used on non‑numeric type", line, column);
                 }
-                case Tokens.TokenLt:
-                    return Types.compare(leftVal, rightVal, "<", line, column);
-                case Tokens.TokenGt:
-                    return Types.compare(leftVal, rightVal, ">", line, column);
-                case Tokens.TokenLte:
-                    return Types.compare(leftVal, rightVal, "<=", line, column);
-                case Tokens.TokenGte:
-                    return Types.compare(leftVal, rightVal, ">=", line, column);
-                case Tokens.TokenEq:
-                    return Types.equals(leftVal, rightVal);
-                case Tokens.TokenNeq:
-                    return !Types.equals(leftVal, rightVal);
-                default:
-                    throw Errors.newUnknownOperatorError("unknown binary operator", line, column);
+                return ln % rn;
             }
+            case Tokens.TokenLt:
+                return Types.compare(leftVal, rightVal, "<", line, column);
+            case Tokens.TokenGt:
+                return Types.compare(leftVal, rightVal, ">", line, column);
+            case Tokens.TokenLte:
+                return Types.compare(leftVal, rightVal, "<=", line, column);
+            case Tokens.TokenGte:
+                return Types.compare(leftVal, rightVal, ">=", line, column);
+            case Tokens.TokenEq:
+                return Types.equals(leftVal, rightVal);
+            case Tokens.TokenNeq:
+                return !Types.equals(leftVal, rightVal);
+            default:
+                throw Errors.newUnknownOperatorError("unknown binary operator", line, column);
         }
     }
 
@@ -1,18 +1,82 @@
 package com.github.specdrivendesign.lql.pkg.ast.expressions;
 
+// Color is read by every toString of the AST, from any thread. The palette is an
+// immutable Palette swapped as a whole through a volatile field, so readers need no
+// locking and never see half of one palette and half of another.
 public class Color {
-    private static boolean enabled = initColorEnabled();
+    private static volatile boolean enabled = initColorEnabled();
     private static final String reset = "\033[0m";
 
-    private static String punctuationColor;
-    private static String stringColor;
-    private static String numberColor;
-    private static String operatorColor;
-    private static String boolNullColor;
-    private static String identifierColor;
-    private static String libraryColor;
-    private static String functionColor;
-    private static String contextColor;
+    private static volatile Palette palette;
+
+    private static final class Palette {
+        private final String punctuation;
+        private final String string;
+        private final String number;
+        private final String operator;
+        private final String boolNull;
+        private final String identifier;
+        private final String library;
+        private final String function;
+        private final String context;
+
+        Palette(String punctuation, String string, String number, String operator, String boolNull,
+                String identifier, String library, String function, String context) {
+            this.punctuation = punctuation;
+            this.string = string;
+            this.number = number;
+            this.operator = operator;
+            this.boolNull = boolNull;
+            this.identifier = identifier;
+            this.library = library;
+            this.function = function;
+            this.context = context;
+        }
+    }
+
+    private static final Palette MILD = new Palette(
+            "\033[38;2;92;99;112m",
+            "\033[38;2;152;195;121m",
+            "\033[38;2;209;154;102m",
+            "\033[38;2;198;120;221m",
+            "\033[38;2;86;182;194m",
+            "\033[38;2;229;192;123m",
+            "\033[38;2;171;178;191m",
+            "\033[38;2;97;175;239m",
+            "\033[38;2;224;108;117m");
+
+    private static final Palette VIVID = new Palette(
+            "\033[38;2;255;128;0m",
+            "\033[38;2;255;85;85m",
+            "\033[38;2;0;255;0m",
+            "\033[38;2;255;0;255m",
+            "\033[38;2;0;170;255m",
+            "\033[38;2;255;215;0m",
+            "\033[38;2;255;160;0m",
+            "\033[38;2;85;85;255m",
+            "\033[38;2;255;20;147m");
+
+    private static final Palette DRACULA = new Palette(
+            "\033[38;2;98;114;164m",
+            "\033[38;2;241;250;140m",
+            "\033[38;2;189;147;249m",
+            "\033[38;2;255;121;198m",
+            "\033[38;2;139;233;253m",
+            "\033[38;2;80;250;123m",
+            "\033[38;2;255;184;108m",
+            "\033[38;2;255;85;85m",
+            "\033[38;2;248;248;242m");
+
+    private static final Palette SOLARIZED = new Palette(
+            "\033[38;2;88;110;117m",
+            "\033[38;2;42;161;152m",
+            "\033[38;2;133;153;0m",
+            "\033[38;2;108;113;196m",
+            "\033[38;2;38;139;210m",
+            "\033[38;2;181;137;0m",
+            "\033[38;2;147;161;161m",
+            "\033[38;2;211;54;130m",
+            "\033[38;2;203;75;22m");
 
     public static final String PALETTE_MILD = "mild";
     public static final String PALETTE_VIVID = "vivid";
@@ -65,86 +129,54 @@ public class Color {
     }
 
     public static String getPunctuationColor() {
-        return punctuationColor;
+        return palette.punctuation;
     }
 
     public static String getStringColor() {
-        return stringColor;
+        return palette.string;
     }
 
     public static String getNumberColor() {
-        return numberColor;
+        return palette.number;
     }
 
     public static String getOperatorColor() {
-        return operatorColor;
+        return palette.operator;
     }
 
     public static String getBoolNullColor() {
-        return boolNullColor;
+        return palette.boolNull;
     }
 
     public static String getIdentifierColor() {
-        return identifierColor;
+        return palette.identifier;
     }
 
     public static String getLibraryColor() {
-        return libraryColor;
+        return palette.library;
     }
 
     public static String getFunctionColor() {
-        return functionColor;
+        return palette.function;
     }
 
     public static String getContextColor() {
-        return contextColor;
+        return palette.context;
     }
 
     public static void applyMildPalette() {
-        punctuationColor = "\033[38;2;92;99;112m";
-        stringColor = "\033[38;2;152;195;121m";
-        numberColor = "\033[38;2;209;154;102m";
-        operatorColor = "\033[38;2;198;120;221m";
-        boolNullColor = "\033[38;2;86;182;194m";
-        identifierColor = "\033[38;2;229;192;123m";
-        libraryColor = "\033[38;2;171;178;191m";
-        functionColor = "\033[38;2;97;175;239m";
-        contextColor = "\033[38;2;224;108;117m";
+        palette = MILD;
     }
 
     public static void applyVividPalette() {
-        punctuationColor = "\033[38;2;255;128;0m";
-        stringColor = "\033[38;2;255;85;85m";
-        numberColor = "\033[38;2;0;255;0m";
-        operatorColor = "\033[38;2;255;0;255m";
-        boolNullColor = "\033[38;2;0;170;255m";
-        identifierColor = "\033[38;2;255;215;0m";
-        libraryColor = "\033[38;2;255;160;0m";
-        functionColor = "\033[38;2;85;85;255m";
-        contextColor = "\033[38;2;255;20;147m";
+        palette = VIVID;
     }
 
     public static void applyDraculaPalette() {
-        punctuationColor = "\033[38;2;98;114;164m";
-        stringColor = "\033[38;2;241;250;140m";
-        numberColor = "\033[38;2;189;147;249m";
-        operatorColor = "\033[38;2;255;121;198m";
-        boolNullColor = "\033[38;2;139;233;253m";
-        identifierColor = "\033[38;2;80;250;123m";
-        libraryColor = "\033[38;2;255;184;108m";
-        functionColor = "\033[38;2;255;85;85m";
-        contextColor = "\033[38;2;248;248;242m";
+        palette = DRACULA;
     }
 
     public static void applySolarizedPalette() {
-        punctuationColor = "\033[38;2;88;110;117m";
-        stringColor = "\033[38;2;42;161;152m";
-        numberColor = "\033[38;2;133;153;0m";
-        operatorColor = "\033[38;2;108;113;196m";
-        boolNullColor = "\033[38;2;38;139;210m";
-        identifierColor = "\033[38;2;181;137;0m";
-        libraryColor = "\033[38;2;147;161;161m";
-        functionColor = "\033[38;2;211;54;130m";
-        contextColor = "\033[38;2;203;75;22m";
+        palette = SOLARIZED;
     }
 }
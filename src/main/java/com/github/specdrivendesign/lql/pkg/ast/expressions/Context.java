@@ -1,5 +1,6 @@
 package com.github.specdrivendesign.lql.pkg.ast.expressions;
 
+import com.github.specdrivendesign.lql.pkg.adapters.ContextAdapters;
 import com.github.specdrivendesign.lql.pkg.ast.Expression;
 import com.github.specdrivendesign.lql.pkg.env.Env;
 import com.github.specdrivendesign.lql.pkg.errors.Errors;
@@ -19,11 +20,27 @@ public class Context implements Expression {
         this.column = column;
     }
 
+    public Identifier getIdent() {
+        return ident;
+    }
+
+    public Expression getSubscript() {
+        return subscript;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
     @Override
     public Object eval(Map<String, Object> ctx, Env env) throws Exception {
         if (ident != null) {
             if (ctx.containsKey(ident.getName())) {
-                return ctx.get(ident.getName());
+                return ContextAdapters.adapt(ctx.get(ident.getName()));
             }
             throw Errors.newReferenceError(String.format("field '%s' not found", ident.getName()), ident.getLine(), ident.getColumn());
         }
@@ -1,7 +1,10 @@
 package com.github.specdrivendesign.lql.pkg.ast.expressions;
 
 import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.env.CallSite;
 import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.env.IFunction;
+import com.github.specdrivendesign.lql.pkg.env.ILibrary;
 import com.github.specdrivendesign.lql.pkg.errors.Errors;
 import com.github.specdrivendesign.lql.pkg.param.Param;
 
@@ -16,14 +19,90 @@ public class FunctionCall implements Expression {
     private int column;
     private int parenLine;
     private int parenColumn;
+    // library resolved at compile time; null means look it up in the Env on every call
+    private ILibrary library;
+    // function resolved from library at compile time; null when there is no library or
+    // it has no such function, in which case the call goes through ILibrary.call
+    private IFunction function;
+    // the call site of function, null along with it
+    private CallSite callSite;
+    // argument positions, taken once so that calls do not ask every argument for pos()
+    private int[] argLines;
+    private int[] argColumns;
 
     public FunctionCall(List<String> namespace, List<Expression> args, int line, int column, int parenLine, int parenColumn) {
+        this(namespace, args, line, column, parenLine, parenColumn, null);
+    }
+
+    public FunctionCall(List<String> namespace, List<Expression> args, int line, int column, int parenLine, int parenColumn, ILibrary library) {
+        this(namespace, args, line, column, parenLine, parenColumn, library, resolve(namespace, library));
+    }
+
+    private FunctionCall(List<String> namespace, List<Expression> args, int line, int column, int parenLine, int parenColumn, ILibrary library, IFunction function) {
         this.namespace = namespace;
         this.args = args;
         this.line = line;
         this.column = column;
         this.parenLine = parenLine;
         this.parenColumn = parenColumn;
+        this.library = library;
+        this.function = function;
+        this.argLines = new int[args.size()];
+        this.argColumns = new int[args.size()];
+        for (int i = 0; i < args.size(); i++) {
+            int[] pos = args.get(i).pos();
+            argLines[i] = pos[0];
+            argColumns[i] = pos[1];
+        }
+        if (function != null) {
+            this.callSite = new CallSite(function, line, column, parenLine, parenColumn, argLines, argColumns);
+        }
+    }
+
+    private static IFunction resolve(List<String> namespace, ILibrary library) {
+        return library != null && namespace.size() >= 2 ? library.resolve(namespace.get(1)) : null;
+    }
+
+    public List<String> getNamespace() {
+        return namespace;
+    }
+
+    public List<Expression> getArgs() {
+        return args;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public int getParenLine() {
+        return parenLine;
+    }
+
+    public int getParenColumn() {
+        return parenColumn;
+    }
+
+    public ILibrary getLibrary() {
+        return library;
+    }
+
+    public IFunction getFunction() {
+        return function;
+    }
+
+    public CallSite getCallSite() {
+        return callSite;
+    }
+
+    // bind returns a copy of this call with its library pre-resolved and the given arguments.
+    public FunctionCall bind(List<Expression> args, ILibrary library) {
+        IFunction resolved = library == this.library ? function : resolve(namespace, library);
+        return new FunctionCall(namespace, args, line, column, parenLine, parenColumn, library, resolved);
     }
 
     @Override
@@ -33,15 +112,31 @@ public class FunctionCall implements Expression {
         }
         String libName = namespace.get(0);
         String funcName = namespace.get(1);
-        var lib = env.getLibrary(libName);
+        ILibrary lib = library != null ? library : env.getLibrary(libName);
         if (lib == null) {
             throw Errors.newReferenceError(String.format("library '%s' not found", libName), line, column);
         }
+        if (callSite != null) {
+            switch (args.size()) {
+                case 0:
+                    return callSite.call();
+                case 1:
+                    return callSite.call(args.get(0).eval(ctx, env));
+                case 2:
+                    return callSite.call(args.get(0).eval(ctx, env), args.get(1).eval(ctx, env));
+                case 3:
+                    return callSite.call(args.get(0).eval(ctx, env), args.get(1).eval(ctx, env), args.get(2).eval(ctx, env));
+                default:
+                    Object[] values = new Object[args.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = args.get(i).eval(ctx, env);
+                    }
+                    return callSite.call(values);
+            }
+        }
         List<Param> evaluatedArgs = new ArrayList<>();
-        for (Expression argExpr : args) {
-            Object val = argExpr.eval(ctx, env);
-            int[] pos = argExpr.pos();
-            evaluatedArgs.add(new Param(val, pos[0], pos[1]));
+        for (int i = 0; i < args.size(); i++) {
+            evaluatedArgs.add(new Param(args.get(i).eval(ctx, env), argLines[i], argColumns[i]));
         }
         return lib.call(funcName, evaluatedArgs, line, column, parenLine, parenColumn);
     }
@@ -17,6 +17,18 @@ public class Literal implements Expression {
         this.column = column;
     }
 
+    public Object getValue() {
+        return value;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
     @Override
     public Object eval(Map<String, Object> ctx, Env env) throws Exception {
         return value;
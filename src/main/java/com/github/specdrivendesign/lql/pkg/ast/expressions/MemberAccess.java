@@ -1,6 +1,7 @@
 // --------- FILE START: "MemberAccess.java" (converted from pkg/ast/expressions/memberaccess.go) ----------
 package com.github.specdrivendesign.lql.pkg.ast.expressions;
 
+import com.github.specdrivendesign.lql.pkg.adapters.ContextAdapters;
 import com.github.specdrivendesign.lql.pkg.ast.Expression;
 import com.github.specdrivendesign.lql.pkg.env.Env;
 import com.github.specdrivendesign.lql.pkg.errors.Errors;
@@ -18,6 +19,17 @@ public class MemberAccess implements Expression {
         this.accessParts = accessParts;
     }
 
+    public Expression getTarget() {
+        return target;
+    }
+
+    public List<MemberPart> getAccessParts() {
+        return accessParts;
+    }
+
+    // MISSING is returned by getField and getIndex when an optional part finds nothing.
+    public static final Object MISSING = new Object();
+
     @Override
     public Object eval(Map<String, Object> ctx, Env env) throws Exception {
         Object val = target.eval(ctx, env);
@@ -26,57 +38,65 @@ public class MemberAccess implements Expression {
                 return null;
             }
             if (part.isIndex()) {
-                Object indexVal = part.getExpr().eval(ctx, env);
-                // Try object access first.
-                Map<String, Object> obj = Types.convertToStringMap(val);
-                if (obj != null) {
-                    String key = (indexVal instanceof String) ? (String) indexVal : String.valueOf(indexVal);
-                    if (obj.containsKey(key)) {
-                        val = obj.get(key);
-                    } else {
-                        if (part.isOptional()) {
-                            return null;
-                        }
-                        throw Errors.newReferenceError("field '" + key + "' not found", part.getLine(), part.getColumn());
-                    }
-                } else {
-                    // Try array access.
-                    List<Object> arr = Types.convertToInterfaceList(val);
-                    if (arr != null) {
-                        Long idx = Types.toInt(indexVal);
-                        if (idx == null) {
-                            throw Errors.newTypeError("array index must be numeric", part.getLine(), part.getColumn());
-                        }
-                        int index = idx.intValue();
-                        if (index < 0 || index >= arr.size()) {
-                            if (part.isOptional()) {
-                                return null;
-                            }
-                            throw Errors.newArrayOutOfBoundsError("array index out of bounds", part.getLine(), part.getColumn());
-                        }
-                        val = arr.get(index);
-                    } else {
-                        throw Errors.newTypeError("target is not an object or array", part.getLine(), part.getColumn());
-                    }
-                }
+                val = getIndex(val, part.getExpr().eval(ctx, env), part);
             } else {
-                Map<String, Object> obj = Types.convertToStringMap(val);
-                if (obj == null) {
-                    throw Errors.newTypeError("dot access on non‑object", part.getLine(), part.getColumn());
-                }
-                if (obj.containsKey(part.getKey())) {
-                    val = obj.get(part.getKey());
-                } else {
-                    if (part.isOptional()) {
-                        return null;
-                    }
-                    throw Errors.newReferenceError("field '" + part.getKey() + "' not found", part.getLine(), part.getColumn());
-                }
+                val = getField(val, part);
+            }
+            if (val == MISSING) {
+                return null;
             }
         }
         return val;
     }
 
+    // getField applies a single '.key' part to val.
+    public static Object getField(Object val, MemberPart part) throws Exception {
+        if (!(val instanceof Map<?, ?>)) {
+            throw Errors.newTypeError("dot access on non‑object", part.getLine(), part.getColumn());
+        }
+        Object field = Types.lookupField((Map<?, ?>) val, part.getKey());
+        if (field != Types.NO_FIELD) {
+            return field;
+        }
+        if (part.isOptional()) {
+            return MISSING;
+        }
+        throw Errors.newReferenceError("field '" + part.getKey() + "' not found", part.getLine(), part.getColumn());
+    }
+
+    // getIndex applies a single '[index]' part to val, where indexVal is the evaluated index.
+    public static Object getIndex(Object val, Object indexVal, MemberPart part) throws Exception {
+        // Try object access first.
+        if (val instanceof Map<?, ?>) {
+            String key = (indexVal instanceof String) ? (String) indexVal : String.valueOf(indexVal);
+            Object field = Types.lookupField((Map<?, ?>) val, key);
+            if (field != Types.NO_FIELD) {
+                return field;
+            }
+            if (part.isOptional()) {
+                return MISSING;
+            }
+            throw Errors.newReferenceError("field '" + key + "' not found", part.getLine(), part.getColumn());
+        }
+        // Try array access.
+        List<Object> arr = Types.convertToInterfaceList(val);
+        if (arr == null) {
+            throw Errors.newTypeError("target is not an object or array", part.getLine(), part.getColumn());
+        }
+        Long idx = Types.toInt(indexVal);
+        if (idx == null) {
+            throw Errors.newTypeError("array index must be numeric", part.getLine(), part.getColumn());
+        }
+        int index = idx.intValue();
+        if (index < 0 || index >= arr.size()) {
+            if (part.isOptional()) {
+                return MISSING;
+            }
+            throw Errors.newArrayOutOfBoundsError("array index out of bounds", part.getLine(), part.getColumn());
+        }
+        return ContextAdapters.adapt(arr.get(index));
+    }
+
     @Override
     public int[] pos() {
         return target.pos();
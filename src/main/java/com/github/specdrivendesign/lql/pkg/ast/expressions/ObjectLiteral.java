@@ -18,6 +18,18 @@ public class ObjectLiteral implements Expression {
         this.column = column;
     }
 
+    public Map<String, Expression> getFields() {
+        return fields;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
     @Override
     public Object eval(Map<String, Object> ctx, Env env) throws Exception {
         Map<String, Object> result = new HashMap<>();
@@ -0,0 +1,43 @@
+package com.github.specdrivendesign.lql.pkg.ast.expressions;
+
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+
+import java.util.Map;
+
+// Shared marks a sub-expression that occurs in several rules of a rule set. All
+// occurrences with the same slot compute the same value, so compiled rules evaluate
+// it once per context and keep the result in that slot. Evaluated on its own it
+// simply evaluates expr.
+public class Shared implements Expression {
+    private int slot;
+    private Expression expr;
+
+    public Shared(int slot, Expression expr) {
+        this.slot = slot;
+        this.expr = expr;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public Expression getExpr() {
+        return expr;
+    }
+
+    @Override
+    public Object eval(Map<String, Object> ctx, Env env) throws Exception {
+        return expr.eval(ctx, env);
+    }
+
+    @Override
+    public int[] pos() {
+        return expr.pos();
+    }
+
+    @Override
+    public String toString() {
+        return expr.toString();
+    }
+}
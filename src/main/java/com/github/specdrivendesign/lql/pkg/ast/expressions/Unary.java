@@ -22,9 +22,30 @@ public class Unary implements Expression {
         this.column = column;
     }
 
+    public int getOperator() {
+        return operator;
+    }
+
+    public Expression getExpr() {
+        return expr;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
     @Override
     public Object eval(Map<String, Object> ctx, Env env) throws Exception {
         Object val = expr.eval(ctx, env);
+        return apply(operator, val, line, column);
+    }
+
+    // apply evaluates a unary operator on an already evaluated operand.
+    public static Object apply(int operator, Object val, int line, int column) throws Exception {
         switch (operator) {
             case Tokens.TokenMinus: {
                 Double num = Types.toFloat(val);
@@ -32,7 +53,7 @@ public class Unary implements Expression {
                     throw Errors.newSemanticError("unary '-' operator requires a numeric operand", line, column);
                 }
                 if (Types.isInt(val)) {
-                    return (long)(-num);
+                    return Types.negateInt(Types.toInt(val));
                 }
                 return -num;
             }
@@ -0,0 +1,242 @@
+package com.github.specdrivendesign.lql.pkg.bundle;
+
+import com.github.specdrivendesign.lql.pkg.compiler.CompiledExpression;
+import com.github.specdrivendesign.lql.pkg.compiler.Compiler;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// RuleBundle is a single file holding many compiled rules, each stored as the bytecode
+// of its expression (either format) under a string id:
+//
+//   header:  magic "LQLR", version (1 byte, 1), 3 reserved bytes, rule count
+//   index:   one 16-byte entry per rule, sorted by the UTF-8 bytes of its id:
+//            id offset, id length, bytecode offset, bytecode length
+//   ids and bytecode, concatenated
+//   trailer: RSA signature (SHA256withRSA) over everything before it, then its length
+//            (0 for an unsigned bundle)
+//
+// All integers are 4-byte little-endian, so a bundle is at most 2 GB. The file is
+// opened with FileChannel.map and never copied to the heap: opening checks the header
+// and the signature, a lookup binary-searches the index in place, and only the
+// bytecode of the rules asked for is read and compiled. The mapped pages are the OS
+// page cache, shared by every JVM on the host that opens the same file. A RuleBundle
+// is read-only and may be shared between threads.
+public final class RuleBundle implements Closeable {
+    public static final String MAGIC = "LQLR";
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer data;
+    private final int count;
+    // end is where the signed content, and so the ids and bytecode, stop.
+    private final int end;
+
+    private RuleBundle(FileChannel channel, ByteBuffer data, PublicKey key) throws Exception {
+        this.channel = channel;
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        int size = data.limit();
+        if (size < HEADER_SIZE + 4) {
+            throw new Exception("data too short to be a rule bundle");
+        }
+        for (int i = 0; i < MAGIC.length(); i++) {
+            if (data.get(i) != MAGIC.charAt(i)) {
+                throw new Exception(String.format("invalid header magic; expected %s", MAGIC));
+            }
+        }
+        if (data.get(4) != VERSION) {
+            throw new Exception(String.format("unsupported rule bundle version %d; expected %d", data.get(4), VERSION));
+        }
+        int sigSize = data.getInt(size - 4);
+        if (sigSize < 0 || sigSize > size - 4 - HEADER_SIZE) {
+            throw new Exception("invalid rule bundle signature length");
+        }
+        this.end = size - 4 - sigSize;
+        this.count = data.getInt(8);
+        if (count < 0 || count > (end - HEADER_SIZE) / ENTRY_SIZE) {
+            throw new Exception("invalid rule bundle index");
+        }
+        if (key != null) {
+            if (sigSize == 0) {
+                throw new Exception("rule bundle is not signed");
+            }
+            Signature sig = Signature.getInstance("SHA256withRSA");
+            sig.initVerify(key);
+            sig.update(data.duplicate().position(0).limit(end));
+            byte[] signature = new byte[sigSize];
+            data.get(end, signature);
+            if (!sig.verify(signature)) {
+                throw new Exception("invalid signature");
+            }
+        }
+    }
+
+    // open maps the bundle at path. With a key the bundle must carry a valid signature by
+    // it; with null the signature, if any, is not checked.
+    public static RuleBundle open(Path path, PublicKey key) throws Exception {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new Exception("rule bundle larger than 2 GB");
+            }
+            return new RuleBundle(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), key);
+        } catch (Exception e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // write stores rules, bytecode by id, as a bundle at path, signed with key unless it
+    // is null.
+    public static void write(Path path, Map<String, byte[]> rules, PrivateKey key) throws Exception {
+        List<byte[]> ids = new ArrayList<>(rules.size());
+        List<byte[]> codes = new ArrayList<>(rules.size());
+        List<Map.Entry<String, byte[]>> entries = new ArrayList<>(rules.entrySet());
+        entries.sort((x, y) -> Arrays.compareUnsigned(x.getKey().getBytes(StandardCharsets.UTF_8), y.getKey().getBytes(StandardCharsets.UTF_8)));
+        long size = HEADER_SIZE + (long) ENTRY_SIZE * entries.size();
+        for (Map.Entry<String, byte[]> e : entries) {
+            ids.add(e.getKey().getBytes(StandardCharsets.UTF_8));
+            codes.add(e.getValue());
+            size += ids.get(ids.size() - 1).length + e.getValue().length;
+        }
+        if (size > Integer.MAX_VALUE - 4096) {
+            throw new Exception("rule bundle larger than 2 GB");
+        }
+        ByteBuffer out = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < MAGIC.length(); i++) {
+            out.put((byte) MAGIC.charAt(i));
+        }
+        out.put((byte) VERSION).put((byte) 0).put((byte) 0).put((byte) 0);
+        out.putInt(ids.size());
+        int at = HEADER_SIZE + ENTRY_SIZE * ids.size();
+        for (int i = 0; i < ids.size(); i++) {
+            out.putInt(at).putInt(ids.get(i).length).putInt(at + ids.get(i).length).putInt(codes.get(i).length);
+            at += ids.get(i).length + codes.get(i).length;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            out.put(ids.get(i)).put(codes.get(i));
+        }
+        byte[] content = out.array();
+        byte[] signature = new byte[0];
+        if (key != null) {
+            Signature sig = Signature.getInstance("SHA256withRSA");
+            sig.initSign(key);
+            sig.update(content);
+            signature = sig.sign();
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(signature.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.put(signature).putInt(signature.length);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] parts = {ByteBuffer.wrap(content), trailer.flip()};
+            while (parts[1].hasRemaining()) {
+                channel.write(parts);
+            }
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // ids returns every rule id, in index order.
+    public List<String> ids() throws Exception {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(new String(slice(i, 0), StandardCharsets.UTF_8));
+        }
+        return ids;
+    }
+
+    public boolean contains(String id) throws Exception {
+        return find(id) >= 0;
+    }
+
+    // byteCode returns a copy of the bytecode stored under id, or null when there is none.
+    public byte[] byteCode(String id) throws Exception {
+        int i = find(id);
+        return i < 0 ? null : slice(i, 8);
+    }
+
+    // load decodes and compiles the rule stored under id. Nothing is cached: callers
+    // that load a rule more than once keep the result.
+    public CompiledExpression load(String id, Env env, Compiler.Backend backend) throws Exception {
+        byte[] code = byteCode(id);
+        if (code == null) {
+            throw new Exception("rule '" + id + "' not found in bundle");
+        }
+        return CompiledExpression.fromByteCode(code, env, backend);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // find binary-searches the index for id, comparing UTF-8 bytes in place.
+    private int find(String id) throws Exception {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = HEADER_SIZE + mid * ENTRY_SIZE;
+            int offset = data.getInt(entry);
+            int length = data.getInt(entry + 4);
+            check(offset, length);
+            int cmp = compare(offset, length, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int offset, int length, byte[] key) {
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Integer.compare(data.get(offset + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    // slice copies the id (field 0) or the bytecode (field 8) of index entry i.
+    private byte[] slice(int i, int field) throws Exception {
+        int entry = HEADER_SIZE + i * ENTRY_SIZE + field;
+        int offset = data.getInt(entry);
+        int length = data.getInt(entry + 4);
+        check(offset, length);
+        byte[] bytes = new byte[length];
+        data.get(offset, bytes);
+        return bytes;
+    }
+
+    private void check(int offset, int length) throws Exception {
+        if (offset < HEADER_SIZE || length < 0 || offset > end - length) {
+            throw new Exception("rule bundle index points outside the bundle");
+        }
+    }
+}
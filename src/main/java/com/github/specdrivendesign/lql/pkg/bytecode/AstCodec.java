@@ -0,0 +1,494 @@
+package com.github.specdrivendesign.lql.pkg.bytecode;
+
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ArrayLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Binary;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Context;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.FunctionCall;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Identifier;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Literal;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ObjectLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Unary;
+import com.github.specdrivendesign.lql.pkg.tokens.Tokens;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// AstCodec reads and writes bytecode format v2, a parsed expression tree:
+//
+//   magic "LQLA", version (1 byte, 2), flags (1 byte, bit 0: tree was optimized)
+//   constant pool: count, then per entry a tag and the value
+//       1 string: length, UTF-8 bytes; 2 long: zigzag varint; 3 double: 8 bytes LE
+//   the root node, written depth first
+//
+// Every count, length, pool index and source position is an unsigned varint; line and
+// column are stored plus one, so the -1 of trees loaded from tokens fits. Operators
+// use the token codes of the v1 token format. Literal values are null, booleans, pool
+// entries, or lists and maps of those (the optimizer folds array and object literals).
+final class AstCodec {
+    static final String MAGIC = "LQLA";
+    static final int VERSION = 2;
+    static final int FLAG_OPTIMIZED = 1;
+
+    private static final int POOL_STRING = 1;
+    private static final int POOL_LONG = 2;
+    private static final int POOL_DOUBLE = 3;
+
+    private static final int NODE_LITERAL = 1;
+    private static final int NODE_CONTEXT = 2;
+    private static final int NODE_MEMBER = 3;
+    private static final int NODE_BINARY = 4;
+    private static final int NODE_UNARY = 5;
+    private static final int NODE_ARRAY = 6;
+    private static final int NODE_OBJECT = 7;
+    private static final int NODE_CALL = 8;
+
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_FALSE = 1;
+    private static final int VALUE_TRUE = 2;
+    private static final int VALUE_CONSTANT = 3;
+    private static final int VALUE_LIST = 4;
+    private static final int VALUE_MAP = 5;
+
+    private AstCodec() {
+    }
+
+    static boolean matches(byte[] data) {
+        if (data.length < MAGIC.length()) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length(); i++) {
+            if (data[i] != MAGIC.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte[] encode(Expression ast, boolean optimized) throws Exception {
+        Writer tree = new Writer();
+        tree.node(ast);
+        Output out = new Output();
+        for (int i = 0; i < MAGIC.length(); i++) {
+            out.write(MAGIC.charAt(i));
+        }
+        out.write(VERSION);
+        out.write(optimized ? FLAG_OPTIMIZED : 0);
+        out.varint(tree.pool.size());
+        for (Object constant : tree.pool) {
+            if (constant instanceof String) {
+                byte[] bytes = ((String) constant).getBytes(StandardCharsets.UTF_8);
+                out.write(POOL_STRING);
+                out.varint(bytes.length);
+                out.write(bytes, 0, bytes.length);
+            } else if (constant instanceof Long) {
+                long v = (Long) constant;
+                out.write(POOL_LONG);
+                out.varlong((v << 1) ^ (v >> 63));
+            } else {
+                long bits = Double.doubleToRawLongBits((Double) constant);
+                out.write(POOL_DOUBLE);
+                for (int i = 0; i < 8; i++) {
+                    out.write((int) (bits >>> (8 * i)));
+                }
+            }
+        }
+        tree.out.writeTo(out);
+        return out.toByteArray();
+    }
+
+    static Expression decode(byte[] data) throws Exception {
+        if (!matches(data)) {
+            throw new Exception(String.format("invalid header magic; expected %s", MAGIC));
+        }
+        Reader in = new Reader(data, MAGIC.length());
+        int version = in.read();
+        if (version != VERSION) {
+            throw new Exception(String.format("unsupported bytecode version %d; expected %d", version, VERSION));
+        }
+        in.read();
+        int count = in.count();
+        Object[] pool = new Object[count];
+        for (int i = 0; i < count; i++) {
+            int tag = in.read();
+            switch (tag) {
+                case POOL_STRING:
+                    int length = in.count();
+                    pool[i] = new String(data, in.take(length), length, StandardCharsets.UTF_8);
+                    break;
+                case POOL_LONG:
+                    long v = in.varlong();
+                    pool[i] = (v >>> 1) ^ -(v & 1);
+                    break;
+                case POOL_DOUBLE:
+                    int at = in.take(8);
+                    long bits = 0;
+                    for (int b = 7; b >= 0; b--) {
+                        bits = (bits << 8) | (data[at + b] & 0xFF);
+                    }
+                    pool[i] = Double.longBitsToDouble(bits);
+                    break;
+                default:
+                    throw new Exception(String.format("unknown constant tag: %d", tag));
+            }
+        }
+        in.pool = pool;
+        Expression ast = in.node();
+        if (in.pos != data.length) {
+            throw new Exception("unexpected data after expression");
+        }
+        return ast;
+    }
+
+    private static final class Output extends ByteArrayOutputStream {
+        void varint(int v) {
+            varlong(v & 0xFFFFFFFFL);
+        }
+
+        void varlong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+    }
+
+    private static final class Writer {
+        final Output out = new Output();
+        final List<Object> pool = new ArrayList<>();
+        final Map<Object, Integer> indexes = new HashMap<>();
+
+        void constant(Object value) {
+            out.varint(indexes.computeIfAbsent(value, k -> {
+                pool.add(k);
+                return pool.size() - 1;
+            }));
+        }
+
+        void position(int line, int column) {
+            out.varint(line + 1);
+            out.varint(column + 1);
+        }
+
+        void operator(int tokenType) throws Exception {
+            int code = Tokens.getTokenCode(tokenType);
+            if (code < 0) {
+                throw new Exception("unknown token type: " + tokenType);
+            }
+            out.write(code);
+        }
+
+        void node(Expression expr) throws Exception {
+            if (expr instanceof Literal) {
+                Literal l = (Literal) expr;
+                out.write(NODE_LITERAL);
+                value(l.getValue());
+                position(l.getLine(), l.getColumn());
+            } else if (expr instanceof Context) {
+                Context c = (Context) expr;
+                out.write(NODE_CONTEXT);
+                out.write((c.getIdent() != null ? 1 : 0) | (c.getSubscript() != null ? 2 : 0));
+                if (c.getIdent() != null) {
+                    constant(c.getIdent().getName());
+                    position(c.getIdent().getLine(), c.getIdent().getColumn());
+                }
+                if (c.getSubscript() != null) {
+                    node(c.getSubscript());
+                }
+                position(c.getLine(), c.getColumn());
+            } else if (expr instanceof MemberAccess) {
+                MemberAccess m = (MemberAccess) expr;
+                out.write(NODE_MEMBER);
+                node(m.getTarget());
+                out.varint(m.getAccessParts().size());
+                for (MemberAccess.MemberPart part : m.getAccessParts()) {
+                    out.write((part.isOptional() ? 1 : 0) | (part.isIndex() ? 2 : 0));
+                    if (part.isIndex()) {
+                        node(part.getExpr());
+                    } else {
+                        constant(part.getKey());
+                    }
+                    position(part.getLine(), part.getColumn());
+                }
+            } else if (expr instanceof Binary) {
+                Binary b = (Binary) expr;
+                out.write(NODE_BINARY);
+                operator(b.getOperator());
+                node(b.getLeft());
+                node(b.getRight());
+                position(b.getLine(), b.getColumn());
+            } else if (expr instanceof Unary) {
+                Unary u = (Unary) expr;
+                out.write(NODE_UNARY);
+                operator(u.getOperator());
+                node(u.getExpr());
+                position(u.getLine(), u.getColumn());
+            } else if (expr instanceof ArrayLiteral) {
+                ArrayLiteral a = (ArrayLiteral) expr;
+                out.write(NODE_ARRAY);
+                out.varint(a.getElements().size());
+                for (Expression element : a.getElements()) {
+                    node(element);
+                }
+                position(a.getLine(), a.getColumn());
+            } else if (expr instanceof ObjectLiteral) {
+                ObjectLiteral o = (ObjectLiteral) expr;
+                out.write(NODE_OBJECT);
+                out.varint(o.getFields().size());
+                for (Map.Entry<String, Expression> field : o.getFields().entrySet()) {
+                    constant(field.getKey());
+                    node(field.getValue());
+                }
+                position(o.getLine(), o.getColumn());
+            } else if (expr instanceof FunctionCall) {
+                FunctionCall call = (FunctionCall) expr;
+                out.write(NODE_CALL);
+                out.varint(call.getNamespace().size());
+                for (String name : call.getNamespace()) {
+                    constant(name);
+                }
+                out.varint(call.getArgs().size());
+                for (Expression arg : call.getArgs()) {
+                    node(arg);
+                }
+                position(call.getLine(), call.getColumn());
+                position(call.getParenLine(), call.getParenColumn());
+            } else {
+                throw new Exception("cannot encode expression node " + (expr == null ? "null" : expr.getClass().getSimpleName()));
+            }
+        }
+
+        void value(Object val) throws Exception {
+            if (val == null) {
+                out.write(VALUE_NULL);
+            } else if (val instanceof Boolean) {
+                out.write((Boolean) val ? VALUE_TRUE : VALUE_FALSE);
+            } else if (val instanceof String || val instanceof Long || val instanceof Double) {
+                out.write(VALUE_CONSTANT);
+                constant(val);
+            } else if (val instanceof List<?>) {
+                out.write(VALUE_LIST);
+                out.varint(((List<?>) val).size());
+                for (Object element : (List<?>) val) {
+                    value(element);
+                }
+            } else if (val instanceof Map<?, ?>) {
+                out.write(VALUE_MAP);
+                out.varint(((Map<?, ?>) val).size());
+                for (Map.Entry<?, ?> e : ((Map<?, ?>) val).entrySet()) {
+                    constant(String.valueOf(e.getKey()));
+                    value(e.getValue());
+                }
+            } else {
+                throw new Exception("cannot encode literal of type " + val.getClass().getSimpleName());
+            }
+        }
+    }
+
+    private static final class Reader {
+        final byte[] data;
+        int pos;
+        Object[] pool;
+
+        Reader(byte[] data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        int read() throws Exception {
+            if (pos >= data.length) {
+                throw new Exception("unexpected end of data");
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        // take skips n bytes and returns where they start.
+        int take(int n) throws Exception {
+            if (n > data.length - pos) {
+                throw new Exception("unexpected end of data");
+            }
+            pos += n;
+            return pos - n;
+        }
+
+        long varlong() throws Exception {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new Exception("malformed varint");
+        }
+
+        // count reads a varint that must fit in an int, as lengths and indexes do.
+        int count() throws Exception {
+            long v = varlong();
+            if (v > Integer.MAX_VALUE) {
+                throw new Exception("malformed varint");
+            }
+            return (int) v;
+        }
+
+        int position() throws Exception {
+            return count() - 1;
+        }
+
+        Object constant() throws Exception {
+            int index = count();
+            if (index >= pool.length) {
+                throw new Exception(String.format("constant index %d out of range", index));
+            }
+            return pool[index];
+        }
+
+        String string() throws Exception {
+            Object val = constant();
+            if (!(val instanceof String)) {
+                throw new Exception("expected a string constant");
+            }
+            return (String) val;
+        }
+
+        int operator() throws Exception {
+            int code = read();
+            int tokenType = Tokens.getTokenTypeForCode(code);
+            if (tokenType < 0) {
+                throw new Exception(String.format("unknown token type code: %d", code));
+            }
+            return tokenType;
+        }
+
+        Expression node() throws Exception {
+            int tag = read();
+            switch (tag) {
+                case NODE_LITERAL: {
+                    Object value = value();
+                    int line = position();
+                    return new Literal(value, line, position());
+                }
+                case NODE_CONTEXT: {
+                    int flags = read();
+                    Identifier ident = null;
+                    if ((flags & 1) != 0) {
+                        String name = string();
+                        int line = position();
+                        ident = new Identifier(name, line, position());
+                    }
+                    Expression subscript = (flags & 2) != 0 ? node() : null;
+                    int line = position();
+                    return new Context(ident, subscript, line, position());
+                }
+                case NODE_MEMBER: {
+                    Expression target = node();
+                    int n = count();
+                    List<MemberAccess.MemberPart> parts = new ArrayList<>(Math.min(n, 16));
+                    for (int i = 0; i < n; i++) {
+                        int flags = read();
+                        boolean index = (flags & 2) != 0;
+                        Expression expr = index ? node() : null;
+                        String key = index ? null : string();
+                        int line = position();
+                        parts.add(new MemberAccess.MemberPart((flags & 1) != 0, index, key, expr, line, position()));
+                    }
+                    return new MemberAccess(target, parts);
+                }
+                case NODE_BINARY: {
+                    int op = operator();
+                    Expression left = node();
+                    Expression right = node();
+                    int line = position();
+                    return new Binary(left, op, right, line, position());
+                }
+                case NODE_UNARY: {
+                    int op = operator();
+                    Expression operand = node();
+                    int line = position();
+                    return new Unary(op, operand, line, position());
+                }
+                case NODE_ARRAY: {
+                    int n = count();
+                    List<Expression> elements = new ArrayList<>(Math.min(n, 16));
+                    for (int i = 0; i < n; i++) {
+                        elements.add(node());
+                    }
+                    int line = position();
+                    return new ArrayLiteral(elements, line, position());
+                }
+                case NODE_OBJECT: {
+                    int n = count();
+                    Map<String, Expression> fields = new LinkedHashMap<>();
+                    for (int i = 0; i < n; i++) {
+                        String key = string();
+                        fields.put(key, node());
+                    }
+                    int line = position();
+                    return new ObjectLiteral(fields, line, position());
+                }
+                case NODE_CALL: {
+                    int n = count();
+                    List<String> namespace = new ArrayList<>(Math.min(n, 4));
+                    for (int i = 0; i < n; i++) {
+                        namespace.add(string());
+                    }
+                    n = count();
+                    List<Expression> args = new ArrayList<>(Math.min(n, 16));
+                    for (int i = 0; i < n; i++) {
+                        args.add(node());
+                    }
+                    int line = position();
+                    int column = position();
+                    int parenLine = position();
+                    return new FunctionCall(namespace, args, line, column, parenLine, position());
+                }
+                default:
+                    throw new Exception(String.format("unknown node tag: %d", tag));
+            }
+        }
+
+        Object value() throws Exception {
+            int kind = read();
+            switch (kind) {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_FALSE:
+                    return false;
+                case VALUE_TRUE:
+                    return true;
+                case VALUE_CONSTANT:
+                    return constant();
+                case VALUE_LIST: {
+                    int n = count();
+                    List<Object> list = new ArrayList<>(Math.min(n, 16));
+                    for (int i = 0; i < n; i++) {
+                        list.add(value());
+                    }
+                    // Literal lists and maps are folded values shared by every
+                    // evaluation, read-only as Optimizer.freeze leaves them.
+                    return Collections.unmodifiableList(list);
+                }
+                case VALUE_MAP: {
+                    int n = count();
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < n; i++) {
+                        String key = string();
+                        map.put(key, value());
+                    }
+                    return Collections.unmodifiableMap(map);
+                }
+                default:
+                    throw new Exception(String.format("unknown literal kind: %d", kind));
+            }
+        }
+    }
+}
@@ -1,109 +1,181 @@
 // --------- FILE START: "Bytecode.java" (converted from pkg/bytecode/bytecode.go) ----------
 package com.github.specdrivendesign.lql.pkg.bytecode;
 
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
 import com.github.specdrivendesign.lql.pkg.tokens.Tokens;
 import com.github.specdrivendesign.lql.pkg.tokenstream.TokenStream;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.interfaces.RSAPublicKey;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class Bytecode {
 
+    // ByteCodeReader decodes v1 tokens straight from a buffer, heap or direct, without
+    // copying it. Token types are looked up in Tokens' code table, literals are decoded
+    // as UTF-8, and tokens with a fixed literal are shared instances.
     public static class ByteCodeReader implements TokenStream {
-        private byte[] data;
+        private final ByteBuffer data;
         private int pos;
+        // scratch holds a literal copied out of a direct buffer; literals are at most 255 bytes.
+        private byte[] scratch;
 
         public ByteCodeReader(byte[] data) {
-            this.data = data;
+            this(ByteBuffer.wrap(data));
+        }
+
+        // The reader decodes data from its position to its limit and leaves data itself
+        // untouched.
+        public ByteCodeReader(ByteBuffer data) {
+            this.data = data.slice();
             this.pos = 0;
         }
 
         public Tokens.Token nextToken() throws Exception {
-            if (pos >= data.length) {
-                return new Tokens.Token(Tokens.TokenEof, "", -1, -1);
+            int limit = data.limit();
+            if (pos >= limit) {
+                return EOF;
             }
             // Read token type byte.
-            byte tokenTypeByte = data[pos];
+            byte tokenTypeByte = data.get(pos);
             pos++;
-            Integer tokenType = byteToTokenType.get(tokenTypeByte);
-            if (tokenType == null) {
+            int tokenType = Tokens.getTokenTypeForCode(tokenTypeByte);
+            if (tokenType < 0) {
                 throw new Exception(String.format("unknown token type code: %d", tokenTypeByte));
             }
-            String literal;
             // If the token has a fixed literal, use that.
-            String fixed = Tokens.getFixedTokenLiteral(tokenType);
-            if (!fixed.isEmpty()) {
-                literal = fixed;
+            Tokens.Token fixed = FIXED[tokenType];
+            if (fixed != null) {
+                return fixed;
+            }
+            if (pos + 1 > limit) {
+                throw new Exception("unexpected end of data reading literal length");
+            }
+            int length = data.get(pos) & 0xFF; // unsigned
+            pos++;
+            if (pos + length > limit) {
+                throw new Exception("unexpected end of data reading literal");
+            }
+            String literal;
+            if (data.hasArray()) {
+                literal = new String(data.array(), data.arrayOffset() + pos, length, StandardCharsets.UTF_8);
             } else {
-                if (pos + 1 > data.length) {
-                    throw new Exception("unexpected end of data reading literal length");
+                if (scratch == null) {
+                    scratch = new byte[255];
                 }
-                int length = data[pos] & 0xFF; // unsigned
-                pos++;
-                if (pos + length > data.length) {
-                    throw new Exception("unexpected end of data reading literal");
-                }
-                literal = new String(data, pos, length);
-                pos += length;
+                data.get(pos, scratch, 0, length);
+                literal = new String(scratch, 0, length, StandardCharsets.UTF_8);
             }
+            pos += length;
             return new Tokens.Token(tokenType, literal, -1, -1);
         }
     }
 
+    private static final Tokens.Token EOF = new Tokens.Token(Tokens.TokenEof, "", -1, -1);
+    private static final Tokens.Token[] FIXED = new Tokens.Token[Tokens.TokenModulo + 1];
+
+    static {
+        for (int type = 0; type < FIXED.length; type++) {
+            String fixed = Tokens.getFixedTokenLiteral(type);
+            if (!fixed.isEmpty()) {
+                FIXED[type] = new Tokens.Token(type, fixed, -1, -1);
+            }
+        }
+    }
+
     public static ByteCodeReader newByteCodeReader(byte[] data) {
         return new ByteCodeReader(data);
     }
 
+    public static ByteCodeReader newByteCodeReader(ByteBuffer data) {
+        return new ByteCodeReader(data);
+    }
+
+    // newByteCodeReaderFromSignedData verifies data through the shared SignatureCache, so
+    // reading the same signed tokens again skips the RSA check.
     public static ByteCodeReader newByteCodeReaderFromSignedData(byte[] data, PublicKey pub) throws Exception {
-        int sigSize = ((RSAPublicKey) pub).getModulus().bitLength() / 8;
+        return newByteCodeReader(SignatureCache.shared().verify(data, pub));
+    }
+
+    // verifySignedData checks the signature of a signed file (magic STOK, payload length,
+    // payload, RSA signature) and returns the payload: tokens, or a v2 expression tree.
+    public static byte[] verifySignedData(byte[] data, PublicKey pub) throws Exception {
+        int sigSize = signatureSize(pub);
+        int tokenDataLength = signedPayloadLength(data, sigSize);
+        int pos = Tokens.HeaderMagic.length() + 4;
+        Signature sig = Signature.getInstance("SHA256withRSA");
+        sig.initVerify(pub);
+        sig.update(data, pos, tokenDataLength);
+        if (!sig.verify(data, pos + tokenDataLength, sigSize)) {
+            throw new Exception("invalid signature");
+        }
+        return Arrays.copyOfRange(data, pos, pos + tokenDataLength);
+    }
+
+    // signedPayload checks the layout of a signed file, but not its signature, and returns
+    // the payload.
+    static byte[] signedPayload(byte[] data, PublicKey pub) throws Exception {
+        int pos = Tokens.HeaderMagic.length() + 4;
+        return Arrays.copyOfRange(data, pos, pos + signedPayloadLength(data, signatureSize(pub)));
+    }
+
+    private static int signatureSize(PublicKey pub) {
+        return ((RSAPublicKey) pub).getModulus().bitLength() / 8;
+    }
+
+    private static int signedPayloadLength(byte[] data, int sigSize) throws Exception {
         if (data.length < Tokens.HeaderMagic.length() + 4 + sigSize) {
             throw new Exception("data too short to contain valid signed tokens");
         }
-        String headerMagic = new String(data, 0, Tokens.HeaderMagic.length());
+        String headerMagic = new String(data, 0, Tokens.HeaderMagic.length(), StandardCharsets.US_ASCII);
         if (!headerMagic.equals(Tokens.HeaderMagic)) {
             throw new Exception(String.format("invalid header magic; expected %s", Tokens.HeaderMagic));
         }
         int pos = Tokens.HeaderMagic.length();
-        if (pos + 4 > data.length) {
-            throw new Exception("unexpected end of data reading length");
-        }
         ByteBuffer bb = ByteBuffer.wrap(data, pos, 4);
         bb.order(ByteOrder.LITTLE_ENDIAN);
         int tokenDataLength = bb.getInt();
-        pos += 4;
-        int expectedLength = Tokens.HeaderMagic.length() + 4 + tokenDataLength + sigSize;
-        if (data.length != expectedLength) {
+        long expectedLength = Tokens.HeaderMagic.length() + 4L + tokenDataLength + sigSize;
+        if (tokenDataLength < 0 || data.length != expectedLength) {
             throw new Exception(String.format("data length mismatch: expected %d bytes, got %d", expectedLength, data.length));
         }
-        byte[] tokenData = new byte[tokenDataLength];
-        System.arraycopy(data, pos, tokenData, 0, tokenDataLength);
-        pos += tokenDataLength;
-        byte[] signature = new byte[sigSize];
-        System.arraycopy(data, pos, signature, 0, sigSize);
-
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hash = digest.digest(tokenData);
-        Signature sig = Signature.getInstance("SHA256withRSA");
-        sig.initVerify(pub);
-        sig.update(tokenData);
-        if (!sig.verify(signature)) {
-            throw new Exception("invalid signature");
-        }
-        return newByteCodeReader(tokenData);
+        return tokenDataLength;
     }
 
-    private static final Map<Byte, Integer> byteToTokenType = new HashMap<>();
+    // sign wraps payload in the signed file layout verifySignedData reads.
+    public static byte[] sign(byte[] payload, PrivateKey privateKey) throws Exception {
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(privateKey);
+        signature.update(payload);
+        byte[] sigBytes = signature.sign();
+        byte[] headerMagicBytes = Tokens.HeaderMagic.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(headerMagicBytes.length + 4 + payload.length + sigBytes.length);
+        buffer.put(headerMagicBytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        buffer.put(sigBytes);
+        return buffer.array();
+    }
 
-    static {
-        // Reverse mapping: assume Tokens class provides a mapping from token type to byte.
-        Map<Integer, Byte> tokenTypeToByte = Tokens.getTokenTypeToByte();
-        for (Map.Entry<Integer, Byte> entry : tokenTypeToByte.entrySet()) {
-            byteToTokenType.put(entry.getValue(), entry.getKey());
-        }
+    // exportAst writes ast in bytecode format v2 (see AstCodec). Loading it back with
+    // readAst rebuilds the tree directly, without lexing or parsing, and keeps source
+    // positions, which tokens lose. optimized only marks the header; pass true when ast
+    // is the output of Optimizer.optimize.
+    public static byte[] exportAst(Expression ast, boolean optimized) throws Exception {
+        return AstCodec.encode(ast, optimized);
+    }
+
+    public static Expression readAst(byte[] data) throws Exception {
+        return AstCodec.decode(data);
+    }
+
+    // isAst reports whether data holds a v2 expression tree rather than v1 tokens.
+    public static boolean isAst(byte[] data) {
+        return AstCodec.matches(data);
     }
 }
 // --------- FILE END: "Bytecode.java" ----------
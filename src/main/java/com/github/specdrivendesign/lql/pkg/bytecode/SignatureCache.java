@@ -0,0 +1,117 @@
+package com.github.specdrivendesign.lql.pkg.bytecode;
+
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// SignatureCache remembers signed files (see Bytecode.sign) whose signature has been
+// verified, by the SHA-256 of the whole file, signature included, and the key that
+// verified it. Verifying an unchanged file again checks its layout and hashes it, but
+// skips the RSA verification. Beyond capacity the least recently used files are
+// forgotten. A cache may be shared between threads.
+public final class SignatureCache {
+    private static final SignatureCache shared = new SignatureCache(10_000);
+
+    private final int capacity;
+    // verified maps the hex SHA-256 of a signed file to the key that verified it; guarded by this.
+    private final LinkedHashMap<String, PublicKey> verified;
+    private long hits;
+    private long misses;
+
+    public SignatureCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.verified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PublicKey> eldest) {
+                return size() > SignatureCache.this.capacity;
+            }
+        };
+    }
+
+    // shared is the cache Bytecode.newByteCodeReaderFromSignedData and
+    // CompiledExpression.fromSignedByteCode use.
+    public static SignatureCache shared() {
+        return shared;
+    }
+
+    // verify does what Bytecode.verifySignedData does, and returns the payload, without
+    // the RSA check when data has already been verified with pub.
+    public byte[] verify(byte[] data, PublicKey pub) throws Exception {
+        String digest = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        synchronized (this) {
+            if (pub.equals(verified.get(digest))) {
+                hits++;
+                return Bytecode.signedPayload(data, pub);
+            }
+            misses++;
+        }
+        byte[] payload = Bytecode.verifySignedData(data, pub);
+        synchronized (this) {
+            verified.put(digest, pub);
+        }
+        return payload;
+    }
+
+    // verifyAll verifies many signed files with up to parallelism threads and returns
+    // their payloads in order. It fails with the error of the first file, in order, that
+    // does not verify.
+    public List<byte[]> verifyAll(List<byte[]> files, PublicKey pub, int parallelism) throws Exception {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        List<byte[]> payloads = new ArrayList<>(files.size());
+        if (parallelism == 1 || files.size() < 2) {
+            for (byte[] data : files) {
+                payloads.add(verify(data, pub));
+            }
+            return payloads;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, files.size()));
+        try {
+            List<Future<byte[]>> results = new ArrayList<>(files.size());
+            for (byte[] data : files) {
+                results.add(pool.submit(() -> verify(data, pub)));
+            }
+            for (Future<byte[]> result : results) {
+                try {
+                    payloads.add(result.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+            return payloads;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return verified.size();
+    }
+
+    public synchronized void clear() {
+        verified.clear();
+    }
+}
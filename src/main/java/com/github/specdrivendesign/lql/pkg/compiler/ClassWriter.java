@@ -0,0 +1,404 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// ClassWriter emits the small class files generated by JitCompiler: static fields,
+// a few methods and no attributes beyond Code. Classes are written as version 49 so
+// the verifier infers types on its own and no stack map frames have to be computed.
+final class ClassWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ALOAD = 0x19;
+    static final int ASTORE = 0x3a;
+    static final int AALOAD = 0x32;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IXOR = 0x82;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IF_ACMPEQ = 0xa5;
+    static final int IF_ACMPNE = 0xa6;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int NEW = 0xbb;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+    static final int IFNULL = 0xc6;
+    static final int IFNONNULL = 0xc7;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+    private final int thisClass;
+    private final int superClass;
+    private final List<Integer> interfaces = new ArrayList<>();
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassWriter(String name, String superName, String... interfaceNames) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        for (String itf : interfaceNames) {
+            interfaces.add(classRef(itf));
+        }
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, 1, 1, out -> out.writeUTF(value));
+    }
+
+    int classRef(String internalName) {
+        int nameIndex = utf8(internalName);
+        return entry("C" + internalName, 7, 1, out -> out.writeShort(nameIndex));
+    }
+
+    int string(String value) {
+        int valueIndex = utf8(value);
+        return entry("S" + value, 8, 1, out -> out.writeShort(valueIndex));
+    }
+
+    int integer(int value) {
+        return entry("I" + value, 3, 1, out -> out.writeInt(value));
+    }
+
+    int doubleConst(double value) {
+        return entry("D" + Double.doubleToRawLongBits(value), 6, 2, out -> out.writeDouble(value));
+    }
+
+    int memberRef(int tag, String owner, String name, String desc) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descIndex = utf8(desc);
+        int nameAndType = entry("N" + name + ":" + desc, 12, 1, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descIndex);
+        });
+        return entry(tag + owner + "." + name + ":" + desc, tag, 1, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    void addField(int access, String name, String desc) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(desc));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    Code newMethod(int access, String name, String desc, int maxLocals) {
+        return new Code(access, name, desc, maxLocals);
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int codeAttr = utf8("Code");
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            out.write(poolBytes.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.size());
+            for (int itf : interfaces) {
+                out.writeShort(itf);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method, 0, 6);
+                out.writeShort(1);
+                out.writeShort(codeAttr);
+                out.write(method, 6, method.length - 6);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, int tag, int slots, EntryWriter writer) {
+        Integer existing = poolIndex.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            pool.writeByte(tag);
+            writer.write(pool);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        int index = poolCount;
+        poolCount += slots;
+        if (poolCount > 0xFFFF) {
+            throw new IllegalStateException("constant pool overflow");
+        }
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    // argumentSlots returns how many operand stack slots a descriptor's arguments take,
+    // and through result[0] how many its return value takes.
+    private static int argumentSlots(String desc, int[] result) {
+        int slots = 0;
+        int i = 1;
+        while (desc.charAt(i) != ')') {
+            char c = desc.charAt(i);
+            if (c == 'J' || c == 'D') {
+                slots += 2;
+                i++;
+            } else {
+                slots++;
+                while (desc.charAt(i) == '[') {
+                    i++;
+                }
+                i = desc.charAt(i) == 'L' ? desc.indexOf(';', i) + 1 : i + 1;
+            }
+        }
+        char ret = desc.charAt(i + 1);
+        result[0] = ret == 'V' ? 0 : (ret == 'J' || ret == 'D') ? 2 : 1;
+        return slots;
+    }
+
+    private static int typeSlots(String desc) {
+        return desc.equals("J") || desc.equals("D") ? 2 : 1;
+    }
+
+    static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    // Code accumulates the bytecode of one method while tracking the operand stack depth.
+    final class Code {
+        private final int access;
+        private final String name;
+        private final String desc;
+        private final int maxLocals;
+        private byte[] code = new byte[256];
+        private int length;
+        private int stack;
+        private int maxStack;
+        private final List<Label> labels = new ArrayList<>();
+
+        private Code(int access, String name, String desc, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.desc = desc;
+            this.maxLocals = maxLocals;
+        }
+
+        void op(int opcode, int stackDelta) {
+            put(opcode);
+            adjust(stackDelta);
+        }
+
+        void aload(int index) {
+            put(ALOAD);
+            put(index);
+            adjust(1);
+        }
+
+        void astore(int index) {
+            put(ASTORE);
+            put(index);
+            adjust(-1);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                put(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                put(BIPUSH);
+                put(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                put(SIPUSH);
+                putShort(value);
+            } else {
+                ldcIndex(integer(value));
+                return;
+            }
+            adjust(1);
+        }
+
+        void pushString(String value) {
+            ldcIndex(string(value));
+        }
+
+        void pushClass(String internalName) {
+            ldcIndex(classRef(internalName));
+        }
+
+        void pushDouble(double value) {
+            put(LDC2_W);
+            putShort(doubleConst(value));
+            adjust(2);
+        }
+
+        private void ldcIndex(int index) {
+            if (index < 256) {
+                put(LDC);
+                put(index);
+            } else {
+                put(LDC_W);
+                putShort(index);
+            }
+            adjust(1);
+        }
+
+        void field(int opcode, String owner, String name, String desc) {
+            put(opcode);
+            putShort(memberRef(9, owner, name, desc));
+            adjust(opcode == GETSTATIC ? typeSlots(desc) : -typeSlots(desc));
+        }
+
+        void invoke(int opcode, String owner, String name, String desc) {
+            int[] ret = new int[1];
+            int args = argumentSlots(desc, ret);
+            boolean itf = opcode == INVOKEINTERFACE;
+            put(opcode);
+            putShort(memberRef(itf ? 11 : 10, owner, name, desc));
+            if (itf) {
+                put(args + 1);
+                put(0);
+            }
+            adjust(-args - (opcode == INVOKESTATIC ? 0 : 1) + ret[0]);
+        }
+
+        void type(int opcode, String internalName) {
+            put(opcode);
+            putShort(classRef(internalName));
+            adjust(opcode == NEW ? 1 : 0);
+        }
+
+        void jump(int opcode, Label label) {
+            label.jumps.add(length);
+            put(opcode);
+            putShort(0);
+            adjust(opcode == GOTO ? 0 : (opcode == IF_ACMPEQ || opcode == IF_ACMPNE) ? -2 : -1);
+            if (label.stack < 0) {
+                label.stack = stack;
+            }
+            if (!labels.contains(label)) {
+                labels.add(label);
+            }
+        }
+
+        // mark places label at the current position. Code after an unconditional jump
+        // is only reachable through its label, so the stack depth is taken from there.
+        void mark(Label label) {
+            label.position = length;
+            if (label.stack >= 0) {
+                stack = label.stack;
+            }
+        }
+
+        void setStack(int depth) {
+            stack = depth;
+        }
+
+        int stack() {
+            return stack;
+        }
+
+        void finish() {
+            for (Label label : labels) {
+                for (int at : label.jumps) {
+                    int offset = label.position - at;
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new IllegalStateException("branch offset out of range");
+                    }
+                    code[at + 1] = (byte) (offset >> 8);
+                    code[at + 2] = (byte) offset;
+                }
+            }
+            if (length > 0xFFFF) {
+                throw new IllegalStateException("method code too large");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeShort(access);
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(desc));
+                // Code attribute body (name index and count are written by toByteArray)
+                out.writeInt(12 + length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(length);
+                out.write(code, 0, length);
+                out.writeShort(0);
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            methods.add(bytes.toByteArray());
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            if (stack > maxStack) {
+                maxStack = stack;
+            }
+        }
+
+        private void put(int b) {
+            if (length == code.length) {
+                code = java.util.Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = (byte) b;
+        }
+
+        private void putShort(int s) {
+            put(s >> 8);
+            put(s);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import java.util.Map;
+
+// Closure is one node of a compiled expression. Operators, operand shapes and library
+// bindings are fixed when the closure is built; only the context varies per call.
+@FunctionalInterface
+public interface Closure {
+    Object eval(Map<String, Object> ctx) throws Exception;
+}
@@ -0,0 +1,378 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ArrayLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Binary;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Context;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.FunctionCall;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Identifier;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Literal;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ObjectLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Shared;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Unary;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.env.CallSite;
+import com.github.specdrivendesign.lql.pkg.tokens.Tokens;
+import com.github.specdrivendesign.lql.pkg.typechecker.TypeChecker.Typing;
+import com.github.specdrivendesign.lql.pkg.types.Schema;
+import com.github.specdrivendesign.lql.pkg.types.Types;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// ClosureCompiler turns an expression tree into a tree of closures. Each operator gets
+// its own closure so there is no dispatch on the operator at run time, and the common
+// shapes (comparisons against numeric literals, equality against literals, field
+// paths) get a dedicated closure. Operand fast paths live in Operators; arithmetic
+// whose numeric type is known is evaluated unboxed by TypedArithmetic.
+public class ClosureCompiler {
+
+    public static Closure compile(Expression expr, Env env) throws Exception {
+        return compile(expr, env, Typing.NONE);
+    }
+
+    // compile with typing relies on the node types TypeChecker inferred for expr.
+    public static Closure compile(Expression expr, Env env, Typing typing) throws Exception {
+        if (expr instanceof Literal) {
+            Object value = ((Literal) expr).getValue();
+            return ctx -> value;
+        }
+        if (expr instanceof Context) {
+            return compileContext((Context) expr);
+        }
+        if (expr instanceof MemberAccess) {
+            return compileMemberAccess((MemberAccess) expr, env, typing);
+        }
+        if (TypedArithmetic.applies(expr, typing)) {
+            return TypedArithmetic.compile(expr, env, typing);
+        }
+        if (expr instanceof Binary) {
+            return compileBinary((Binary) expr, env, typing);
+        }
+        if (expr instanceof Unary) {
+            return compileUnary((Unary) expr, env, typing);
+        }
+        if (expr instanceof FunctionCall) {
+            return compileFunctionCall((FunctionCall) expr, env, typing);
+        }
+        if (expr instanceof ArrayLiteral) {
+            return compileArrayLiteral((ArrayLiteral) expr, env, typing);
+        }
+        if (expr instanceof ObjectLiteral) {
+            return compileObjectLiteral((ObjectLiteral) expr, env, typing);
+        }
+        if (expr instanceof Shared) {
+            return compileShared((Shared) expr, env, typing);
+        }
+        return ctx -> expr.eval(SharedContext.unwrap(ctx), env);
+    }
+
+    private static Closure compileShared(Shared sh, Env env, Typing typing) throws Exception {
+        int slot = sh.getSlot();
+        Closure inner = compile(sh.getExpr(), env, typing);
+        return ctx -> {
+            Object val = Operators.shared(ctx, slot);
+            if (val == SharedContext.UNRESOLVED) {
+                val = Operators.storeShared(inner.eval(ctx), ctx, slot);
+            }
+            return val;
+        };
+    }
+
+    private static Closure compileContext(Context c) {
+        Identifier ident = c.getIdent();
+        if (ident == null) {
+            return SharedContext::unwrap;
+        }
+        return ctx -> Operators.context(ctx, ident);
+    }
+
+    private static Closure compileMemberAccess(MemberAccess m, Env env, Typing typing) throws Exception {
+        MemberAccess.MemberPart[] parts = flattenChain(m);
+        if (parts.length == 0) {
+            return ctx -> m.eval(SharedContext.unwrap(ctx), env);
+        }
+        Closure base = compile(chainTarget(m, parts.length), env, typing);
+        Closure[] indexes = new Closure[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].isIndex()) {
+                indexes[i] = compile(parts[i].getExpr(), env, typing);
+            }
+        }
+        Closure chain = ctx -> {
+            Object val = base.eval(ctx);
+            for (int i = 0; i < parts.length; i++) {
+                if (indexes[i] == null) {
+                    val = Operators.field(val, parts[i]);
+                } else if (val != null || !parts[i].isOptional()) {
+                    val = Operators.index(val, indexes[i].eval(ctx), parts[i]);
+                }
+            }
+            return val;
+        };
+        PathAccessor path = pathAccessor(chainTarget(m, parts.length), parts);
+        if (path == null) {
+            return chain;
+        }
+        return ctx -> {
+            Object val = Operators.path(ctx, path);
+            return val != PathAccessor.FAILED ? val : chain.eval(ctx);
+        };
+    }
+
+    // pathAccessor returns the accessor (see PathAccessor.of) for a '$name.key.key'
+    // chain, or null when the chain does not start at the context or contains an index.
+    static PathAccessor pathAccessor(Expression target, MemberAccess.MemberPart[] parts) {
+        if (!(target instanceof Context)) {
+            return null;
+        }
+        for (MemberAccess.MemberPart part : parts) {
+            if (part.isIndex()) {
+                return null;
+            }
+        }
+        Identifier ident = ((Context) target).getIdent();
+        return PathAccessor.of(ident == null ? null : ident.getName(), parts);
+    }
+
+    // flattenChain unwinds the single-part MemberAccess nodes the parser nests for each
+    // '.key' or '[index]' into one array of parts, outermost target first.
+    static MemberAccess.MemberPart[] flattenChain(MemberAccess m) {
+        List<MemberAccess.MemberPart> chain = new ArrayList<>();
+        Expression target = m;
+        while (target instanceof MemberAccess && ((MemberAccess) target).getAccessParts().size() == 1) {
+            chain.add(0, ((MemberAccess) target).getAccessParts().get(0));
+            target = ((MemberAccess) target).getTarget();
+        }
+        return chain.toArray(new MemberAccess.MemberPart[0]);
+    }
+
+    static Expression chainTarget(MemberAccess m, int depth) {
+        Expression target = m;
+        for (int i = 0; i < depth; i++) {
+            target = ((MemberAccess) target).getTarget();
+        }
+        return target;
+    }
+
+    private static Closure compileBinary(Binary b, Env env, Typing typing) throws Exception {
+        int op = b.getOperator();
+        int line = b.getLine();
+        int column = b.getColumn();
+        Closure left = compile(b.getLeft(), env, typing);
+        Closure right = compile(b.getRight(), env, typing);
+        switch (op) {
+            case Tokens.TokenAnd:
+                if (isProvenBoolean(b.getLeft(), typing) && isProvenBoolean(b.getRight(), typing)) {
+                    return ctx -> (Boolean) left.eval(ctx) ? right.eval(ctx) : Boolean.FALSE;
+                }
+                return ctx -> {
+                    if (!Operators.requireBoolean(left.eval(ctx), "AND operator requires boolean operand", line, column)) {
+                        return false;
+                    }
+                    return Operators.requireBoolean(right.eval(ctx), "AND operator requires boolean operand", line, column);
+                };
+            case Tokens.TokenOr:
+                if (isProvenBoolean(b.getLeft(), typing) && isProvenBoolean(b.getRight(), typing)) {
+                    return ctx -> (Boolean) left.eval(ctx) ? Boolean.TRUE : right.eval(ctx);
+                }
+                return ctx -> {
+                    if (Operators.requireBoolean(left.eval(ctx), "OR operator requires boolean operand", line, column)) {
+                        return true;
+                    }
+                    return Operators.requireBoolean(right.eval(ctx), "OR operator requires boolean operand", line, column);
+                };
+            case Tokens.TokenPlus:
+                return ctx -> Operators.add(left.eval(ctx), right.eval(ctx), line, column);
+            case Tokens.TokenMinus:
+                return ctx -> Operators.subtract(left.eval(ctx), right.eval(ctx), line, column);
+            case Tokens.TokenMultiply:
+                return ctx -> Operators.multiply(left.eval(ctx), right.eval(ctx), line, column);
+            case Tokens.TokenDivide:
+                return ctx -> Operators.divide(left.eval(ctx), right.eval(ctx), line, column);
+            case Tokens.TokenLt:
+            case Tokens.TokenGt:
+            case Tokens.TokenLte:
+            case Tokens.TokenGte:
+                if (isNumericLiteral(b.getRight())) {
+                    return compileLiteralComparison(op, left, ((Literal) b.getRight()).getValue(), line, column);
+                }
+                return compileComparison(op, left, right, line, column);
+            case Tokens.TokenEq:
+                return compileEquality(b, left, right, false);
+            case Tokens.TokenNeq:
+                return compileEquality(b, left, right, true);
+            default:
+                return ctx -> Binary.apply(op, left.eval(ctx), right.eval(ctx), line, column);
+        }
+    }
+
+    private static Closure compileComparison(int op, Closure left, Closure right, int line, int column) {
+        switch (op) {
+            case Tokens.TokenLt:
+                return ctx -> Operators.lessThan(left.eval(ctx), right.eval(ctx), line, column);
+            case Tokens.TokenGt:
+                return ctx -> Operators.greaterThan(left.eval(ctx), right.eval(ctx), line, column);
+            case Tokens.TokenLte:
+                return ctx -> Operators.lessOrEqual(left.eval(ctx), right.eval(ctx), line, column);
+            default:
+                return ctx -> Operators.greaterOrEqual(left.eval(ctx), right.eval(ctx), line, column);
+        }
+    }
+
+    private static Closure compileLiteralComparison(int op, Closure left, Object literal, int line, int column) {
+        double limit = ((Number) literal).doubleValue();
+        switch (op) {
+            case Tokens.TokenLt:
+                return ctx -> Operators.lessThan(left.eval(ctx), limit, literal, line, column);
+            case Tokens.TokenGt:
+                return ctx -> Operators.greaterThan(left.eval(ctx), limit, literal, line, column);
+            case Tokens.TokenLte:
+                return ctx -> Operators.lessOrEqual(left.eval(ctx), limit, literal, line, column);
+            default:
+                return ctx -> Operators.greaterOrEqual(left.eval(ctx), limit, literal, line, column);
+        }
+    }
+
+    private static Closure compileEquality(Binary b, Closure left, Closure right, boolean negate) {
+        // Prefer the literal on the right, which is how rules are usually written.
+        Literal lit = null;
+        Closure other = null;
+        if (b.getRight() instanceof Literal) {
+            lit = (Literal) b.getRight();
+            other = left;
+        } else if (b.getLeft() instanceof Literal) {
+            lit = (Literal) b.getLeft();
+            other = right;
+        }
+        Object value = lit == null ? null : lit.getValue();
+        Closure operand = other;
+        if (lit != null && (value instanceof String || value instanceof Boolean)) {
+            if (negate) {
+                return ctx -> !value.equals(operand.eval(ctx));
+            }
+            return ctx -> value.equals(operand.eval(ctx));
+        }
+        if (lit != null && value == null) {
+            if (negate) {
+                return ctx -> operand.eval(ctx) != null;
+            }
+            return ctx -> operand.eval(ctx) == null;
+        }
+        if (lit != null && Operators.isNumber(value)) {
+            double expected = ((Number) value).doubleValue();
+            if (negate) {
+                return ctx -> !Operators.equalsNumber(operand.eval(ctx), expected, value);
+            }
+            return ctx -> Operators.equalsNumber(operand.eval(ctx), expected, value);
+        }
+        if (negate) {
+            return ctx -> !Types.equals(left.eval(ctx), right.eval(ctx));
+        }
+        return ctx -> Types.equals(left.eval(ctx), right.eval(ctx));
+    }
+
+    private static Closure compileUnary(Unary u, Env env, Typing typing) throws Exception {
+        int op = u.getOperator();
+        int line = u.getLine();
+        int column = u.getColumn();
+        Closure operand = compile(u.getExpr(), env, typing);
+        switch (op) {
+            case Tokens.TokenMinus:
+                return ctx -> Operators.negate(operand.eval(ctx), line, column);
+            case Tokens.TokenNot:
+                if (isProvenBoolean(u.getExpr(), typing)) {
+                    return ctx -> !(Boolean) operand.eval(ctx);
+                }
+                return ctx -> Operators.not(operand.eval(ctx), line, column);
+            default:
+                return ctx -> Unary.apply(op, operand.eval(ctx), line, column);
+        }
+    }
+
+    // isProvenBoolean reports whether expr always yields a Boolean, so its result needs
+    // no check before use.
+    static boolean isProvenBoolean(Expression expr, Typing typing) {
+        return typing.isProven(expr) && typing.typeOf(expr) == Schema.Type.BOOLEAN;
+    }
+
+    private static Closure compileFunctionCall(FunctionCall call, Env env, Typing typing) throws Exception {
+        CallSite site = call.getCallSite();
+        if (site == null) {
+            return ctx -> call.eval(SharedContext.unwrap(ctx), env);
+        }
+        int count = call.getArgs().size();
+        Closure[] args = new Closure[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = compile(call.getArgs().get(i), env, typing);
+        }
+        switch (count) {
+            case 0:
+                return ctx -> site.call();
+            case 1: {
+                Closure a0 = args[0];
+                return ctx -> site.call(a0.eval(ctx));
+            }
+            case 2: {
+                Closure a0 = args[0];
+                Closure a1 = args[1];
+                return ctx -> site.call(a0.eval(ctx), a1.eval(ctx));
+            }
+            case 3: {
+                Closure a0 = args[0];
+                Closure a1 = args[1];
+                Closure a2 = args[2];
+                return ctx -> site.call(a0.eval(ctx), a1.eval(ctx), a2.eval(ctx));
+            }
+            default:
+                return ctx -> {
+                    Object[] values = new Object[count];
+                    for (int i = 0; i < count; i++) {
+                        values[i] = args[i].eval(ctx);
+                    }
+                    return site.call(values);
+                };
+        }
+    }
+
+    private static Closure compileArrayLiteral(ArrayLiteral a, Env env, Typing typing) throws Exception {
+        int count = a.getElements().size();
+        Closure[] elements = new Closure[count];
+        for (int i = 0; i < count; i++) {
+            elements[i] = compile(a.getElements().get(i), env, typing);
+        }
+        return ctx -> {
+            List<Object> result = new ArrayList<>(count);
+            for (Closure element : elements) {
+                result.add(element.eval(ctx));
+            }
+            return result;
+        };
+    }
+
+    private static Closure compileObjectLiteral(ObjectLiteral o, Env env, Typing typing) throws Exception {
+        int count = o.getFields().size();
+        String[] keys = new String[count];
+        Closure[] values = new Closure[count];
+        int i = 0;
+        for (Map.Entry<String, Expression> entry : o.getFields().entrySet()) {
+            keys[i] = entry.getKey();
+            values[i] = compile(entry.getValue(), env, typing);
+            i++;
+        }
+        return ctx -> {
+            Map<String, Object> result = new HashMap<>();
+            for (int k = 0; k < count; k++) {
+                result.put(keys[k], values[k].eval(ctx));
+            }
+            return result;
+        };
+    }
+
+    static boolean isNumericLiteral(Expression expr) {
+        return expr instanceof Literal && Operators.isNumber(((Literal) expr).getValue());
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.ast.Rewriter;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ArrayLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Binary;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Context;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.FunctionCall;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Literal;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ObjectLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Shared;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Unary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// CommonSubexpressions finds sub-expressions that several rules of a rule set have in
+// common by hash-consing: a node's id is derived from its type, operator or name,
+// literal value and the ids of its children (positions are ignored), so structurally
+// identical subtrees get the same id. Subtrees that occur more than once, make no
+// impure calls and are worth more than a slot lookup are wrapped in a Shared node;
+// equal subtrees share a slot.
+final class CommonSubexpressions {
+    private final Map<List<Object>, Integer> ids = new HashMap<>();
+    private final Map<Expression, Integer> nodeIds = new IdentityHashMap<>();
+    private final List<Boolean> pure = new ArrayList<>();
+    private final List<Boolean> candidate = new ArrayList<>();
+    private final List<Integer> counts = new ArrayList<>();
+    private final Map<Integer, Integer> slots = new HashMap<>();
+
+    // eliminate rewrites asts, which must already be bound and optimized, and returns
+    // them with their common sub-expressions wrapped in Shared nodes.
+    List<Expression> eliminate(List<Expression> asts) throws Exception {
+        for (Expression ast : asts) {
+            Rewriter.rewrite(ast, node -> {
+                int id = id(node);
+                counts.set(id, counts.get(id) + 1);
+                return node;
+            });
+        }
+        List<Expression> result = new ArrayList<>(asts.size());
+        for (Expression ast : asts) {
+            result.add(Rewriter.rewrite(ast, node -> {
+                int id = id(node);
+                if (counts.get(id) < 2 || !pure.get(id) || !candidate.get(id)) {
+                    return node;
+                }
+                return new Shared(slots.computeIfAbsent(id, k -> slots.size()), node);
+            }));
+        }
+        return result;
+    }
+
+    int getSlotCount() {
+        return slots.size();
+    }
+
+    private int id(Expression node) {
+        if (node instanceof Shared) {
+            return id(((Shared) node).getExpr());
+        }
+        Integer known = nodeIds.get(node);
+        if (known != null) {
+            return known;
+        }
+        List<Object> key = new ArrayList<>();
+        List<Integer> children = new ArrayList<>();
+        boolean isPure = true;
+        boolean worthSharing = true;
+        if (node instanceof Literal) {
+            Object value = ((Literal) node).getValue();
+            key.addAll(Arrays.asList("Literal", value == null ? null : value.getClass(), value));
+            worthSharing = false;
+        } else if (node instanceof Context) {
+            Context c = (Context) node;
+            key.addAll(Arrays.asList("Context", c.getIdent() == null ? null : c.getIdent().getName()));
+            if (c.getSubscript() != null) {
+                key.add(child(children, c.getSubscript()));
+            }
+            worthSharing = false;
+        } else if (node instanceof MemberAccess) {
+            MemberAccess m = (MemberAccess) node;
+            key.addAll(Arrays.asList("Member", child(children, m.getTarget())));
+            for (MemberAccess.MemberPart part : m.getAccessParts()) {
+                key.addAll(Arrays.asList(part.isOptional(), part.isIndex(), part.getKey()));
+                if (part.isIndex()) {
+                    key.add(child(children, part.getExpr()));
+                }
+            }
+            // Plain context paths already have their own slots.
+            MemberAccess.MemberPart[] chain = ClosureCompiler.flattenChain(m);
+            worthSharing = ClosureCompiler.pathAccessor(ClosureCompiler.chainTarget(m, chain.length), chain) == null;
+        } else if (node instanceof Binary) {
+            Binary b = (Binary) node;
+            key.addAll(Arrays.asList("Binary", b.getOperator(), child(children, b.getLeft()), child(children, b.getRight())));
+        } else if (node instanceof Unary) {
+            Unary u = (Unary) node;
+            key.addAll(Arrays.asList("Unary", u.getOperator(), child(children, u.getExpr())));
+        } else if (node instanceof FunctionCall) {
+            FunctionCall call = (FunctionCall) node;
+            key.addAll(Arrays.asList("Call", call.getNamespace(), call.getLibrary()));
+            for (Expression arg : call.getArgs()) {
+                key.add(child(children, arg));
+            }
+            isPure = call.getLibrary() != null && call.getNamespace().size() >= 2
+                    && call.getLibrary().isPure(call.getNamespace().get(1));
+        } else if (node instanceof ArrayLiteral) {
+            key.add("Array");
+            for (Expression element : ((ArrayLiteral) node).getElements()) {
+                key.add(child(children, element));
+            }
+            // A new list per evaluation; sharing one instance between rules is not safe.
+            worthSharing = false;
+        } else if (node instanceof ObjectLiteral) {
+            key.add("Object");
+            for (Map.Entry<String, Expression> entry : ((ObjectLiteral) node).getFields().entrySet()) {
+                key.addAll(Arrays.asList(entry.getKey(), child(children, entry.getValue())));
+            }
+            worthSharing = false;
+        } else {
+            // Unknown node types are never considered equal to anything else.
+            key.addAll(Arrays.asList("Node", node));
+            isPure = false;
+        }
+        for (int child : children) {
+            isPure &= pure.get(child);
+        }
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = ids.size();
+            ids.put(key, id);
+            pure.add(isPure);
+            candidate.add(worthSharing);
+            counts.add(0);
+        }
+        nodeIds.put(node, id);
+        return id;
+    }
+
+    private int child(List<Integer> children, Expression expr) {
+        int id = id(expr);
+        children.add(id);
+        return id;
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.adapters.ContextAdapters;
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.bytecode.Bytecode;
+import com.github.specdrivendesign.lql.pkg.bytecode.SignatureCache;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.lexer.Lexer;
+import com.github.specdrivendesign.lql.pkg.optimizer.Optimizer;
+import com.github.specdrivendesign.lql.pkg.parser.Parser;
+import com.github.specdrivendesign.lql.pkg.tokenstream.TokenStream;
+import com.github.specdrivendesign.lql.pkg.types.Schema;
+
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.Set;
+
+// CompiledExpression is a ready-to-run LQL rule. It is built once from source or
+// bytecode and can then be evaluated any number of times. Instances are immutable:
+// every field is final and set in the constructor, and evaluation never mutates the
+// compiled tree, so a single instance may be shared freely between threads.
+public final class CompiledExpression {
+    private final String source;
+    private final Expression ast;
+    private final Closure program;
+    private final Env env;
+    private final Compiler.Backend backend;
+    private final Schema schema;
+    private final Set<String> requiredPaths;
+
+    private CompiledExpression(String source, Expression ast, Env env, Compiler.Backend backend, Schema schema) throws Exception {
+        this.source = source;
+        this.ast = ast;
+        this.env = env;
+        this.backend = backend;
+        this.schema = schema;
+        this.program = Compiler.compile(ast, env, backend, schema);
+        this.requiredPaths = RequiredPaths.of(ast);
+    }
+
+    public static CompiledExpression compile(String source) throws Exception {
+        return compile(source, Env.newEnvironment());
+    }
+
+    public static CompiledExpression compile(String source, Env env) throws Exception {
+        return compile(source, env, Compiler.Backend.CLOSURE);
+    }
+
+    public static CompiledExpression compile(String source, Env env, Compiler.Backend backend) throws Exception {
+        return compile(source, env, backend, null);
+    }
+
+    public static CompiledExpression compile(String source, Env env, Schema schema) throws Exception {
+        return compile(source, env, Compiler.Backend.CLOSURE, schema);
+    }
+
+    // compile with a schema rejects, with the error evaluation would raise, an expression
+    // that cannot succeed on contexts matching schema (see TypeChecker).
+    public static CompiledExpression compile(String source, Env env, Compiler.Backend backend, Schema schema) throws Exception {
+        Parser parser = new Parser(new Lexer(source));
+        return new CompiledExpression(source, parser.parseExpression(), env, backend, schema);
+    }
+
+    public static CompiledExpression fromTokenStream(TokenStream tokens, Env env) throws Exception {
+        return fromTokenStream(tokens, env, Compiler.Backend.CLOSURE);
+    }
+
+    public static CompiledExpression fromTokenStream(TokenStream tokens, Env env, Compiler.Backend backend) throws Exception {
+        Parser parser = new Parser(tokens);
+        return new CompiledExpression(null, parser.parseExpression(), env, backend, null);
+    }
+
+    public static CompiledExpression fromByteCode(byte[] data, Env env) throws Exception {
+        return fromByteCode(data, env, Compiler.Backend.CLOSURE);
+    }
+
+    // fromByteCode accepts both formats: v1 tokens, which are parsed, and v2 expression
+    // trees (see Bytecode.exportAst), which are rebuilt without parsing.
+    public static CompiledExpression fromByteCode(byte[] data, Env env, Compiler.Backend backend) throws Exception {
+        if (Bytecode.isAst(data)) {
+            return fromExpression(Bytecode.readAst(data), env, backend);
+        }
+        return fromTokenStream(Bytecode.newByteCodeReader(data), env, backend);
+    }
+
+    // fromSignedByteCode loads a signed file (see Bytecode.sign) holding either format.
+    // The signature is checked through the shared SignatureCache, so reloading an
+    // unchanged file skips the RSA verification.
+    public static CompiledExpression fromSignedByteCode(byte[] data, PublicKey pub, Env env, Compiler.Backend backend) throws Exception {
+        return fromByteCode(SignatureCache.shared().verify(data, pub), env, backend);
+    }
+
+    public static CompiledExpression fromExpression(Expression ast, Env env) throws Exception {
+        return fromExpression(ast, env, Compiler.Backend.CLOSURE);
+    }
+
+    public static CompiledExpression fromExpression(Expression ast, Env env, Compiler.Backend backend) throws Exception {
+        return fromExpression(ast, env, backend, null);
+    }
+
+    public static CompiledExpression fromExpression(Expression ast, Env env, Compiler.Backend backend, Schema schema) throws Exception {
+        return new CompiledExpression(null, ast, env, backend, schema);
+    }
+
+    public Object evaluate(Map<String, Object> ctx) throws Exception {
+        return program.eval(ctx);
+    }
+
+    // evaluate with an object evaluates against a domain object, a record or a Jackson
+    // tree say, read in place through ContextAdapters instead of converted to a map.
+    public Object evaluate(Object ctx) throws Exception {
+        return program.eval(ContextAdapters.toContext(ctx));
+    }
+
+    // toByteCode writes the expression in bytecode format v2. With optimized the tree is
+    // written after constant folding, unless folding produced a value the format cannot
+    // hold (a time, say); the plain tree is written then.
+    public byte[] toByteCode(boolean optimized) throws Exception {
+        if (optimized) {
+            try {
+                return Bytecode.exportAst(Optimizer.optimize(Compiler.bindFunctions(ast, env), env), true);
+            } catch (Exception e) {
+                // Fall through to the tree as parsed.
+            }
+        }
+        return Bytecode.exportAst(ast, false);
+    }
+
+    // getSource returns the original expression text, or null when compiled from tokens.
+    public String getSource() {
+        return source;
+    }
+
+    // getRequiredPaths returns the context paths the expression reads, such as
+    // "order.items.*.sku" (see RequiredPaths), or null when it reads the whole context.
+    // ProjectingJsonReader and LazyJsonContext use them to skip the rest of a document.
+    public Set<String> getRequiredPaths() {
+        return requiredPaths;
+    }
+
+    public Expression getAst() {
+        return ast;
+    }
+
+    public Env getEnv() {
+        return env;
+    }
+
+    public Compiler.Backend getBackend() {
+        return backend;
+    }
+
+    // getSchema returns the schema the expression was checked against, or null.
+    public Schema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public String toString() {
+        return ast.toString();
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.ast.Rewriter;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.FunctionCall;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.env.ILibrary;
+import com.github.specdrivendesign.lql.pkg.optimizer.Optimizer;
+import com.github.specdrivendesign.lql.pkg.typechecker.TypeChecker;
+import com.github.specdrivendesign.lql.pkg.typechecker.TypeChecker.Typing;
+import com.github.specdrivendesign.lql.pkg.types.Schema;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compiler turns a parsed expression tree into the form that CompiledExpression runs.
+public class Compiler {
+
+    // Backend selects how a compiled expression is executed.
+    public enum Backend {
+        // INTERPRETER walks the (function-bound) expression tree.
+        INTERPRETER,
+        // CLOSURE runs a tree of specialized closures; the default.
+        CLOSURE,
+        // JIT generates a JVM class per expression. Expressions that cannot be turned
+        // into a class (e.g. one too large for a single method) use CLOSURE instead;
+        // getJitFallbacks counts them.
+        JIT
+    }
+
+    private static final AtomicLong jitFallbacks = new AtomicLong();
+
+    public static Closure compile(Expression ast, Env env) throws Exception {
+        return compile(ast, env, Backend.CLOSURE);
+    }
+
+    public static Closure compile(Expression ast, Env env, Backend backend) throws Exception {
+        return compile(ast, env, backend, null);
+    }
+
+    // compile with a schema type-checks the optimized tree against it, so operations
+    // that cannot succeed on the declared field types fail here rather than at run time.
+    // Without one, the types that follow from the expression alone are still inferred
+    // and used, but nothing is rejected.
+    public static Closure compile(Expression ast, Env env, Backend backend, Schema schema) throws Exception {
+        Expression program = Optimizer.optimize(bindFunctions(ast, env), env);
+        Typing typing = schema == null ? TypeChecker.infer(program, Schema.empty()) : TypeChecker.check(program, schema);
+        switch (backend) {
+            case INTERPRETER:
+                return ctx -> program.eval(SharedContext.unwrap(ctx), env);
+            case JIT:
+                try {
+                    return JitCompiler.compile(program, env, typing);
+                } catch (Exception | LinkageError e) {
+                    // Under -Dlql.jit.strict=true, as the tests run, a class that cannot be
+                    // generated is an error, so a JIT bug does not pass for lost speed.
+                    if (Boolean.getBoolean("lql.jit.strict")) {
+                        throw new Exception("JIT compilation failed: " + e.getMessage(), e);
+                    }
+                    jitFallbacks.incrementAndGet();
+                    return ClosureCompiler.compile(program, env, typing);
+                }
+            default:
+                return ClosureCompiler.compile(program, env, typing);
+        }
+    }
+
+    // getJitFallbacks returns how many JIT compilations in this JVM fell back to CLOSURE.
+    public static long getJitFallbacks() {
+        return jitFallbacks.get();
+    }
+
+    // bindFunctions resolves the library of every function call against env once, so
+    // evaluation no longer looks libraries up by name. Calls to unknown libraries are
+    // left unbound and keep failing with a ReferenceError when (and if) they run.
+    public static Expression bindFunctions(Expression ast, Env env) throws Exception {
+        return Rewriter.rewrite(ast, node -> {
+            if (node instanceof FunctionCall) {
+                FunctionCall call = (FunctionCall) node;
+                if (call.getLibrary() == null && !call.getNamespace().isEmpty()) {
+                    ILibrary lib = env.getLibrary(call.getNamespace().get(0));
+                    if (lib != null) {
+                        return call.bind(call.getArgs(), lib);
+                    }
+                }
+            }
+            return node;
+        });
+    }
+}
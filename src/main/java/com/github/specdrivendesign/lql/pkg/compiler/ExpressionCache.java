@@ -0,0 +1,128 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.env.Env;
+
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// ExpressionCache keeps compiled expressions, all bound to one environment and backend,
+// by their source or, for bytecode, the SHA-256 of its bytes, so compiling the same
+// expression again skips lexing, parsing and compiling. It holds at most maxEntries
+// expressions and maxWeight of weight, a source weighing its length in chars and
+// bytecode its length in bytes; beyond either the least recently used are evicted.
+// Failed compilations are not cached. Two threads missing on the same expression at
+// once may both compile it. A cache may be shared between threads, as may the
+// expressions it returns.
+public final class ExpressionCache {
+
+    private static final class Entry {
+        final CompiledExpression compiled;
+        final int weight;
+
+        Entry(CompiledExpression compiled, int weight) {
+            this.compiled = compiled;
+            this.weight = weight;
+        }
+    }
+
+    private final Env env;
+    private final Compiler.Backend backend;
+    private final int maxEntries;
+    private final long maxWeight;
+    // entries is in access order, least recently used first; it and the counters are
+    // guarded by this.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ExpressionCache(Env env, Compiler.Backend backend, int maxEntries, long maxWeight) {
+        if (maxEntries < 1 || maxWeight < 1) {
+            throw new IllegalArgumentException("maxEntries and maxWeight must be positive");
+        }
+        this.env = env;
+        this.backend = backend;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    // compile returns the expression compiled from source, as CompiledExpression.compile
+    // would, compiling it only on a miss.
+    public CompiledExpression compile(String source) throws Exception {
+        String key = "s:" + source;
+        CompiledExpression cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        return store(key, CompiledExpression.compile(source, env, backend), source.length());
+    }
+
+    // fromByteCode returns the expression loaded from data, in either bytecode format, as
+    // CompiledExpression.fromByteCode would, loading it only on a miss.
+    public CompiledExpression fromByteCode(byte[] data) throws Exception {
+        String key = "b:" + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        CompiledExpression cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        return store(key, CompiledExpression.fromByteCode(data, env, backend), data.length);
+    }
+
+    private synchronized CompiledExpression lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.compiled;
+    }
+
+    private synchronized CompiledExpression store(String key, CompiledExpression compiled, int entryWeight) {
+        if (entryWeight > maxWeight) {
+            return compiled;
+        }
+        Entry previous = entries.put(key, new Entry(compiled, entryWeight));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entryWeight;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || weight > maxWeight) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            weight -= evicted.weight;
+            evictions++;
+        }
+        return compiled;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+}
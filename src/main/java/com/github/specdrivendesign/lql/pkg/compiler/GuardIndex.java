@@ -0,0 +1,350 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Binary;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Context;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Literal;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+import com.github.specdrivendesign.lql.pkg.tokens.Tokens;
+import com.github.specdrivendesign.lql.pkg.types.Types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// GuardIndex narrows down which rules of a RuleSet can be true for a context. A rule
+// whose condition starts with a guard on a context path (on its own, or as the
+// leftmost operand of a chain of ANDs) is false whenever the guard is: AND stops at
+// its first false operand, so nothing else in the rule runs. Two kinds of guard are
+// indexed, per path:
+//
+//   <path> == <literal>   string, boolean and null literals, in a hash map by value;
+//                         they compare with equals, which a lookup reproduces exactly.
+//   <path> > <number>     and <, <=, >=, in arrays sorted by threshold; a binary
+//                         search finds the satisfied thresholds for a value.
+//
+// Numeric equality compares with a tolerance and is left to the rules themselves.
+final class GuardIndex {
+    private final int ruleCount;
+    private final int[] unguarded;
+    private final PathAccessor[] paths;
+    private final PathGuards[] guards;
+
+    private GuardIndex(int ruleCount, int[] unguarded, PathAccessor[] paths, PathGuards[] guards) {
+        this.ruleCount = ruleCount;
+        this.unguarded = unguarded;
+        this.paths = paths;
+        this.guards = guards;
+    }
+
+    // build indexes asts, the bound and optimized rules in RuleSet order.
+    static GuardIndex build(List<Expression> asts) {
+        List<Integer> unguarded = new ArrayList<>();
+        Map<PathAccessor, PathGuards.Builder> builders = new LinkedHashMap<>();
+        for (int i = 0; i < asts.size(); i++) {
+            Expression first = asts.get(i);
+            while (first instanceof Binary && ((Binary) first).getOperator() == Tokens.TokenAnd) {
+                first = ((Binary) first).getLeft();
+            }
+            if (!addGuard(first, i, builders)) {
+                unguarded.add(i);
+            }
+        }
+        PathAccessor[] paths = builders.keySet().toArray(new PathAccessor[0]);
+        PathGuards[] guards = new PathGuards[paths.length];
+        for (int p = 0; p < paths.length; p++) {
+            guards[p] = builders.get(paths[p]).build();
+        }
+        return new GuardIndex(asts.size(), toArray(unguarded), paths, guards);
+    }
+
+    // getPaths returns the guarded paths; RuleSet gives them slots.
+    PathAccessor[] getPaths() {
+        return paths;
+    }
+
+    // candidates returns, in rule order, the rules that may not be false for ctx. When a
+    // guarded path cannot be read, or holds a value a range guard cannot compare, the
+    // rules concerned are candidates so they raise the error.
+    int[] candidates(SharedContext ctx) {
+        if (paths.length == 0) {
+            return allRules();
+        }
+        Selection selection = new Selection(unguarded);
+        for (int p = 0; p < paths.length; p++) {
+            guards[p].select(ctx.read(paths[p]), selection);
+        }
+        return selection.sorted();
+    }
+
+    private int[] allRules() {
+        int[] all = new int[ruleCount];
+        for (int i = 0; i < ruleCount; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+
+    private static boolean addGuard(Expression expr, int rule, Map<PathAccessor, PathGuards.Builder> builders) {
+        if (!(expr instanceof Binary)) {
+            return false;
+        }
+        Binary b = (Binary) expr;
+        int op = b.getOperator();
+        Expression operand = b.getLeft();
+        Expression literal = b.getRight();
+        if (operand instanceof Literal) {
+            // '<literal> < <path>' is '<path> > <literal>', and so on.
+            operand = b.getRight();
+            literal = b.getLeft();
+            op = mirror(op);
+        }
+        if (!(literal instanceof Literal)) {
+            return false;
+        }
+        PathAccessor path = path(operand);
+        if (path == null) {
+            return false;
+        }
+        Object value = ((Literal) literal).getValue();
+        if (op == Tokens.TokenEq) {
+            if (value != null && !(value instanceof String) && !(value instanceof Boolean)) {
+                return false;
+            }
+            builders.computeIfAbsent(path, k -> new PathGuards.Builder()).equal(value, rule);
+            return true;
+        }
+        Double limit = Types.toFloat(value);
+        if (limit == null || limit.isNaN() || op == Tokens.TokenNeq || mirror(op) == op) {
+            return false;
+        }
+        PathGuards.Builder builder = builders.computeIfAbsent(path, k -> new PathGuards.Builder());
+        switch (op) {
+            case Tokens.TokenGt:
+                builder.lower(limit, false, rule);
+                break;
+            case Tokens.TokenGte:
+                builder.lower(limit, true, rule);
+                break;
+            case Tokens.TokenLt:
+                builder.upper(limit, false, rule);
+                break;
+            default:
+                builder.upper(limit, true, rule);
+                break;
+        }
+        return true;
+    }
+
+    private static int mirror(int op) {
+        switch (op) {
+            case Tokens.TokenLt:
+                return Tokens.TokenGt;
+            case Tokens.TokenGt:
+                return Tokens.TokenLt;
+            case Tokens.TokenLte:
+                return Tokens.TokenGte;
+            case Tokens.TokenGte:
+                return Tokens.TokenLte;
+            default:
+                return op;
+        }
+    }
+
+    private static PathAccessor path(Expression operand) {
+        if (operand instanceof Context && ((Context) operand).getIdent() != null && ((Context) operand).getSubscript() == null) {
+            return PathAccessor.of(((Context) operand).getIdent().getName(), new MemberAccess.MemberPart[0]);
+        }
+        if (operand instanceof MemberAccess) {
+            MemberAccess.MemberPart[] parts = ClosureCompiler.flattenChain((MemberAccess) operand);
+            return ClosureCompiler.pathAccessor(ClosureCompiler.chainTarget((MemberAccess) operand, parts.length), parts);
+        }
+        return null;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    // PathGuards holds the guards on one path. Lower bounds ('>' and '>=') and upper
+    // bounds ('<' and '<=') are sorted by threshold; for a value v the satisfied lower
+    // bounds are a prefix of their array and the satisfied upper bounds a suffix, apart
+    // from the thresholds equal to v, which hold only when inclusive.
+    private static class PathGuards {
+        private final Map<Object, int[]> byValue;
+        private final Bounds lower;
+        private final Bounds upper;
+        private final int[] all;
+
+        PathGuards(Map<Object, int[]> byValue, Bounds lower, Bounds upper, int[] all) {
+            this.byValue = byValue;
+            this.lower = lower;
+            this.upper = upper;
+            this.all = all;
+        }
+
+        void select(Object val, Selection selection) {
+            if (val == PathAccessor.FAILED) {
+                selection.add(all, 0, all.length);
+                return;
+            }
+            int[] equal = byValue.get(val);
+            if (equal != null) {
+                selection.add(equal, 0, equal.length);
+            }
+            if (lower.rules.length == 0 && upper.rules.length == 0) {
+                return;
+            }
+            Double num = Types.toFloat(val);
+            if (num == null) {
+                selection.add(lower.rules, 0, lower.rules.length);
+                selection.add(upper.rules, 0, upper.rules.length);
+                return;
+            }
+            double v = num;
+            if (Double.isNaN(v)) {
+                return;
+            }
+            int from = lower.search(v, false);
+            int to = lower.search(v, true);
+            selection.add(lower.rules, 0, from);
+            lower.addInclusive(from, to, selection);
+            from = upper.search(v, false);
+            to = upper.search(v, true);
+            upper.addInclusive(from, to, selection);
+            selection.add(upper.rules, to, upper.rules.length);
+        }
+
+        static class Builder {
+            private final Map<Object, List<Integer>> equal = new HashMap<>();
+            private final List<Bound> lower = new ArrayList<>();
+            private final List<Bound> upper = new ArrayList<>();
+            private final List<Integer> all = new ArrayList<>();
+
+            void equal(Object value, int rule) {
+                equal.computeIfAbsent(value, k -> new ArrayList<>()).add(rule);
+                all.add(rule);
+            }
+
+            void lower(double limit, boolean inclusive, int rule) {
+                lower.add(new Bound(limit, inclusive, rule));
+                all.add(rule);
+            }
+
+            void upper(double limit, boolean inclusive, int rule) {
+                upper.add(new Bound(limit, inclusive, rule));
+                all.add(rule);
+            }
+
+            PathGuards build() {
+                Map<Object, int[]> byValue = new HashMap<>();
+                for (Map.Entry<Object, List<Integer>> entry : equal.entrySet()) {
+                    byValue.put(entry.getKey(), toArray(entry.getValue()));
+                }
+                int[] rules = toArray(all);
+                Arrays.sort(rules);
+                return new PathGuards(byValue, new Bounds(lower), new Bounds(upper), rules);
+            }
+        }
+    }
+
+    private static class Bound {
+        private final double limit;
+        private final boolean inclusive;
+        private final int rule;
+
+        Bound(double limit, boolean inclusive, int rule) {
+            this.limit = limit;
+            this.inclusive = inclusive;
+            this.rule = rule;
+        }
+    }
+
+    private static class Bounds {
+        private final double[] limits;
+        private final boolean[] inclusive;
+        private final int[] rules;
+
+        Bounds(List<Bound> bounds) {
+            List<Bound> sorted = new ArrayList<>(bounds);
+            sorted.sort(Comparator.comparingDouble(b -> b.limit));
+            limits = new double[sorted.size()];
+            inclusive = new boolean[sorted.size()];
+            rules = new int[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                limits[i] = sorted.get(i).limit;
+                inclusive[i] = sorted.get(i).inclusive;
+                rules[i] = sorted.get(i).rule;
+            }
+        }
+
+        // search returns the index of the first threshold above v, or the first one at
+        // least v when above is false.
+        int search(double v, boolean above) {
+            int lo = 0;
+            int hi = limits.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (limits[mid] < v || (above && limits[mid] == v)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        void addInclusive(int from, int to, Selection selection) {
+            for (int i = from; i < to; i++) {
+                if (inclusive[i]) {
+                    selection.add(rules[i]);
+                }
+            }
+        }
+    }
+
+    // Selection collects candidate rules; each rule is guarded at most once, so there
+    // are no duplicates to remove.
+    private static class Selection {
+        private int[] rules;
+        private int count;
+
+        Selection(int[] unguarded) {
+            rules = Arrays.copyOf(unguarded, java.lang.Math.max(16, unguarded.length * 2));
+            count = unguarded.length;
+        }
+
+        void add(int rule) {
+            if (count == rules.length) {
+                rules = Arrays.copyOf(rules, rules.length * 2);
+            }
+            rules[count++] = rule;
+        }
+
+        void add(int[] src, int from, int to) {
+            int n = to - from;
+            if (n <= 0) {
+                return;
+            }
+            if (count + n > rules.length) {
+                rules = Arrays.copyOf(rules, java.lang.Math.max(rules.length * 2, count + n));
+            }
+            System.arraycopy(src, from, rules, count, n);
+            count += n;
+        }
+
+        int[] sorted() {
+            int[] result = Arrays.copyOf(rules, count);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
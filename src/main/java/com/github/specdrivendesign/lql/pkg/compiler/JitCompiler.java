@@ -0,0 +1,479 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ArrayLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Binary;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Context;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.FunctionCall;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Literal;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ObjectLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Shared;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Unary;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.tokens.Tokens;
+import com.github.specdrivendesign.lql.pkg.typechecker.TypeChecker.Typing;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.specdrivendesign.lql.pkg.compiler.ClassWriter.*;
+
+// JitCompiler compiles an expression into JVM bytecode: one hidden class per
+// expression whose eval method holds the whole rule, so the JVM can inline it as a
+// single unit. Everything the code refers to (literals, bound libraries, member parts,
+// nodes without a bytecode form) is passed as class data and copied into static final
+// fields, which the JVM treats as constants. The hidden classes are not strongly
+// reachable from their loader, so they are unloaded with their CompiledExpression.
+public class JitCompiler {
+    private static final String PKG = "com/github/specdrivendesign/lql/pkg/";
+    private static final String PROGRAM = PKG + "compiler/JitProgram";
+    private static final String CLOSURE = PKG + "compiler/Closure";
+    private static final String OPERATORS = PKG + "compiler/Operators";
+    private static final String BINARY = PKG + "ast/expressions/Binary";
+    private static final String UNARY = PKG + "ast/expressions/Unary";
+    private static final String TYPES = PKG + "types/Types";
+
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String EXPRESSION_DESC = "L" + PKG + "ast/Expression;";
+    private static final String ENV_DESC = "L" + PKG + "env/Env;";
+    private static final String CALL_SITE = PKG + "env/CallSite";
+    private static final String CALL_SITE_DESC = "L" + CALL_SITE + ";";
+    private static final String CLOSURE_DESC = "L" + CLOSURE + ";";
+    private static final String IDENTIFIER_DESC = "L" + PKG + "ast/expressions/Identifier;";
+    private static final String PART_DESC = "L" + PKG + "ast/expressions/MemberAccess$MemberPart;";
+    private static final String PATH_DESC = "L" + PKG + "compiler/PathAccessor;";
+
+    public static Closure compile(Expression expr, Env env) throws Exception {
+        return compile(expr, env, Typing.NONE);
+    }
+
+    public static Closure compile(Expression expr, Env env, Typing typing) throws Exception {
+        Generator gen = new Generator(env, typing);
+        byte[] bytes = gen.generate(expr);
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClassWithClassData(bytes, gen.constants.toArray(), true);
+        try {
+            return (Closure) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new Exception("failed to instantiate compiled expression", t);
+        }
+    }
+
+    private static class Generator {
+        private final Env env;
+        private final Typing typing;
+        private final ClassWriter cw = new ClassWriter(PROGRAM, "java/lang/Object", CLOSURE);
+        private final List<Object> constants = new ArrayList<>();
+        private final List<String> constantDescs = new ArrayList<>();
+        private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+        private ClassWriter.Code code;
+
+        Generator(Env env, Typing typing) {
+            this.env = env;
+            this.typing = typing;
+        }
+
+        byte[] generate(Expression expr) throws Exception {
+            ClassWriter.Code init = cw.newMethod(ACC_PUBLIC, "<init>", "()V", 1);
+            init.aload(0);
+            init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+            init.op(RETURN, 0);
+            init.finish();
+
+            code = cw.newMethod(ACC_PUBLIC, "eval", "(Ljava/util/Map;)" + OBJECT, 2);
+            emit(expr);
+            code.op(ARETURN, -1);
+            code.finish();
+
+            // <clinit> copies the class data array into the typed constant fields.
+            ClassWriter.Code clinit = cw.newMethod(ACC_STATIC, "<clinit>", "()V", 1);
+            clinit.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;");
+            clinit.pushString("_");
+            clinit.pushClass("[Ljava/lang/Object;");
+            clinit.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "classData",
+                    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)" + OBJECT);
+            clinit.type(CHECKCAST, "[Ljava/lang/Object;");
+            clinit.astore(0);
+            for (int i = 0; i < constants.size(); i++) {
+                String desc = constantDescs.get(i);
+                cw.addField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "c" + i, desc);
+                clinit.aload(0);
+                clinit.pushInt(i);
+                clinit.op(AALOAD, -1);
+                if (!desc.equals(OBJECT)) {
+                    clinit.type(CHECKCAST, desc.substring(1, desc.length() - 1));
+                }
+                clinit.field(PUTSTATIC, PROGRAM, "c" + i, desc);
+            }
+            clinit.op(RETURN, 0);
+            clinit.finish();
+            return cw.toByteArray();
+        }
+
+        private void constant(Object value, String desc) {
+            Integer index = constantIndex.get(value);
+            if (index == null || !constantDescs.get(index).equals(desc)) {
+                index = constants.size();
+                constants.add(value);
+                constantDescs.add(desc);
+                constantIndex.put(value, index);
+            }
+            code.field(GETSTATIC, PROGRAM, "c" + index, desc);
+        }
+
+        // emit generates code that leaves the value of expr on the operand stack.
+        private void emit(Expression expr) throws Exception {
+            if (expr instanceof Literal) {
+                Object value = ((Literal) expr).getValue();
+                if (value == null) {
+                    code.op(ACONST_NULL, 1);
+                } else {
+                    constant(value, OBJECT);
+                }
+            } else if (expr instanceof Context) {
+                emitContext((Context) expr);
+            } else if (expr instanceof MemberAccess && ClosureCompiler.flattenChain((MemberAccess) expr).length > 0) {
+                emitMemberAccess((MemberAccess) expr);
+            } else if (TypedArithmetic.applies(expr, typing)) {
+                emitTypedArithmetic(expr);
+            } else if (expr instanceof Binary) {
+                emitBinary((Binary) expr);
+            } else if (expr instanceof Unary) {
+                emitUnary((Unary) expr);
+            } else if (expr instanceof FunctionCall && ((FunctionCall) expr).getCallSite() != null) {
+                emitFunctionCall((FunctionCall) expr);
+            } else if (expr instanceof ArrayLiteral) {
+                emitArrayLiteral((ArrayLiteral) expr);
+            } else if (expr instanceof ObjectLiteral) {
+                emitObjectLiteral((ObjectLiteral) expr);
+            } else if (expr instanceof Shared) {
+                emitShared((Shared) expr);
+            } else {
+                emitFallback(expr);
+            }
+        }
+
+        // emitTypedArithmetic calls the unboxed closure TypedArithmetic builds for the
+        // tree, held in a constant like any other run-time object.
+        private void emitTypedArithmetic(Expression expr) throws Exception {
+            constant(TypedArithmetic.compile(expr, env, typing), CLOSURE_DESC);
+            code.aload(1);
+            code.invoke(INVOKEINTERFACE, CLOSURE, "eval", "(Ljava/util/Map;)" + OBJECT);
+        }
+
+        private void emitShared(Shared sh) throws Exception {
+            ClassWriter.Label done = new ClassWriter.Label();
+            code.aload(1);
+            code.pushInt(sh.getSlot());
+            code.invoke(INVOKESTATIC, OPERATORS, "shared", "(Ljava/util/Map;I)" + OBJECT);
+            code.op(DUP, 1);
+            code.field(GETSTATIC, PKG + "compiler/SharedContext", "UNRESOLVED", OBJECT);
+            code.jump(IF_ACMPNE, done);
+            code.op(POP, -1);
+            emit(sh.getExpr());
+            code.aload(1);
+            code.pushInt(sh.getSlot());
+            code.invoke(INVOKESTATIC, OPERATORS, "storeShared", "(" + OBJECT + "Ljava/util/Map;I)" + OBJECT);
+            code.mark(done);
+        }
+
+        private void emitFallback(Expression expr) {
+            constant(expr, EXPRESSION_DESC);
+            emitUnwrappedContext();
+            constant(env, ENV_DESC);
+            code.invoke(INVOKEINTERFACE, PKG + "ast/Expression", "eval", "(Ljava/util/Map;" + ENV_DESC + ")" + OBJECT);
+        }
+
+        private void emitContext(Context c) {
+            if (c.getIdent() == null) {
+                emitUnwrappedContext();
+                return;
+            }
+            code.aload(1);
+            constant(c.getIdent(), IDENTIFIER_DESC);
+            code.invoke(INVOKESTATIC, OPERATORS, "context", "(Ljava/util/Map;" + IDENTIFIER_DESC + ")" + OBJECT);
+        }
+
+        private void emitUnwrappedContext() {
+            code.aload(1);
+            code.invoke(INVOKESTATIC, PKG + "compiler/SharedContext", "unwrap", "(Ljava/util/Map;)Ljava/util/Map;");
+        }
+
+        private void emitMemberAccess(MemberAccess m) throws Exception {
+            MemberAccess.MemberPart[] parts = ClosureCompiler.flattenChain(m);
+            Expression target = ClosureCompiler.chainTarget(m, parts.length);
+            PathAccessor path = ClosureCompiler.pathAccessor(target, parts);
+            if (path == null) {
+                emitChain(target, parts);
+                return;
+            }
+            // Read the whole path through the shared accessor; only when that fails is
+            // the chain walked step by step, to raise the error.
+            ClassWriter.Label done = new ClassWriter.Label();
+            code.aload(1);
+            constant(path, PATH_DESC);
+            code.invoke(INVOKESTATIC, OPERATORS, "path", "(Ljava/util/Map;" + PATH_DESC + ")" + OBJECT);
+            code.op(DUP, 1);
+            code.field(GETSTATIC, PKG + "compiler/PathAccessor", "FAILED", OBJECT);
+            code.jump(IF_ACMPNE, done);
+            code.op(POP, -1);
+            emitChain(target, parts);
+            code.mark(done);
+        }
+
+        private void emitChain(Expression target, MemberAccess.MemberPart[] parts) throws Exception {
+            emit(target);
+            for (MemberAccess.MemberPart part : parts) {
+                if (!part.isIndex()) {
+                    constant(part, PART_DESC);
+                    code.invoke(INVOKESTATIC, OPERATORS, "field", "(" + OBJECT + PART_DESC + ")" + OBJECT);
+                    continue;
+                }
+                // An optional index on null keeps the null and skips the index expression.
+                ClassWriter.Label skip = new ClassWriter.Label();
+                if (part.isOptional()) {
+                    ClassWriter.Label present = new ClassWriter.Label();
+                    code.op(DUP, 1);
+                    code.jump(IFNONNULL, present);
+                    code.jump(GOTO, skip);
+                    code.mark(present);
+                }
+                emit(part.getExpr());
+                constant(part, PART_DESC);
+                code.invoke(INVOKESTATIC, OPERATORS, "index", "(" + OBJECT + OBJECT + PART_DESC + ")" + OBJECT);
+                code.mark(skip);
+            }
+        }
+
+        private void emitBinary(Binary b) throws Exception {
+            int op = b.getOperator();
+            switch (op) {
+                case Tokens.TokenAnd:
+                    emitLogical(b, "AND operator requires boolean operand", IFNE, "FALSE");
+                    return;
+                case Tokens.TokenOr:
+                    emitLogical(b, "OR operator requires boolean operand", IFEQ, "TRUE");
+                    return;
+                case Tokens.TokenEq:
+                    emitEquality(b, false);
+                    return;
+                case Tokens.TokenNeq:
+                    emitEquality(b, true);
+                    return;
+                default:
+                    break;
+            }
+            String name = operatorMethod(op);
+            if (name == null) {
+                code.pushInt(op);
+                emit(b.getLeft());
+                emit(b.getRight());
+                emitPosition(b.getLine(), b.getColumn());
+                code.invoke(INVOKESTATIC, BINARY, "apply", "(I" + OBJECT + OBJECT + "II)" + OBJECT);
+                return;
+            }
+            emit(b.getLeft());
+            boolean comparison = op == Tokens.TokenLt || op == Tokens.TokenGt || op == Tokens.TokenLte || op == Tokens.TokenGte;
+            if (comparison && ClosureCompiler.isNumericLiteral(b.getRight())) {
+                Object literal = ((Literal) b.getRight()).getValue();
+                code.pushDouble(((Number) literal).doubleValue());
+                constant(literal, OBJECT);
+                emitPosition(b.getLine(), b.getColumn());
+                code.invoke(INVOKESTATIC, OPERATORS, name, "(" + OBJECT + "D" + OBJECT + "II)" + OBJECT);
+                return;
+            }
+            emit(b.getRight());
+            emitPosition(b.getLine(), b.getColumn());
+            code.invoke(INVOKESTATIC, OPERATORS, name, "(" + OBJECT + OBJECT + "II)" + OBJECT);
+        }
+
+        private static String operatorMethod(int op) {
+            switch (op) {
+                case Tokens.TokenPlus:
+                    return "add";
+                case Tokens.TokenMinus:
+                    return "subtract";
+                case Tokens.TokenMultiply:
+                    return "multiply";
+                case Tokens.TokenDivide:
+                    return "divide";
+                case Tokens.TokenLt:
+                    return "lessThan";
+                case Tokens.TokenGt:
+                    return "greaterThan";
+                case Tokens.TokenLte:
+                    return "lessOrEqual";
+                case Tokens.TokenGte:
+                    return "greaterOrEqual";
+                default:
+                    return null;
+            }
+        }
+
+        // emitLogical evaluates the left operand and, unless it decides the result
+        // (false for AND, true for OR), the right one.
+        private void emitLogical(Binary b, String message, int continueJump, String shortCircuit) throws Exception {
+            ClassWriter.Label right = new ClassWriter.Label();
+            ClassWriter.Label end = new ClassWriter.Label();
+            emit(b.getLeft());
+            emitRequireBoolean(b.getLeft(), message, b);
+            code.jump(continueJump, right);
+            code.field(GETSTATIC, "java/lang/Boolean", shortCircuit, "Ljava/lang/Boolean;");
+            code.jump(GOTO, end);
+            code.mark(right);
+            emit(b.getRight());
+            if (!ClosureCompiler.isProvenBoolean(b.getRight(), typing)) {
+                emitRequireBoolean(b.getRight(), message, b);
+                emitBox();
+            }
+            code.mark(end);
+        }
+
+        // emitRequireBoolean turns the value of operand on the stack into a boolean,
+        // checking its type only when the type checker has not proven it.
+        private void emitRequireBoolean(Expression operand, String message, Binary b) {
+            if (ClosureCompiler.isProvenBoolean(operand, typing)) {
+                emitUnbox();
+                return;
+            }
+            emitRequireBoolean(message, b);
+        }
+
+        private void emitRequireBoolean(String message, Binary b) {
+            code.pushString(message);
+            emitPosition(b.getLine(), b.getColumn());
+            code.invoke(INVOKESTATIC, OPERATORS, "requireBoolean", "(" + OBJECT + "Ljava/lang/String;II)Z");
+        }
+
+        private void emitEquality(Binary b, boolean negate) throws Exception {
+            // Prefer the literal on the right, which is how rules are usually written.
+            Literal lit = null;
+            Expression other = null;
+            if (b.getRight() instanceof Literal) {
+                lit = (Literal) b.getRight();
+                other = b.getLeft();
+            } else if (b.getLeft() instanceof Literal) {
+                lit = (Literal) b.getLeft();
+                other = b.getRight();
+            }
+            Object value = lit == null ? null : lit.getValue();
+            if (lit != null && (value instanceof String || value instanceof Boolean)) {
+                constant(value, OBJECT);
+                emit(other);
+                code.invoke(INVOKEVIRTUAL, "java/lang/Object", "equals", "(" + OBJECT + ")Z");
+            } else if (lit != null && value == null) {
+                emit(other);
+                code.invoke(INVOKESTATIC, "java/util/Objects", "isNull", "(" + OBJECT + ")Z");
+            } else if (lit != null && Operators.isNumber(value)) {
+                emit(other);
+                code.pushDouble(((Number) value).doubleValue());
+                constant(value, OBJECT);
+                code.invoke(INVOKESTATIC, OPERATORS, "equalsNumber", "(" + OBJECT + "D" + OBJECT + ")Z");
+            } else {
+                emit(b.getLeft());
+                emit(b.getRight());
+                code.invoke(INVOKESTATIC, TYPES, "equals", "(" + OBJECT + OBJECT + ")Z");
+            }
+            if (negate) {
+                code.op(ICONST_1, 1);
+                code.op(IXOR, -1);
+            }
+            emitBox();
+        }
+
+        private void emitUnary(Unary u) throws Exception {
+            int op = u.getOperator();
+            if (op == Tokens.TokenNot && ClosureCompiler.isProvenBoolean(u.getExpr(), typing)) {
+                emit(u.getExpr());
+                emitUnbox();
+                code.op(ICONST_1, 1);
+                code.op(IXOR, -1);
+                emitBox();
+                return;
+            }
+            if (op == Tokens.TokenMinus || op == Tokens.TokenNot) {
+                emit(u.getExpr());
+                emitPosition(u.getLine(), u.getColumn());
+                code.invoke(INVOKESTATIC, OPERATORS, op == Tokens.TokenMinus ? "negate" : "not", "(" + OBJECT + "II)" + OBJECT);
+                return;
+            }
+            code.pushInt(op);
+            emit(u.getExpr());
+            emitPosition(u.getLine(), u.getColumn());
+            code.invoke(INVOKESTATIC, UNARY, "apply", "(I" + OBJECT + "II)" + OBJECT);
+        }
+
+        // emitFunctionCall calls the site's fixed-arity overload with the arguments on the
+        // stack, or packs them into an array when there are more than three.
+        private void emitFunctionCall(FunctionCall call) throws Exception {
+            constant(call.getCallSite(), CALL_SITE_DESC);
+            int count = call.getArgs().size();
+            if (count <= 3) {
+                for (Expression arg : call.getArgs()) {
+                    emit(arg);
+                }
+                code.invoke(INVOKEVIRTUAL, CALL_SITE, "call", "(" + OBJECT.repeat(count) + ")" + OBJECT);
+                return;
+            }
+            code.pushInt(count);
+            code.type(ANEWARRAY, "java/lang/Object");
+            for (int i = 0; i < count; i++) {
+                code.op(DUP, 1);
+                code.pushInt(i);
+                emit(call.getArgs().get(i));
+                code.op(AASTORE, -3);
+            }
+            code.invoke(INVOKEVIRTUAL, CALL_SITE, "call", "([" + OBJECT + ")" + OBJECT);
+        }
+
+        private void emitArrayLiteral(ArrayLiteral a) throws Exception {
+            newList(a.getElements().size());
+            for (Expression element : a.getElements()) {
+                code.op(DUP, 1);
+                emit(element);
+                code.invoke(INVOKEVIRTUAL, "java/util/ArrayList", "add", "(" + OBJECT + ")Z");
+                code.op(POP, -1);
+            }
+        }
+
+        private void emitObjectLiteral(ObjectLiteral o) throws Exception {
+            code.type(NEW, "java/util/HashMap");
+            code.op(DUP, 1);
+            code.invoke(INVOKESPECIAL, "java/util/HashMap", "<init>", "()V");
+            for (Map.Entry<String, Expression> entry : o.getFields().entrySet()) {
+                code.op(DUP, 1);
+                code.pushString(entry.getKey());
+                emit(entry.getValue());
+                code.invoke(INVOKEVIRTUAL, "java/util/HashMap", "put", "(" + OBJECT + OBJECT + ")" + OBJECT);
+                code.op(POP, -1);
+            }
+        }
+
+        private void newList(int capacity) {
+            code.type(NEW, "java/util/ArrayList");
+            code.op(DUP, 1);
+            code.pushInt(capacity);
+            code.invoke(INVOKESPECIAL, "java/util/ArrayList", "<init>", "(I)V");
+        }
+
+        private void emitPosition(int line, int column) {
+            code.pushInt(line);
+            code.pushInt(column);
+        }
+
+        private void emitBox() {
+            code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+        }
+
+        private void emitUnbox() {
+            code.type(CHECKCAST, "java/lang/Boolean");
+            code.invoke(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.adapters.ContextAdapters;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Binary;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Identifier;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Unary;
+import com.github.specdrivendesign.lql.pkg.errors.Errors;
+import com.github.specdrivendesign.lql.pkg.tokens.Tokens;
+import com.github.specdrivendesign.lql.pkg.types.Types;
+
+import java.util.Map;
+
+// Operators holds the per-operator fast paths used by the closure and JIT backends.
+// Each method handles the operand types it expects inline and hands everything else
+// to Binary.apply / Unary.apply, so results and errors match the interpreter.
+public class Operators {
+
+    public static Object context(Map<String, Object> ctx, Identifier ident) throws Exception {
+        Object val = ctx.get(ident.getName());
+        if (val == null && !ctx.containsKey(ident.getName())) {
+            throw Errors.newReferenceError(String.format("field '%s' not found", ident.getName()), ident.getLine(), ident.getColumn());
+        }
+        return ContextAdapters.adapt(val);
+    }
+
+    // path reads a fused context path, through the rule set's slots when there are any.
+    public static Object path(Map<String, Object> ctx, PathAccessor path) {
+        if (ctx instanceof SharedContext) {
+            return ((SharedContext) ctx).read(path);
+        }
+        return path.get(ctx);
+    }
+
+    // shared returns the stored value of a Shared sub-expression, or
+    // SharedContext.UNRESOLVED when it still has to be computed.
+    public static Object shared(Map<String, Object> ctx, int slot) {
+        if (ctx instanceof SharedContext) {
+            return ((SharedContext) ctx).getShared(slot);
+        }
+        return SharedContext.UNRESOLVED;
+    }
+
+    public static Object storeShared(Object val, Map<String, Object> ctx, int slot) {
+        if (ctx instanceof SharedContext) {
+            ((SharedContext) ctx).setShared(slot, val);
+        }
+        return val;
+    }
+
+    // field applies one '.key' step of a member access chain. As with nested
+    // MemberAccess nodes, an optional step that finds nothing yields null and the
+    // next step carries on from there.
+    public static Object field(Object val, MemberAccess.MemberPart part) throws Exception {
+        if (val == null && part.isOptional()) {
+            return null;
+        }
+        val = MemberAccess.getField(val, part);
+        return val == MemberAccess.MISSING ? null : val;
+    }
+
+    // index applies one '[index]' step; the caller skips it (and the index expression)
+    // when val is null and the part is optional.
+    public static Object index(Object val, Object indexVal, MemberAccess.MemberPart part) throws Exception {
+        val = MemberAccess.getIndex(val, indexVal, part);
+        return val == MemberAccess.MISSING ? null : val;
+    }
+
+    public static boolean requireBoolean(Object val, String message, int line, int column) throws Exception {
+        if (!(val instanceof Boolean)) {
+            throw Errors.newSemanticError(message, line, column);
+        }
+        return (Boolean) val;
+    }
+
+    // Integer arithmetic is exact, through the same Types helpers as Binary.apply.
+    public static Object add(Object l, Object r, int line, int column) throws Exception {
+        if (l instanceof Long && r instanceof Long) {
+            return Types.addInt((Long) l, (Long) r);
+        }
+        if (l instanceof Double && r instanceof Double) {
+            return (Double) l + (Double) r;
+        }
+        return Binary.apply(Tokens.TokenPlus, l, r, line, column);
+    }
+
+    public static Object subtract(Object l, Object r, int line, int column) throws Exception {
+        if (l instanceof Long && r instanceof Long) {
+            return Types.subtractInt((Long) l, (Long) r);
+        }
+        if (l instanceof Double && r instanceof Double) {
+            return (Double) l - (Double) r;
+        }
+        return Binary.apply(Tokens.TokenMinus, l, r, line, column);
+    }
+
+    public static Object multiply(Object l, Object r, int line, int column) throws Exception {
+        if (l instanceof Long && r instanceof Long) {
+            return Types.multiplyInt((Long) l, (Long) r);
+        }
+        if (l instanceof Double && r instanceof Double) {
+            return (Double) l * (Double) r;
+        }
+        return Binary.apply(Tokens.TokenMultiply, l, r, line, column);
+    }
+
+    public static Object divide(Object l, Object r, int line, int column) throws Exception {
+        if (l instanceof Long && r instanceof Long && (Long) r != 0) {
+            return Types.divideInt((Long) l, (Long) r);
+        }
+        if (l instanceof Double && r instanceof Double && (Double) r != 0) {
+            return (Double) l / (Double) r;
+        }
+        return Binary.apply(Tokens.TokenDivide, l, r, line, column);
+    }
+
+    public static Object lessThan(Object l, Object r, int line, int column) throws Exception {
+        if (isNumber(l) && isNumber(r)) {
+            return ((Number) l).doubleValue() < ((Number) r).doubleValue();
+        }
+        return Binary.apply(Tokens.TokenLt, l, r, line, column);
+    }
+
+    public static Object greaterThan(Object l, Object r, int line, int column) throws Exception {
+        if (isNumber(l) && isNumber(r)) {
+            return ((Number) l).doubleValue() > ((Number) r).doubleValue();
+        }
+        return Binary.apply(Tokens.TokenGt, l, r, line, column);
+    }
+
+    public static Object lessOrEqual(Object l, Object r, int line, int column) throws Exception {
+        if (isNumber(l) && isNumber(r)) {
+            return ((Number) l).doubleValue() <= ((Number) r).doubleValue();
+        }
+        return Binary.apply(Tokens.TokenLte, l, r, line, column);
+    }
+
+    public static Object greaterOrEqual(Object l, Object r, int line, int column) throws Exception {
+        if (isNumber(l) && isNumber(r)) {
+            return ((Number) l).doubleValue() >= ((Number) r).doubleValue();
+        }
+        return Binary.apply(Tokens.TokenGte, l, r, line, column);
+    }
+
+    // The literal variants serve '<value> <op> <number literal>', the shape of threshold
+    // rules; literal is the boxed right operand, only needed on the slow path.
+    public static Object lessThan(Object l, double limit, Object literal, int line, int column) throws Exception {
+        if (isNumber(l)) {
+            return ((Number) l).doubleValue() < limit;
+        }
+        return Binary.apply(Tokens.TokenLt, l, literal, line, column);
+    }
+
+    public static Object greaterThan(Object l, double limit, Object literal, int line, int column) throws Exception {
+        if (isNumber(l)) {
+            return ((Number) l).doubleValue() > limit;
+        }
+        return Binary.apply(Tokens.TokenGt, l, literal, line, column);
+    }
+
+    public static Object lessOrEqual(Object l, double limit, Object literal, int line, int column) throws Exception {
+        if (isNumber(l)) {
+            return ((Number) l).doubleValue() <= limit;
+        }
+        return Binary.apply(Tokens.TokenLte, l, literal, line, column);
+    }
+
+    public static Object greaterOrEqual(Object l, double limit, Object literal, int line, int column) throws Exception {
+        if (isNumber(l)) {
+            return ((Number) l).doubleValue() >= limit;
+        }
+        return Binary.apply(Tokens.TokenGte, l, literal, line, column);
+    }
+
+    public static boolean equalsNumber(Object val, double expected, Object literal) {
+        if (isNumber(val)) {
+            return java.lang.Math.abs(((Number) val).doubleValue() - expected) < 1e-9;
+        }
+        return Types.equals(val, literal);
+    }
+
+    public static Object negate(Object val, int line, int column) throws Exception {
+        if (val instanceof Double) {
+            return -(Double) val;
+        }
+        if (val instanceof Long) {
+            return Types.negateInt((Long) val);
+        }
+        return Unary.apply(Tokens.TokenMinus, val, line, column);
+    }
+
+    public static Object not(Object val, int line, int column) throws Exception {
+        if (val instanceof Boolean) {
+            return !(Boolean) val;
+        }
+        return Unary.apply(Tokens.TokenNot, val, line, column);
+    }
+
+    public static boolean isNumber(Object val) {
+        return val instanceof Long || val instanceof Double || val instanceof Integer;
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.adapters.ContextAdapters;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+import com.github.specdrivendesign.lql.pkg.types.Types;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// PathAccessor reads a fixed context path such as $order.customer?.city in one call:
+// the keys are interned up front and each hop costs a single Map.get, with
+// containsKey consulted only when get returns null. Accessors carry no source
+// positions, so within a Scope (a RuleSet being built) one instance is shared by every
+// rule that uses the same path. When the path cannot be read without raising an error,
+// get returns FAILED and the caller evaluates the path the regular way to raise it
+// with the right position.
+public final class PathAccessor {
+    public static final Object FAILED = new Object();
+
+    private static final ThreadLocal<Scope> scope = new ThreadLocal<>();
+
+    // id numbers the accessors of a Scope densely from 0, so a rule set can map them to
+    // slots with an array as long as its own paths; it is -1 outside a scope.
+    private final int id;
+    private final String root;
+    private final String[] keys;
+    private final boolean[] optional;
+
+    private PathAccessor(int id, String root, String[] keys, boolean[] optional) {
+        this.id = id;
+        this.root = root;
+        this.keys = keys;
+        this.optional = optional;
+    }
+
+    // Scope interns the accessors created on the current thread while it is open, so
+    // the rules of a RuleSet compiled inside one share an accessor per path. Outside a
+    // scope every call creates a new accessor, and nothing outlives the expressions
+    // that use it. Scopes nest; closing one restores the one it was opened in.
+    static final class Scope implements AutoCloseable {
+        private final Map<String, PathAccessor> interned = new HashMap<>();
+        private final Scope outer;
+
+        Scope() {
+            this.outer = scope.get();
+            scope.set(this);
+        }
+
+        @Override
+        public void close() {
+            if (outer == null) {
+                scope.remove();
+            } else {
+                scope.set(outer);
+            }
+        }
+    }
+
+    // of returns the accessor for root (null for the whole context) followed by the given
+    // '.key' parts; the one already created for the path when a Scope is open.
+    public static PathAccessor of(String root, MemberAccess.MemberPart[] parts) {
+        String[] keys = new String[parts.length];
+        boolean[] optional = new boolean[parts.length];
+        StringBuilder path = new StringBuilder(root == null ? "$" : "$" + root);
+        for (int i = 0; i < parts.length; i++) {
+            keys[i] = parts[i].getKey().intern();
+            optional[i] = parts[i].isOptional();
+            path.append(optional[i] ? "?." : ".").append(keys[i]);
+        }
+        Scope current = scope.get();
+        if (current == null) {
+            return new PathAccessor(-1, root == null ? null : root.intern(), keys, optional);
+        }
+        return current.interned.computeIfAbsent(path.toString(),
+                k -> new PathAccessor(current.interned.size(), root == null ? null : root.intern(), keys, optional));
+    }
+
+    public Object get(Map<String, Object> ctx) {
+        Object val = ctx;
+        if (root != null) {
+            val = ctx.get(root);
+            if (val == null && !ctx.containsKey(root)) {
+                return FAILED;
+            }
+            val = ContextAdapters.adapt(val);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (val == null) {
+                if (optional[i]) {
+                    continue;
+                }
+                return FAILED;
+            }
+            if (!(val instanceof Map<?, ?>)) {
+                return FAILED;
+            }
+            val = Types.lookupField((Map<?, ?>) val, keys[i]);
+            if (val == Types.NO_FIELD) {
+                if (!optional[i]) {
+                    return FAILED;
+                }
+                val = null;
+            }
+        }
+        return val;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    public String[] getKeys() {
+        return keys.clone();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(root == null ? "$" : "$" + root);
+        for (int i = 0; i < keys.length; i++) {
+            sb.append(optional[i] ? "?." : ".").append(keys[i]);
+        }
+        return sb.toString();
+    }
+}
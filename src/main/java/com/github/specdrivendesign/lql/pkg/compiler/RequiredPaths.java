@@ -0,0 +1,93 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.ast.Rewriter;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Context;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Literal;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+// RequiredPaths finds the context paths an expression reads, in the form
+// Lexer.extractContextIdentifiers uses: "order.customer.name", with '*' for an array
+// index, as in "order.items.*.sku". A path covers everything below it; one ends where
+// an index is not a literal ($order.items[$i] needs all of "order.items"). Readers of
+// JSON contexts can skip whatever lies on no path without changing the result.
+public final class RequiredPaths {
+
+    private RequiredPaths() {
+    }
+
+    // of returns the paths ast reads, sorted, or null when it reads the context as a
+    // whole ($ on its own).
+    public static Set<String> of(Expression ast) throws Exception {
+        List<Expression> nodes = new ArrayList<>();
+        List<String> found = new ArrayList<>();
+        Set<Expression> inner = Collections.newSetFromMap(new IdentityHashMap<>());
+        Rewriter.rewrite(ast, node -> {
+            if (node instanceof MemberAccess) {
+                MemberAccess m = (MemberAccess) node;
+                MemberAccess.MemberPart[] parts = ClosureCompiler.flattenChain(m);
+                Expression target = ClosureCompiler.chainTarget(m, parts.length);
+                if (target instanceof Context && ((Context) target).getSubscript() == null) {
+                    nodes.add(node);
+                    found.add(path((Context) target, parts));
+                    inner.add(m.getTarget());
+                }
+            } else if (node instanceof Context) {
+                Context c = (Context) node;
+                nodes.add(node);
+                found.add(c.getIdent() == null || c.getSubscript() != null ? "" : c.getIdent().getName());
+            }
+            return node;
+        });
+        Set<String> paths = new TreeSet<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (!inner.contains(nodes.get(i))) {
+                if (found.get(i).isEmpty()) {
+                    return null;
+                }
+                paths.add(found.get(i));
+            }
+        }
+        // Drop the paths another one already covers: "a.b" when "a" is read whole.
+        paths.removeIf(path -> {
+            for (int dot = path.indexOf('.'); dot >= 0; dot = path.indexOf('.', dot + 1)) {
+                if (paths.contains(path.substring(0, dot))) {
+                    return true;
+                }
+            }
+            return false;
+        });
+        return Collections.unmodifiableSet(paths);
+    }
+
+    private static String path(Context root, MemberAccess.MemberPart[] parts) {
+        StringBuilder path = new StringBuilder(root.getIdent() == null ? "" : root.getIdent().getName());
+        for (MemberAccess.MemberPart part : parts) {
+            String name;
+            if (!part.isIndex()) {
+                name = part.getKey();
+            } else if (part.getExpr() instanceof Literal) {
+                Object index = ((Literal) part.getExpr()).getValue();
+                name = index instanceof String ? (String) index : "*";
+            } else {
+                break;
+            }
+            if (name.contains(".") || (name.equals("*") && !part.isIndex())) {
+                // Not expressible as a path; everything below the parent is kept.
+                break;
+            }
+            if (path.length() > 0) {
+                path.append('.');
+            }
+            path.append(name);
+        }
+        return path.toString();
+    }
+}
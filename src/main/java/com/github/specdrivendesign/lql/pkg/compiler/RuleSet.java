@@ -0,0 +1,242 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.adapters.ContextAdapters;
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.ast.Rewriter;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Shared;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.lexer.Lexer;
+import com.github.specdrivendesign.lql.pkg.optimizer.Optimizer;
+import com.github.specdrivendesign.lql.pkg.parser.Parser;
+import com.github.specdrivendesign.lql.pkg.types.Schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+// RuleSet evaluates a fixed group of named rules against one context at a time. The
+// rules are compiled together: sub-expressions they have in common are found by
+// CommonSubexpressions, and the context paths they read ($event.payload.items and the
+// like) are collected. Each gets a slot, so during an evaluation a shared value is
+// computed by the first rule that needs it and served from its slot to all the
+// others. Rules guarded by '<path> == <literal>' or a numeric threshold such as
+// '<path> > 42.5' are indexed by GuardIndex, so an evaluation only runs the rules
+// whose guard can hold. Like CompiledExpression, a RuleSet is immutable and may be
+// shared between threads.
+public final class RuleSet {
+    private final List<String> names;
+    private final List<CompiledExpression> rules;
+    private final List<PathAccessor> paths;
+    private final int[] slotOf;
+    private final int sharedCount;
+    private final GuardIndex index;
+
+    private RuleSet(List<String> names, List<CompiledExpression> rules, int sharedCount, GuardIndex index) throws Exception {
+        this.names = Collections.unmodifiableList(names);
+        this.rules = Collections.unmodifiableList(rules);
+        this.sharedCount = sharedCount;
+        this.index = index;
+        Set<PathAccessor> used = new LinkedHashSet<>(Arrays.asList(index.getPaths()));
+        for (CompiledExpression rule : this.rules) {
+            collectPaths(rule.getAst(), used);
+        }
+        this.paths = Collections.unmodifiableList(new ArrayList<>(used));
+        int maxId = -1;
+        for (PathAccessor path : paths) {
+            maxId = java.lang.Math.max(maxId, path.getId());
+        }
+        this.slotOf = new int[maxId + 1];
+        Arrays.fill(slotOf, -1);
+        for (int i = 0; i < paths.size(); i++) {
+            slotOf[paths.get(i).getId()] = i;
+        }
+    }
+
+    // compile compiles every source in sources, in iteration order, keyed by rule name.
+    public static RuleSet compile(Map<String, String> sources, Env env) throws Exception {
+        return compile(sources, env, Compiler.Backend.CLOSURE);
+    }
+
+    public static RuleSet compile(Map<String, String> sources, Env env, Compiler.Backend backend) throws Exception {
+        return compile(sources, env, backend, null);
+    }
+
+    // compile with a schema type-checks every rule against it, as CompiledExpression does.
+    public static RuleSet compile(Map<String, String> sources, Env env, Compiler.Backend backend, Schema schema) throws Exception {
+        Map<String, Expression> asts = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            asts.put(entry.getKey(), new Parser(new Lexer(entry.getValue())).parseExpression());
+        }
+        return fromExpressions(asts, env, backend, schema);
+    }
+
+    public static RuleSet fromExpressions(Map<String, Expression> asts, Env env, Compiler.Backend backend) throws Exception {
+        return fromExpressions(asts, env, backend, null);
+    }
+
+    public static RuleSet fromExpressions(Map<String, Expression> asts, Env env, Compiler.Backend backend, Schema schema) throws Exception {
+        List<Env> envs = new ArrayList<>();
+        List<Compiler.Backend> backends = new ArrayList<>();
+        List<Schema> schemas = new ArrayList<>();
+        for (int i = 0; i < asts.size(); i++) {
+            envs.add(env);
+            backends.add(backend);
+            schemas.add(schema);
+        }
+        return build(new ArrayList<>(asts.keySet()), new ArrayList<>(asts.values()), envs, backends, schemas);
+    }
+
+    // of recompiles already compiled rules together, keeping each rule's Env, backend and
+    // schema.
+    public static RuleSet of(Map<String, CompiledExpression> rules) throws Exception {
+        List<Expression> asts = new ArrayList<>();
+        List<Env> envs = new ArrayList<>();
+        List<Compiler.Backend> backends = new ArrayList<>();
+        List<Schema> schemas = new ArrayList<>();
+        for (CompiledExpression rule : rules.values()) {
+            // Drop the Shared nodes of any rule set the rule was compiled in before.
+            asts.add(Rewriter.rewrite(rule.getAst(), node -> node instanceof Shared ? ((Shared) node).getExpr() : node));
+            envs.add(rule.getEnv());
+            backends.add(rule.getBackend());
+            schemas.add(rule.getSchema());
+        }
+        return build(new ArrayList<>(rules.keySet()), asts, envs, backends, schemas);
+    }
+
+    // build compiles the rules inside a PathAccessor.Scope, so every rule, the index and
+    // the slots agree on one accessor per path, and the accessors go with the RuleSet.
+    @SuppressWarnings("try")
+    private static RuleSet build(List<String> names, List<Expression> asts, List<Env> envs, List<Compiler.Backend> backends, List<Schema> schemas) throws Exception {
+        try (PathAccessor.Scope scope = new PathAccessor.Scope()) {
+            List<Expression> prepared = new ArrayList<>();
+            for (int i = 0; i < asts.size(); i++) {
+                prepared.add(Optimizer.optimize(Compiler.bindFunctions(asts.get(i), envs.get(i)), envs.get(i)));
+            }
+            GuardIndex index = GuardIndex.build(prepared);
+            CommonSubexpressions cse = new CommonSubexpressions();
+            List<Expression> shared = cse.eliminate(prepared);
+            List<CompiledExpression> rules = new ArrayList<>();
+            for (int i = 0; i < shared.size(); i++) {
+                rules.add(CompiledExpression.fromExpression(shared.get(i), envs.get(i), backends.get(i), schemas.get(i)));
+            }
+            return new RuleSet(names, rules, cse.getSlotCount(), index);
+        }
+    }
+
+    // evaluate runs every rule against ctx and returns the results by rule name. Rules
+    // whose indexed guard does not hold are false without being run. The first rule
+    // that fails aborts the evaluation with its error.
+    public Map<String, Object> evaluate(Map<String, Object> ctx) throws Exception {
+        SharedContext shared = new SharedContext(ctx, slotOf, paths.size(), sharedCount);
+        int[] candidates = index.candidates(shared);
+        Map<String, Object> results = new LinkedHashMap<>();
+        int next = 0;
+        for (int i = 0; i < rules.size(); i++) {
+            if (next < candidates.length && candidates[next] == i) {
+                results.put(names.get(i), rules.get(i).evaluate(shared));
+                next++;
+            } else {
+                results.put(names.get(i), Boolean.FALSE);
+            }
+        }
+        return results;
+    }
+
+    public Map<String, Object> evaluate(Object ctx) throws Exception {
+        return evaluate(ContextAdapters.toContext(ctx));
+    }
+
+    // matches returns the names of the rules that are true for ctx, in rule order. Only
+    // the rules selected by the index are run, so rules guarded on a value ctx does not
+    // hold cost nothing.
+    public List<String> matches(Map<String, Object> ctx) throws Exception {
+        SharedContext shared = new SharedContext(ctx, slotOf, paths.size(), sharedCount);
+        List<String> result = new ArrayList<>();
+        for (int i : index.candidates(shared)) {
+            if (Boolean.TRUE.equals(rules.get(i).evaluate(shared))) {
+                result.add(names.get(i));
+            }
+        }
+        return result;
+    }
+
+    // matches with an object reads ctx in place through ContextAdapters.
+    public List<String> matches(Object ctx) throws Exception {
+        return matches(ContextAdapters.toContext(ctx));
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+
+    public CompiledExpression getRule(String name) {
+        int i = names.indexOf(name);
+        return i < 0 ? null : rules.get(i);
+    }
+
+    // getPaths returns the distinct context paths that have a slot, e.g. "$order.total".
+    public List<String> getPaths() {
+        List<String> result = new ArrayList<>();
+        for (PathAccessor path : paths) {
+            result.add(path.toString());
+        }
+        return result;
+    }
+
+    // getRequiredPaths returns the context paths any rule reads, or null when one of
+    // them reads the whole context (see CompiledExpression.getRequiredPaths).
+    public Set<String> getRequiredPaths() {
+        Set<String> result = new TreeSet<>();
+        for (CompiledExpression rule : rules) {
+            if (rule.getRequiredPaths() == null) {
+                return null;
+            }
+            result.addAll(rule.getRequiredPaths());
+        }
+        return result;
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    // getSharedCount returns how many distinct sub-expressions the rules share.
+    public int getSharedCount() {
+        return sharedCount;
+    }
+
+    // collectPaths adds the paths read by ast to paths. A chain like $a.b.c is parsed
+    // as nested nodes; only the outermost one is read at run time, so the inner
+    // prefixes ($a.b) are left out.
+    private static void collectPaths(Expression ast, Set<PathAccessor> paths) throws Exception {
+        List<Expression> nodes = new ArrayList<>();
+        List<PathAccessor> chains = new ArrayList<>();
+        Set<Expression> inner = Collections.newSetFromMap(new IdentityHashMap<>());
+        Rewriter.rewrite(ast, node -> {
+            if (node instanceof MemberAccess) {
+                MemberAccess m = (MemberAccess) node;
+                MemberAccess.MemberPart[] parts = ClosureCompiler.flattenChain(m);
+                PathAccessor path = ClosureCompiler.pathAccessor(ClosureCompiler.chainTarget(m, parts.length), parts);
+                if (path != null) {
+                    nodes.add(node);
+                    chains.add(path);
+                    inner.add(m.getTarget());
+                }
+            }
+            return node;
+        });
+        for (int i = 0; i < nodes.size(); i++) {
+            if (!inner.contains(nodes.get(i))) {
+                paths.add(chains.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+// SharedContext wraps the context of one RuleSet evaluation. Every path the rule set
+// reads, and every sub-expression its rules have in common, has a slot; the first rule
+// to need a value computes it and the other rules get it from the slot. It behaves as
+// the wrapped map for everything else, and compiled code unwraps it wherever the
+// context itself becomes a value.
+public final class SharedContext extends AbstractMap<String, Object> {
+    public static final Object UNRESOLVED = new Object();
+
+    private final Map<String, Object> ctx;
+    private final int[] slotOf;
+    private final Object[] slots;
+    private final Object[] shared;
+
+    // slotOf maps the PathAccessor ids of the rule set's scope to slot numbers (-1 for
+    // paths without a slot).
+    SharedContext(Map<String, Object> ctx, int[] slotOf, int slotCount, int sharedCount) {
+        this.ctx = ctx;
+        this.slotOf = slotOf;
+        this.slots = new Object[slotCount];
+        this.shared = new Object[sharedCount];
+        Arrays.fill(slots, UNRESOLVED);
+        Arrays.fill(shared, UNRESOLVED);
+    }
+
+    public static Map<String, Object> unwrap(Map<String, Object> ctx) {
+        return ctx instanceof SharedContext ? ((SharedContext) ctx).ctx : ctx;
+    }
+
+    public Object read(PathAccessor path) {
+        int id = path.getId();
+        int slot = id >= 0 && id < slotOf.length ? slotOf[id] : -1;
+        if (slot < 0) {
+            return path.get(ctx);
+        }
+        Object val = slots[slot];
+        if (val == UNRESOLVED) {
+            val = path.get(ctx);
+            slots[slot] = val;
+        }
+        return val;
+    }
+
+    // getShared returns the value of a Shared sub-expression, or UNRESOLVED when no rule
+    // has computed it yet. Failed evaluations are not stored, so every rule raises its
+    // own error.
+    public Object getShared(int slot) {
+        return shared[slot];
+    }
+
+    public void setShared(int slot, Object val) {
+        shared[slot] = val;
+    }
+
+    @Override
+    public Object get(Object key) {
+        return ctx.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return ctx.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return ctx.size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return ctx.entrySet();
+    }
+}
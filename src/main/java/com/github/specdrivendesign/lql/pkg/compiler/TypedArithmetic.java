@@ -0,0 +1,328 @@
+package com.github.specdrivendesign.lql.pkg.compiler;
+
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Binary;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Literal;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Unary;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.tokens.Tokens;
+import com.github.specdrivendesign.lql.pkg.typechecker.TypeChecker.Typing;
+import com.github.specdrivendesign.lql.pkg.types.Types;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// TypedArithmetic compiles a tree of arithmetic operators ('+', '-', '*', '/' and
+// unary minus) whose numeric type is known at compile time into closures over
+// primitive longs or doubles, so intermediate results are never boxed; only the value
+// of the whole tree is. The type comes from the numeric literals in the tree and from
+// the operand types TypeChecker inferred, e.g. from a context schema: all of them must
+// be integers, or all floats, since mixing them is an error anyway. The operands that
+// are not literals (context values, function calls and so on) are compiled once and
+// checked as they are read, even when the schema declares their type. An operand of
+// any other type, or a division by zero, abandons the primitive evaluation, and the
+// tree is evaluated again with the ordinary boxed operators, which produce the same
+// result or error as the interpreter. That evaluation reuses the operand values
+// already read, so no operand is evaluated twice.
+final class TypedArithmetic {
+    private static final int UNKNOWN = 0;
+    private static final int INT = 1;
+    private static final int FLOAT = 2;
+    private static final int NONE = 3;
+
+    // Trees with a single operator have no intermediate result to keep unboxed.
+    private static final int MIN_OPERATORS = 2;
+
+    private static final Deopt DEOPT = new Deopt();
+
+    private TypedArithmetic() {
+    }
+
+    private interface LongClosure {
+        long eval(Map<String, Object> ctx, Operands operands) throws Exception;
+    }
+
+    private interface DoubleClosure {
+        double eval(Map<String, Object> ctx, Operands operands) throws Exception;
+    }
+
+    private interface BoxedClosure {
+        Object eval(Map<String, Object> ctx, Operands operands) throws Exception;
+    }
+
+    // Deopt is thrown by a primitive closure that meets a value it cannot handle. It
+    // carries no stack trace, so throwing it is cheap.
+    private static final class Deopt extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Deopt() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Operands records, for one evaluation, the values of the non-literal operands the
+    // primitive closures have read so far. Operands are numbered in evaluation order,
+    // left to right, which both evaluations follow, so the read ones are a prefix.
+    private static final class Operands {
+        private final Object[] values;
+        private int read;
+
+        Operands(int count) {
+            values = new Object[count];
+        }
+
+        // first evaluates operand, the index-th, and records its value.
+        Object first(int index, Closure operand, Map<String, Object> ctx) throws Exception {
+            Object val = operand.eval(ctx);
+            values[index] = val;
+            read = index + 1;
+            return val;
+        }
+
+        // again returns the value recorded for the index-th operand, evaluating it only
+        // when the primitive evaluation did not get that far.
+        Object again(int index, Closure operand, Map<String, Object> ctx) throws Exception {
+            return index < read ? values[index] : operand.eval(ctx);
+        }
+    }
+
+    // applies reports whether expr is the root of a tree compile handles.
+    static boolean applies(Expression expr, Typing typing) {
+        if (!isArithmetic(expr)) {
+            return false;
+        }
+        int kind = kind(expr, typing);
+        return (kind == INT || kind == FLOAT) && operators(expr) >= MIN_OPERATORS;
+    }
+
+    // compile returns the closure for the tree rooted at expr, or null when applies
+    // does not hold.
+    static Closure compile(Expression expr, Env env, Typing typing) throws Exception {
+        if (!applies(expr, typing)) {
+            return null;
+        }
+        List<Closure> compiled = new ArrayList<>();
+        compileOperands(expr, env, typing, compiled);
+        Closure[] operands = compiled.toArray(new Closure[0]);
+        int count = operands.length;
+        BoxedClosure boxed = compileBoxed(expr, operands, new int[1]);
+        if (kind(expr, typing) == INT) {
+            LongClosure typed = compileLong(expr, operands, new int[1]);
+            return ctx -> {
+                Operands read = new Operands(count);
+                try {
+                    return typed.eval(ctx, read);
+                } catch (Deopt d) {
+                    return boxed.eval(ctx, read);
+                }
+            };
+        }
+        DoubleClosure typed = compileDouble(expr, operands, new int[1]);
+        return ctx -> {
+            Operands read = new Operands(count);
+            try {
+                return typed.eval(ctx, read);
+            } catch (Deopt d) {
+                return boxed.eval(ctx, read);
+            }
+        };
+    }
+
+    private static boolean isArithmetic(Expression expr) {
+        if (expr instanceof Unary) {
+            return ((Unary) expr).getOperator() == Tokens.TokenMinus;
+        }
+        if (expr instanceof Binary) {
+            switch (((Binary) expr).getOperator()) {
+                case Tokens.TokenPlus:
+                case Tokens.TokenMinus:
+                case Tokens.TokenMultiply:
+                case Tokens.TokenDivide:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    private static int kind(Expression expr, Typing typing) {
+        if (expr instanceof Literal) {
+            Object value = ((Literal) expr).getValue();
+            if (Types.isInt(value)) {
+                return INT;
+            }
+            return value instanceof Double ? FLOAT : NONE;
+        }
+        if (!isArithmetic(expr)) {
+            switch (typing.typeOf(expr)) {
+                case ANY:
+                    return UNKNOWN;
+                case INT:
+                    return INT;
+                case FLOAT:
+                    return FLOAT;
+                default:
+                    return NONE;
+            }
+        }
+        if (expr instanceof Unary) {
+            return kind(((Unary) expr).getExpr(), typing);
+        }
+        int left = kind(((Binary) expr).getLeft(), typing);
+        int right = kind(((Binary) expr).getRight(), typing);
+        if (left == UNKNOWN || left == right) {
+            return right;
+        }
+        return right == UNKNOWN ? left : NONE;
+    }
+
+    private static int operators(Expression expr) {
+        if (!isArithmetic(expr)) {
+            return 0;
+        }
+        if (expr instanceof Unary) {
+            return 1 + operators(((Unary) expr).getExpr());
+        }
+        return 1 + operators(((Binary) expr).getLeft()) + operators(((Binary) expr).getRight());
+    }
+
+    // compileOperands compiles the operands that are neither arithmetic nor literals,
+    // in evaluation order; the closures below take them by that index, counted in next.
+    private static void compileOperands(Expression expr, Env env, Typing typing, List<Closure> operands) throws Exception {
+        if (expr instanceof Literal) {
+            return;
+        }
+        if (!isArithmetic(expr)) {
+            operands.add(ClosureCompiler.compile(expr, env, typing));
+        } else if (expr instanceof Unary) {
+            compileOperands(((Unary) expr).getExpr(), env, typing, operands);
+        } else {
+            compileOperands(((Binary) expr).getLeft(), env, typing, operands);
+            compileOperands(((Binary) expr).getRight(), env, typing, operands);
+        }
+    }
+
+    // compileBoxed compiles the tree with the ordinary boxed operators.
+    private static BoxedClosure compileBoxed(Expression expr, Closure[] operands, int[] next) {
+        if (expr instanceof Literal) {
+            Object value = ((Literal) expr).getValue();
+            return (ctx, read) -> value;
+        }
+        if (!isArithmetic(expr)) {
+            int index = next[0]++;
+            Closure operand = operands[index];
+            return (ctx, read) -> read.again(index, operand, ctx);
+        }
+        if (expr instanceof Unary) {
+            Unary u = (Unary) expr;
+            BoxedClosure operand = compileBoxed(u.getExpr(), operands, next);
+            int line = u.getLine();
+            int column = u.getColumn();
+            return (ctx, read) -> Operators.negate(operand.eval(ctx, read), line, column);
+        }
+        Binary b = (Binary) expr;
+        BoxedClosure left = compileBoxed(b.getLeft(), operands, next);
+        BoxedClosure right = compileBoxed(b.getRight(), operands, next);
+        int line = b.getLine();
+        int column = b.getColumn();
+        switch (b.getOperator()) {
+            case Tokens.TokenPlus:
+                return (ctx, read) -> Operators.add(left.eval(ctx, read), right.eval(ctx, read), line, column);
+            case Tokens.TokenMinus:
+                return (ctx, read) -> Operators.subtract(left.eval(ctx, read), right.eval(ctx, read), line, column);
+            case Tokens.TokenMultiply:
+                return (ctx, read) -> Operators.multiply(left.eval(ctx, read), right.eval(ctx, read), line, column);
+            default:
+                return (ctx, read) -> Operators.divide(left.eval(ctx, read), right.eval(ctx, read), line, column);
+        }
+    }
+
+    private static LongClosure compileLong(Expression expr, Closure[] operands, int[] next) {
+        if (expr instanceof Literal) {
+            long value = Types.toInt(((Literal) expr).getValue());
+            return (ctx, read) -> value;
+        }
+        if (!isArithmetic(expr)) {
+            int index = next[0]++;
+            Closure operand = operands[index];
+            return (ctx, read) -> {
+                Object val = read.first(index, operand, ctx);
+                if (val instanceof Long) {
+                    return (Long) val;
+                }
+                if (val instanceof Integer) {
+                    return (Integer) val;
+                }
+                throw DEOPT;
+            };
+        }
+        if (expr instanceof Unary) {
+            LongClosure operand = compileLong(((Unary) expr).getExpr(), operands, next);
+            return (ctx, read) -> Types.negateInt(operand.eval(ctx, read));
+        }
+        Binary b = (Binary) expr;
+        LongClosure left = compileLong(b.getLeft(), operands, next);
+        LongClosure right = compileLong(b.getRight(), operands, next);
+        switch (b.getOperator()) {
+            case Tokens.TokenPlus:
+                return (ctx, read) -> Types.addInt(left.eval(ctx, read), right.eval(ctx, read));
+            case Tokens.TokenMinus:
+                return (ctx, read) -> Types.subtractInt(left.eval(ctx, read), right.eval(ctx, read));
+            case Tokens.TokenMultiply:
+                return (ctx, read) -> Types.multiplyInt(left.eval(ctx, read), right.eval(ctx, read));
+            default:
+                return (ctx, read) -> {
+                    long dividend = left.eval(ctx, read);
+                    long divisor = right.eval(ctx, read);
+                    if (divisor == 0) {
+                        throw DEOPT;
+                    }
+                    return Types.divideInt(dividend, divisor);
+                };
+        }
+    }
+
+    private static DoubleClosure compileDouble(Expression expr, Closure[] operands, int[] next) {
+        if (expr instanceof Literal) {
+            double value = (Double) ((Literal) expr).getValue();
+            return (ctx, read) -> value;
+        }
+        if (!isArithmetic(expr)) {
+            int index = next[0]++;
+            Closure operand = operands[index];
+            return (ctx, read) -> {
+                Object val = read.first(index, operand, ctx);
+                if (val instanceof Double) {
+                    return (Double) val;
+                }
+                throw DEOPT;
+            };
+        }
+        if (expr instanceof Unary) {
+            DoubleClosure operand = compileDouble(((Unary) expr).getExpr(), operands, next);
+            return (ctx, read) -> -operand.eval(ctx, read);
+        }
+        Binary b = (Binary) expr;
+        DoubleClosure left = compileDouble(b.getLeft(), operands, next);
+        DoubleClosure right = compileDouble(b.getRight(), operands, next);
+        switch (b.getOperator()) {
+            case Tokens.TokenPlus:
+                return (ctx, read) -> left.eval(ctx, read) + right.eval(ctx, read);
+            case Tokens.TokenMinus:
+                return (ctx, read) -> left.eval(ctx, read) - right.eval(ctx, read);
+            case Tokens.TokenMultiply:
+                return (ctx, read) -> left.eval(ctx, read) * right.eval(ctx, read);
+            default:
+                return (ctx, read) -> {
+                    double dividend = left.eval(ctx, read);
+                    double divisor = right.eval(ctx, read);
+                    if (divisor == 0) {
+                        throw DEOPT;
+                    }
+                    return dividend / divisor;
+                };
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.specdrivendesign.lql.pkg.env;
+
+import com.github.specdrivendesign.lql.pkg.param.Param;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+// CallSite is one compiled call of a library function: the resolved function and the
+// source positions of the call and of each argument, all fixed at compile time. The
+// argument list handed to the function is a frame of reused Params; a call only stores
+// the argument positions and values in it, so calling allocates nothing. Frames are
+// pooled per thread, not per call site: a thread's calls take them as a stack, so a
+// function that calls back into an expression gets the next frame, and a thread holds
+// no more frames than its deepest nesting of calls, however many call sites it runs.
+// The values are cleared when the call returns, or throws, so a frame holds on to
+// nothing between calls.
+public final class CallSite {
+    private final IFunction function;
+    private final int line;
+    private final int column;
+    private final int parenLine;
+    private final int parenColumn;
+    private final int[] argLines;
+    private final int[] argColumns;
+
+    private static final ThreadLocal<FramePool> pools = ThreadLocal.withInitial(FramePool::new);
+
+    public CallSite(IFunction function, int line, int column, int parenLine, int parenColumn, int[] argLines, int[] argColumns) {
+        this.function = function;
+        this.line = line;
+        this.column = column;
+        this.parenLine = parenLine;
+        this.parenColumn = parenColumn;
+        this.argLines = argLines.clone();
+        this.argColumns = argColumns.clone();
+    }
+
+    public int getArgCount() {
+        return argLines.length;
+    }
+
+    public Object call() throws Exception {
+        Frame frame = acquire();
+        try {
+            return function.call(frame, line, column, parenLine, parenColumn);
+        } finally {
+            release(frame);
+        }
+    }
+
+    public Object call(Object a0) throws Exception {
+        Frame frame = acquire();
+        try {
+            frame.params[0].setValue(a0);
+            return function.call(frame, line, column, parenLine, parenColumn);
+        } finally {
+            release(frame);
+        }
+    }
+
+    public Object call(Object a0, Object a1) throws Exception {
+        Frame frame = acquire();
+        try {
+            frame.params[0].setValue(a0);
+            frame.params[1].setValue(a1);
+            return function.call(frame, line, column, parenLine, parenColumn);
+        } finally {
+            release(frame);
+        }
+    }
+
+    public Object call(Object a0, Object a1, Object a2) throws Exception {
+        Frame frame = acquire();
+        try {
+            frame.params[0].setValue(a0);
+            frame.params[1].setValue(a1);
+            frame.params[2].setValue(a2);
+            return function.call(frame, line, column, parenLine, parenColumn);
+        } finally {
+            release(frame);
+        }
+    }
+
+    // call with an array serves calls with more arguments than the fixed overloads.
+    public Object call(Object[] values) throws Exception {
+        Frame frame = acquire();
+        try {
+            for (int i = 0; i < values.length; i++) {
+                frame.params[i].setValue(values[i]);
+            }
+            return function.call(frame, line, column, parenLine, parenColumn);
+        } finally {
+            release(frame);
+        }
+    }
+
+    // acquire returns the next free frame of this thread, holding this site's argument
+    // positions. Calls nest, so frames are released in the reverse order.
+    private Frame acquire() {
+        Frame frame = pools.get().push();
+        frame.bind(argLines, argColumns);
+        return frame;
+    }
+
+    private static void release(Frame frame) {
+        frame.reset();
+        frame.pool.depth--;
+    }
+
+    private static final class FramePool {
+        private Frame[] frames = new Frame[4];
+        private int depth;
+
+        Frame push() {
+            if (depth == frames.length) {
+                frames = Arrays.copyOf(frames, depth * 2);
+            }
+            Frame frame = frames[depth];
+            if (frame == null) {
+                frame = new Frame(this);
+                frames[depth] = frame;
+            }
+            depth++;
+            return frame;
+        }
+    }
+
+    private static final class Frame extends AbstractList<Param> implements RandomAccess {
+        private final FramePool pool;
+        private Param[] params = new Param[0];
+        private int size;
+
+        Frame(FramePool pool) {
+            this.pool = pool;
+        }
+
+        void bind(int[] lines, int[] columns) {
+            if (params.length < lines.length) {
+                int grown = params.length;
+                params = Arrays.copyOf(params, lines.length);
+                for (int i = grown; i < params.length; i++) {
+                    params[i] = new Param(null, 0, 0);
+                }
+            }
+            size = lines.length;
+            for (int i = 0; i < size; i++) {
+                params[i].setLine(lines[i]);
+                params[i].setColumn(columns[i]);
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < size; i++) {
+                params[i].setValue(null);
+            }
+        }
+
+        @Override
+        public Param get(int index) {
+            return params[Objects.checkIndex(index, size)];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -11,25 +11,49 @@ import com.github.specdrivendesign.lql.pkg.env.libraries.TypeLib;
 import java.util.HashMap;
 import java.util.Map;
 
-public class Env {
-    private Map<String, ILibrary> libraries;
+// Env is immutable: its library table is fixed when it is built and the libraries
+// keep no state between calls, so one Env may be shared by any number of threads
+// without synchronization. newEnvironment returns the same standard Env every time;
+// with, or the Map constructor, builds an Env with other or additional libraries.
+public final class Env {
+    private static final Map<String, ILibrary> STANDARD_LIBRARIES = standardLibraries();
+    private static final Env STANDARD = new Env();
+
+    private final Map<String, ILibrary> libraries;
 
     public Env() {
-        libraries = new HashMap<>();
-        libraries.put("time", new TimeLib());
-        libraries.put("math", new Math());
-        libraries.put("string", new StringLib());
-        libraries.put("regex", new Regex());
-        libraries.put("array", new Array());
-        libraries.put("cond", new Cond());
-        libraries.put("type", new TypeLib());
+        libraries = STANDARD_LIBRARIES;
+    }
+
+    public Env(Map<String, ILibrary> libraries) {
+        this.libraries = Map.copyOf(libraries);
     }
 
     public static Env newEnvironment() {
-        return new Env();
+        return STANDARD;
+    }
+
+    // with returns a copy of this Env in which name refers to library, replacing any
+    // library already under that name.
+    public Env with(String name, ILibrary library) {
+        Map<String, ILibrary> copy = new HashMap<>(libraries);
+        copy.put(name, library);
+        return new Env(copy);
     }
 
     public ILibrary getLibrary(String name) {
         return libraries.get(name);
     }
+
+    private static Map<String, ILibrary> standardLibraries() {
+        Map<String, ILibrary> libraries = new HashMap<>();
+        libraries.put("time", new TimeLib());
+        libraries.put("math", new Math());
+        libraries.put("string", new StringLib());
+        libraries.put("regex", new Regex());
+        libraries.put("array", new Array());
+        libraries.put("cond", new Cond());
+        libraries.put("type", new TypeLib());
+        return Map.copyOf(libraries);
+    }
 }
@@ -0,0 +1,14 @@
+package com.github.specdrivendesign.lql.pkg.env;
+
+import com.github.specdrivendesign.lql.pkg.param.Param;
+
+import java.util.List;
+
+// IFunction is one library function, resolved by name once (see ILibrary.resolve) and
+// then called directly, without going through the library's name dispatch. args is
+// only valid for the duration of the call (see CallSite): implementations read the
+// values and positions they need and keep neither the list nor its Params.
+@FunctionalInterface
+public interface IFunction {
+    Object call(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception;
+}
@@ -4,7 +4,23 @@ package com.github.specdrivendesign.lql.pkg.env;
 import com.github.specdrivendesign.lql.pkg.param.Param;
 import java.util.List;
 
+// Libraries are shared by every thread that evaluates with their Env, so call must be
+// safe to run concurrently; the standard libraries keep no mutable state.
 public interface ILibrary {
     Object call(String functionName, List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception;
+
+    // isPure reports whether functionName always returns the same result for the same
+    // arguments and has no side effects. The optimizer only folds calls to pure
+    // functions, so libraries that do not override this are never folded.
+    default boolean isPure(String functionName) {
+        return false;
+    }
+
+    // resolve returns a handle on functionName, or null when the library has no such
+    // function. Compilers resolve every call site once and invoke the handle. The
+    // default handle goes through call, for libraries that implement nothing else.
+    default IFunction resolve(String functionName) {
+        return (args, line, col, parenLine, parenCol) -> call(functionName, args, line, col, parenLine, parenCol);
+    }
 }
  // --------- FILE END: "ILibrary.java" ----------
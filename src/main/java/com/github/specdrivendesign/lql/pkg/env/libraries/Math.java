@@ -1,394 +1,429 @@
 // --------- FILE START: "Math.java" (converted from pkg/env/libraries/math.go) ----------
 package com.github.specdrivendesign.lql.pkg.env.libraries;
 
+import com.github.specdrivendesign.lql.pkg.env.IFunction;
 import com.github.specdrivendesign.lql.pkg.env.ILibrary;
 import com.github.specdrivendesign.lql.pkg.errors.Errors;
 import com.github.specdrivendesign.lql.pkg.param.Param;
 import com.github.specdrivendesign.lql.pkg.types.Types;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Math implements ILibrary {
 
+    private final Map<String, IFunction> functions = new HashMap<>();
+
     public Math() {
+        functions.put("abs", this::abs);
+        functions.put("sqrt", this::sqrt);
+        functions.put("floor", this::floor);
+        functions.put("round", this::round);
+        functions.put("ceil", this::ceil);
+        functions.put("pow", this::pow);
+        functions.put("sum", this::sum);
+        functions.put("min", this::min);
+        functions.put("max", this::max);
+        functions.put("avg", this::avg);
+    }
+
+    @Override
+    public boolean isPure(String functionName) {
+        return true;
     }
 
     @Override
     public Object call(String functionName, List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
-        switch (functionName) {
-            case "abs": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("math.abs requires 1 argument", line, col);
-                }
-                Param arg0 = args.get(0);
-                Double num = Types.toFloat(arg0.getValue());
-                if (num == null) {
-                    throw Errors.newTypeError("math.abs: argument must be numeric", arg0.getLine(), arg0.getColumn());
-                }
-                double absVal = num < 0 ? -num : num;
-                if (Types.isInt(arg0.getValue())) {
-                    return (long) absVal;
-                }
-                return absVal;
-            }
-            case "sqrt": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("math.sqrt requires 1 argument", line, col);
-                }
-                Param arg0 = args.get(0);
-                Double num = Types.toFloat(arg0.getValue());
-                if (num == null) {
-                    throw Errors.newTypeError("math.sqrt: argument must be numeric", arg0.getLine(), arg0.getColumn());
-                }
-                if (num < 0) {
-                    throw Errors.newFunctionCallError("math.sqrt: argument must be non‑negative", arg0.getLine(), arg0.getColumn());
-                }
-                return java.lang.Math.sqrt(num);
-            }
-            case "floor": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("math.floor requires 1 argument", line, col);
-                }
-                Param arg0 = args.get(0);
-                Double num = Types.toFloat(arg0.getValue());
-                if (num == null) {
-                    throw Errors.newTypeError("math.floor: argument must be numeric", arg0.getLine(), arg0.getColumn());
-                }
-                return java.lang.Math.floor(num);
-            }
-            case "round": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("math.round requires 1 argument", line, col);
-                }
-                Param arg0 = args.get(0);
-                Double num = Types.toFloat(arg0.getValue());
-                if (num == null) {
-                    throw Errors.newTypeError("math.round: argument must be numeric", arg0.getLine(), arg0.getColumn());
-                }
-                if (num < 0) {
-                    return -java.lang.Math.round(-num);
-                }
-                return java.lang.Math.round(num);
-            }
+        IFunction function = functions.get(functionName);
+        if (function == null) {
+            throw Errors.newFunctionCallError("unknown math function '" + functionName + "'", 0, 0);
+        }
+        return function.call(args, line, col, parenLine, parenCol);
+    }
 
-            case "ceil": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("math.ceil requires 1 argument", line, col);
-                }
-                Param arg0 = args.get(0);
-                Double num = Types.toFloat(arg0.getValue());
-                if (num == null) {
-                    throw Errors.newTypeError("math.ceil: argument must be numeric", arg0.getLine(), arg0.getColumn());
-                }
-                return java.lang.Math.ceil(num);
-            }
-            case "pow": {
-                if (args.size() != 2) {
-                    throw Errors.newParameterError("math.pow requires 2 arguments", line, col);
-                }
-                Param arg0 = args.get(0);
-                Double base = Types.toFloat(arg0.getValue());
-                if (base == null) {
-                    throw Errors.newTypeError("math.pow: first argument must be numeric", arg0.getLine(), arg0.getColumn());
-                }
-                Param arg1 = args.get(1);
-                Double exp = Types.toFloat(arg1.getValue());
-                if (exp == null) {
-                    throw Errors.newTypeError("math.pow: second argument must be numeric", arg1.getLine(), arg1.getColumn());
-                }
-                return java.lang.Math.pow(base, exp);
+    @Override
+    public IFunction resolve(String functionName) {
+        return functions.get(functionName);
+    }
+
+    private Object abs(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("math.abs requires 1 argument", line, col);
+        }
+        Param arg0 = args.get(0);
+        Double num = Types.toFloat(arg0.getValue());
+        if (num == null) {
+            throw Errors.newTypeError("math.abs: argument must be numeric", arg0.getLine(), arg0.getColumn());
+        }
+        double absVal = num < 0 ? -num : num;
+        if (Types.isInt(arg0.getValue())) {
+            return (long) absVal;
+        }
+        return absVal;
+    }
+
+    private Object sqrt(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("math.sqrt requires 1 argument", line, col);
+        }
+        Param arg0 = args.get(0);
+        Double num = Types.toFloat(arg0.getValue());
+        if (num == null) {
+            throw Errors.newTypeError("math.sqrt: argument must be numeric", arg0.getLine(), arg0.getColumn());
+        }
+        if (num < 0) {
+            throw Errors.newFunctionCallError("math.sqrt: argument must be non‑negative", arg0.getLine(), arg0.getColumn());
+        }
+        return java.lang.Math.sqrt(num);
+    }
+
+    private Object floor(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("math.floor requires 1 argument", line, col);
+        }
+        Param arg0 = args.get(0);
+        Double num = Types.toFloat(arg0.getValue());
+        if (num == null) {
+            throw Errors.newTypeError("math.floor: argument must be numeric", arg0.getLine(), arg0.getColumn());
+        }
+        return java.lang.Math.floor(num);
+    }
+
+    private Object round(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("math.round requires 1 argument", line, col);
+        }
+        Param arg0 = args.get(0);
+        Double num = Types.toFloat(arg0.getValue());
+        if (num == null) {
+            throw Errors.newTypeError("math.round: argument must be numeric", arg0.getLine(), arg0.getColumn());
+        }
+        if (num < 0) {
+            return -java.lang.Math.round(-num);
+        }
+        return java.lang.Math.round(num);
+    }
+
+    private Object ceil(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("math.ceil requires 1 argument", line, col);
+        }
+        Param arg0 = args.get(0);
+        Double num = Types.toFloat(arg0.getValue());
+        if (num == null) {
+            throw Errors.newTypeError("math.ceil: argument must be numeric", arg0.getLine(), arg0.getColumn());
+        }
+        return java.lang.Math.ceil(num);
+    }
+
+    private Object pow(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 2) {
+            throw Errors.newParameterError("math.pow requires 2 arguments", line, col);
+        }
+        Param arg0 = args.get(0);
+        Double base = Types.toFloat(arg0.getValue());
+        if (base == null) {
+            throw Errors.newTypeError("math.pow: first argument must be numeric", arg0.getLine(), arg0.getColumn());
+        }
+        Param arg1 = args.get(1);
+        Double exp = Types.toFloat(arg1.getValue());
+        if (exp == null) {
+            throw Errors.newTypeError("math.pow: second argument must be numeric", arg1.getLine(), arg1.getColumn());
+        }
+        return java.lang.Math.pow(base, exp);
+    }
+
+    private Object sum(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() < 1 || args.size() > 3) {
+            throw Errors.newParameterError("math.sum requires 1 to 3 arguments", parenLine, parenCol);
+        }
+        Param arg0 = args.get(0);
+        List<Object> arr = Types.convertToInterfaceList(arg0.getValue());
+        if (arr == null) {
+            throw Errors.newTypeError("math.sum: first argument must be an array", arg0.getLine(), arg0.getColumn());
+        }
+        String subfield = "";
+        Object defaultVal = null;
+        if (args.size() >= 2) {
+            Param arg1 = args.get(1);
+            Object sf = arg1.getValue();
+            if (!(sf instanceof String)) {
+                throw Errors.newTypeError("math.sum: second argument must be string", arg1.getLine(), arg1.getColumn());
             }
-            case "sum": {
-                if (args.size() < 1 || args.size() > 3) {
-                    throw Errors.newParameterError("math.sum requires 1 to 3 arguments", parenLine, parenCol);
-                }
-                Param arg0 = args.get(0);
-                List<Object> arr = Types.convertToInterfaceList(arg0.getValue());
-                if (arr == null) {
-                    throw Errors.newTypeError("math.sum: first argument must be an array", arg0.getLine(), arg0.getColumn());
-                }
-                String subfield = "";
-                Object defaultVal = null;
-                if (args.size() >= 2) {
-                    Param arg1 = args.get(1);
-                    Object sf = arg1.getValue();
-                    if (!(sf instanceof String)) {
-                        throw Errors.newTypeError("math.sum: second argument must be string", arg1.getLine(), arg1.getColumn());
-                    }
-                    subfield = (String) sf;
-                }
-                if (args.size() == 3) {
-                    defaultVal = args.get(2).getValue();
-                }
-                double sum = 0.0;
-                Boolean firstIsInt = null;
-                for (Object elem : arr) {
-                    Object numObj;
-                    if (!subfield.isEmpty()) {
-                        var obj = Types.convertToStringMap(elem);
-                        if (obj == null) {
-                            if (defaultVal != null) {
-                                numObj = defaultVal;
-                            } else {
-                                throw Errors.newFunctionCallError("math.sum: element is not an object and subfield specified", arg0.getLine(), arg0.getColumn());
-                            }
-                        } else {
-                            if (obj.containsKey(subfield)) {
-                                numObj = obj.get(subfield);
-                            } else {
-                                if (defaultVal != null) {
-                                    numObj = defaultVal;
-                                } else {
-                                    throw Errors.newFunctionCallError("math.sum: field '" + subfield + "' missing in element", arg0.getLine(), arg0.getColumn());
-                                }
-                            }
-                        }
+            subfield = (String) sf;
+        }
+        if (args.size() == 3) {
+            defaultVal = args.get(2).getValue();
+        }
+        double sum = 0.0;
+        Boolean firstIsInt = null;
+        for (Object elem : arr) {
+            Object numObj;
+            if (!subfield.isEmpty()) {
+                var obj = Types.convertToStringMap(elem);
+                if (obj == null) {
+                    if (defaultVal != null) {
+                        numObj = defaultVal;
                     } else {
-                        numObj = elem;
+                        throw Errors.newFunctionCallError("math.sum: element is not an object and subfield specified", arg0.getLine(), arg0.getColumn());
                     }
-                    Double nf = Types.toFloat(numObj);
-                    if (nf == null) {
-                        throw Errors.newTypeError("math.sum: element is not numeric", arg0.getLine(), arg0.getColumn());
-                    }
-                    if (firstIsInt == null) {
-                        firstIsInt = Types.isInt(numObj);
+                } else {
+                    if (obj.containsKey(subfield)) {
+                        numObj = obj.get(subfield);
                     } else {
-                        if (Types.isInt(numObj) != firstIsInt) {
-                            throw Errors.newSemanticError("Mixed numeric types require explicit conversion", arg0.getLine(), arg0.getColumn());
+                        if (defaultVal != null) {
+                            numObj = defaultVal;
+                        } else {
+                            throw Errors.newFunctionCallError("math.sum: field '" + subfield + "' missing in element", arg0.getLine(), arg0.getColumn());
                         }
                     }
-                    sum += nf;
-                }
-                if (firstIsInt != null && firstIsInt) {
-                    return (long) sum;
                 }
-                return sum;
+            } else {
+                numObj = elem;
             }
-            case "min": {
-                if (args.size() < 1 || args.size() > 3) {
-                    throw Errors.newParameterError("math.min requires 1 to 3 arguments", parenLine, parenCol);
-                }
-                Param arg0 = args.get(0);
-                List<Object> arr = Types.convertToInterfaceList(arg0.getValue());
-                if (arr == null) {
-                    throw Errors.newTypeError("math.min: first argument must be an array", arg0.getLine(), arg0.getColumn());
-                }
-                String subfield = "";
-                Object defaultVal = null;
-                if (args.size() >= 2) {
-                    Param arg1 = args.get(1);
-                    Object sf = arg1.getValue();
-                    if (!(sf instanceof String)) {
-                        throw Errors.newTypeError("math.min: second argument must be string", arg1.getLine(), arg1.getColumn());
-                    }
-                    subfield = (String) sf;
-                }
-                if (args.size() == 3) {
-                    defaultVal = args.get(2).getValue();
+            Double nf = Types.toFloat(numObj);
+            if (nf == null) {
+                throw Errors.newTypeError("math.sum: element is not numeric", arg0.getLine(), arg0.getColumn());
+            }
+            if (firstIsInt == null) {
+                firstIsInt = Types.isInt(numObj);
+            } else {
+                if (Types.isInt(numObj) != firstIsInt) {
+                    throw Errors.newSemanticError("Mixed numeric types require explicit conversion", arg0.getLine(), arg0.getColumn());
                 }
-                if (arr.isEmpty()) {
+            }
+            sum += nf;
+        }
+        if (firstIsInt != null && firstIsInt) {
+            return (long) sum;
+        }
+        return sum;
+    }
+
+    private Object min(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() < 1 || args.size() > 3) {
+            throw Errors.newParameterError("math.min requires 1 to 3 arguments", parenLine, parenCol);
+        }
+        Param arg0 = args.get(0);
+        List<Object> arr = Types.convertToInterfaceList(arg0.getValue());
+        if (arr == null) {
+            throw Errors.newTypeError("math.min: first argument must be an array", arg0.getLine(), arg0.getColumn());
+        }
+        String subfield = "";
+        Object defaultVal = null;
+        if (args.size() >= 2) {
+            Param arg1 = args.get(1);
+            Object sf = arg1.getValue();
+            if (!(sf instanceof String)) {
+                throw Errors.newTypeError("math.min: second argument must be string", arg1.getLine(), arg1.getColumn());
+            }
+            subfield = (String) sf;
+        }
+        if (args.size() == 3) {
+            defaultVal = args.get(2).getValue();
+        }
+        if (arr.isEmpty()) {
+            if (defaultVal != null) {
+                return defaultVal;
+            }
+            throw Errors.newFunctionCallError("math.min: array is empty", arg0.getLine(), arg0.getColumn());
+        }
+        Double m = null;
+        Boolean firstIsInt = null;
+        boolean first = true;
+        for (Object elem : arr) {
+            Object numObj;
+            if (!subfield.isEmpty()) {
+                var obj = Types.convertToStringMap(elem);
+                if (obj == null) {
                     if (defaultVal != null) {
-                        return defaultVal;
-                    }
-                    throw Errors.newFunctionCallError("math.min: array is empty", arg0.getLine(), arg0.getColumn());
-                }
-                Double m = null;
-                Boolean firstIsInt = null;
-                boolean first = true;
-                for (Object elem : arr) {
-                    Object numObj;
-                    if (!subfield.isEmpty()) {
-                        var obj = Types.convertToStringMap(elem);
-                        if (obj == null) {
-                            if (defaultVal != null) {
-                                numObj = defaultVal;
-                            } else {
-                                throw Errors.newFunctionCallError("math.min: element is not an object and subfield specified", arg0.getLine(), arg0.getColumn());
-                            }
-                        } else {
-                            if (obj.containsKey(subfield)) {
-                                numObj = obj.get(subfield);
-                            } else {
-                                if (defaultVal != null) {
-                                    numObj = defaultVal;
-                                } else {
-                                    throw Errors.newFunctionCallError("math.min: field '" + subfield + "' missing in element", arg0.getLine(), arg0.getColumn());
-                                }
-                            }
-                        }
+                        numObj = defaultVal;
                     } else {
-                        numObj = elem;
+                        throw Errors.newFunctionCallError("math.min: element is not an object and subfield specified", arg0.getLine(), arg0.getColumn());
                     }
-                    Double nf = Types.toFloat(numObj);
-                    if (nf == null) {
-                        throw Errors.newTypeError("math.min: element is not numeric", arg0.getLine(), arg0.getColumn());
-                    }
-                    if (firstIsInt == null) {
-                        firstIsInt = Types.isInt(numObj);
+                } else {
+                    if (obj.containsKey(subfield)) {
+                        numObj = obj.get(subfield);
                     } else {
-                        if (Types.isInt(numObj) != firstIsInt) {
-                            throw Errors.newSemanticError("Mixed numeric types require explicit conversion", arg0.getLine(), arg0.getColumn());
-                        }
-                    }
-                    if (first) {
-                        m = nf;
-                        first = false;
-                    } else {
-                        if (nf < m) {
-                            m = nf;
+                        if (defaultVal != null) {
+                            numObj = defaultVal;
+                        } else {
+                            throw Errors.newFunctionCallError("math.min: field '" + subfield + "' missing in element", arg0.getLine(), arg0.getColumn());
                         }
                     }
                 }
-                if (firstIsInt != null && firstIsInt) {
-                    return (long) m.doubleValue();
-                }
-                return m;
+            } else {
+                numObj = elem;
             }
-            case "max": {
-                if (args.size() < 1 || args.size() > 3) {
-                    throw Errors.newParameterError("math.max requires 1 to 3 arguments", parenLine, parenCol);
-                }
-                Param arg0 = args.get(0);
-                List<Object> arr = Types.convertToInterfaceList(arg0.getValue());
-                if (arr == null) {
-                    throw Errors.newTypeError("math.max: first argument must be an array", arg0.getLine(), arg0.getColumn());
-                }
-                String subfield = "";
-                Object defaultVal = null;
-                if (args.size() >= 2) {
-                    Param arg1 = args.get(1);
-                    Object sf = arg1.getValue();
-                    if (!(sf instanceof String)) {
-                        throw Errors.newTypeError("math.max: second argument must be string", arg1.getLine(), arg1.getColumn());
-                    }
-                    subfield = (String) sf;
+            Double nf = Types.toFloat(numObj);
+            if (nf == null) {
+                throw Errors.newTypeError("math.min: element is not numeric", arg0.getLine(), arg0.getColumn());
+            }
+            if (firstIsInt == null) {
+                firstIsInt = Types.isInt(numObj);
+            } else {
+                if (Types.isInt(numObj) != firstIsInt) {
+                    throw Errors.newSemanticError("Mixed numeric types require explicit conversion", arg0.getLine(), arg0.getColumn());
                 }
-                if (args.size() == 3) {
-                    defaultVal = args.get(2).getValue();
+            }
+            if (first) {
+                m = nf;
+                first = false;
+            } else {
+                if (nf < m) {
+                    m = nf;
                 }
-                if (arr.isEmpty()) {
+            }
+        }
+        if (firstIsInt != null && firstIsInt) {
+            return (long) m.doubleValue();
+        }
+        return m;
+    }
+
+    private Object max(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() < 1 || args.size() > 3) {
+            throw Errors.newParameterError("math.max requires 1 to 3 arguments", parenLine, parenCol);
+        }
+        Param arg0 = args.get(0);
+        List<Object> arr = Types.convertToInterfaceList(arg0.getValue());
+        if (arr == null) {
+            throw Errors.newTypeError("math.max: first argument must be an array", arg0.getLine(), arg0.getColumn());
+        }
+        String subfield = "";
+        Object defaultVal = null;
+        if (args.size() >= 2) {
+            Param arg1 = args.get(1);
+            Object sf = arg1.getValue();
+            if (!(sf instanceof String)) {
+                throw Errors.newTypeError("math.max: second argument must be string", arg1.getLine(), arg1.getColumn());
+            }
+            subfield = (String) sf;
+        }
+        if (args.size() == 3) {
+            defaultVal = args.get(2).getValue();
+        }
+        if (arr.isEmpty()) {
+            if (defaultVal != null) {
+                return defaultVal;
+            }
+            throw Errors.newFunctionCallError("math.max: array is empty", arg0.getLine(), arg0.getColumn());
+        }
+        Double m = null;
+        Boolean firstIsInt = null;
+        boolean first = true;
+        for (Object elem : arr) {
+            Object numObj;
+            if (!subfield.isEmpty()) {
+                var obj = Types.convertToStringMap(elem);
+                if (obj == null) {
                     if (defaultVal != null) {
-                        return defaultVal;
-                    }
-                    throw Errors.newFunctionCallError("math.max: array is empty", arg0.getLine(), arg0.getColumn());
-                }
-                Double m = null;
-                Boolean firstIsInt = null;
-                boolean first = true;
-                for (Object elem : arr) {
-                    Object numObj;
-                    if (!subfield.isEmpty()) {
-                        var obj = Types.convertToStringMap(elem);
-                        if (obj == null) {
-                            if (defaultVal != null) {
-                                numObj = defaultVal;
-                            } else {
-                                throw Errors.newFunctionCallError("math.max: element is not an object and subfield specified", arg0.getLine(), arg0.getColumn());
-                            }
-                        } else {
-                            if (obj.containsKey(subfield)) {
-                                numObj = obj.get(subfield);
-                            } else {
-                                if (defaultVal != null) {
-                                    numObj = defaultVal;
-                                } else {
-                                    throw Errors.newFunctionCallError("math.max: field '" + subfield + "' missing in element", arg0.getLine(), arg0.getColumn());
-                                }
-                            }
-                        }
-                    } else {
-                        numObj = elem;
-                    }
-                    Double nf = Types.toFloat(numObj);
-                    if (nf == null) {
-                        throw Errors.newTypeError("math.max: element is not numeric", arg0.getLine(), arg0.getColumn());
-                    }
-                    if (firstIsInt == null) {
-                        firstIsInt = Types.isInt(numObj);
+                        numObj = defaultVal;
                     } else {
-                        if (Types.isInt(numObj) != firstIsInt) {
-                            throw Errors.newSemanticError("Mixed numeric types require explicit conversion", arg0.getLine(), arg0.getColumn());
-                        }
+                        throw Errors.newFunctionCallError("math.max: element is not an object and subfield specified", arg0.getLine(), arg0.getColumn());
                     }
-                    if (first) {
-                        m = nf;
-                        first = false;
+                } else {
+                    if (obj.containsKey(subfield)) {
+                        numObj = obj.get(subfield);
                     } else {
-                        if (nf > m) {
-                            m = nf;
+                        if (defaultVal != null) {
+                            numObj = defaultVal;
+                        } else {
+                            throw Errors.newFunctionCallError("math.max: field '" + subfield + "' missing in element", arg0.getLine(), arg0.getColumn());
                         }
                     }
                 }
-                if (firstIsInt != null && firstIsInt) {
-                    return (long) m.doubleValue();
-                }
-                return m;
+            } else {
+                numObj = elem;
             }
-            case "avg": {
-                if (args.size() < 1 || args.size() > 3) {
-                    throw Errors.newParameterError("math.avg requires 1 to 3 arguments", parenLine, parenCol);
-                }
-                Param arg0 = args.get(0);
-                List<Object> arr = Types.convertToInterfaceList(arg0.getValue());
-                if (arr == null) {
-                    throw Errors.newTypeError("math.avg: first argument must be an array", arg0.getLine(), arg0.getColumn());
-                }
-                String subfield = "";
-                Object defaultVal = null;
-                if (args.size() >= 2) {
-                    Param arg1 = args.get(1);
-                    Object sf = arg1.getValue();
-                    if (!(sf instanceof String)) {
-                        throw Errors.newTypeError("math.avg: second argument must be string", arg1.getLine(), arg1.getColumn());
-                    }
-                    subfield = (String) sf;
-                }
-                if (args.size() == 3) {
-                    defaultVal = args.get(2).getValue();
+            Double nf = Types.toFloat(numObj);
+            if (nf == null) {
+                throw Errors.newTypeError("math.max: element is not numeric", arg0.getLine(), arg0.getColumn());
+            }
+            if (firstIsInt == null) {
+                firstIsInt = Types.isInt(numObj);
+            } else {
+                if (Types.isInt(numObj) != firstIsInt) {
+                    throw Errors.newSemanticError("Mixed numeric types require explicit conversion", arg0.getLine(), arg0.getColumn());
                 }
-                if (arr.isEmpty()) {
-                    if (defaultVal != null) {
-                        return defaultVal;
-                    }
-                    throw Errors.newFunctionCallError("math.avg: array is empty", arg0.getLine(), arg0.getColumn());
+            }
+            if (first) {
+                m = nf;
+                first = false;
+            } else {
+                if (nf > m) {
+                    m = nf;
                 }
-                double sum = 0.0;
-                int count = 0;
-                Boolean firstIsInt = null;
-                for (Object elem : arr) {
-                    Object numObj;
-                    if (!subfield.isEmpty()) {
-                        var obj = Types.convertToStringMap(elem);
-                        if (obj == null) {
-                            throw Errors.newFunctionCallError("math.avg: element is not an object and subfield specified", arg0.getLine(), arg0.getColumn());
-                        }
-                        if (obj.containsKey(subfield)) {
-                            numObj = obj.get(subfield);
-                        } else {
-                            throw Errors.newFunctionCallError("math.avg: field '" + subfield + "' missing in element", arg0.getLine(), arg0.getColumn());
-                        }
-                    } else {
-                        numObj = elem;
-                    }
-                    Double nf = Types.toFloat(numObj);
-                    if (nf == null) {
-                        throw Errors.newTypeError("math.avg: element is not numeric", arg0.getLine(), arg0.getColumn());
-                    }
-                    if (firstIsInt == null) {
-                        firstIsInt = Types.isInt(numObj);
-                    } else {
-                        if (Types.isInt(numObj) != firstIsInt) {
-                            throw Errors.newSemanticError("Mixed numeric types require explicit conversion", arg0.getLine(), arg0.getColumn());
-                        }
-                    }
-                    sum += nf;
-                    count++;
+            }
+        }
+        if (firstIsInt != null && firstIsInt) {
+            return (long) m.doubleValue();
+        }
+        return m;
+    }
+
+    private Object avg(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() < 1 || args.size() > 3) {
+            throw Errors.newParameterError("math.avg requires 1 to 3 arguments", parenLine, parenCol);
+        }
+        Param arg0 = args.get(0);
+        List<Object> arr = Types.convertToInterfaceList(arg0.getValue());
+        if (arr == null) {
+            throw Errors.newTypeError("math.avg: first argument must be an array", arg0.getLine(), arg0.getColumn());
+        }
+        String subfield = "";
+        Object defaultVal = null;
+        if (args.size() >= 2) {
+            Param arg1 = args.get(1);
+            Object sf = arg1.getValue();
+            if (!(sf instanceof String)) {
+                throw Errors.newTypeError("math.avg: second argument must be string", arg1.getLine(), arg1.getColumn());
+            }
+            subfield = (String) sf;
+        }
+        if (args.size() == 3) {
+            defaultVal = args.get(2).getValue();
+        }
+        if (arr.isEmpty()) {
+            if (defaultVal != null) {
+                return defaultVal;
+            }
+            throw Errors.newFunctionCallError("math.avg: array is empty", arg0.getLine(), arg0.getColumn());
+        }
+        double sum = 0.0;
+        int count = 0;
+        Boolean firstIsInt = null;
+        for (Object elem : arr) {
+            Object numObj;
+            if (!subfield.isEmpty()) {
+                var obj = Types.convertToStringMap(elem);
+                if (obj == null) {
+                    throw Errors.newFunctionCallError("math.avg: element is not an object and subfield specified", arg0.getLine(), arg0.getColumn());
+                }
+                if (obj.containsKey(subfield)) {
+                    numObj = obj.get(subfield);
+                } else {
+                    throw Errors.newFunctionCallError("math.avg: field '" + subfield + "' missing in element", arg0.getLine(), arg0.getColumn());
+                }
+            } else {
+                numObj = elem;
+            }
+            Double nf = Types.toFloat(numObj);
+            if (nf == null) {
+                throw Errors.newTypeError("math.avg: element is not numeric", arg0.getLine(), arg0.getColumn());
+            }
+            if (firstIsInt == null) {
+                firstIsInt = Types.isInt(numObj);
+            } else {
+                if (Types.isInt(numObj) != firstIsInt) {
+                    throw Errors.newSemanticError("Mixed numeric types require explicit conversion", arg0.getLine(), arg0.getColumn());
                 }
-                return sum / count;
             }
-            default:
-                throw Errors.newFunctionCallError("unknown math function '" + functionName + "'", 0, 0);
+            sum += nf;
+            count++;
         }
+        return sum / count;
     }
 }
 // --------- FILE END: "Math.java" ----------
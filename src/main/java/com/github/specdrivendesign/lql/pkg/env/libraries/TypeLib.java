@@ -1,271 +1,317 @@
 // --------- FILE START: "TypeLib.java" (converted from pkg/env/libraries/type.go) ----------
 package com.github.specdrivendesign.lql.pkg.env.libraries;
 
+import com.github.specdrivendesign.lql.pkg.env.IFunction;
 import com.github.specdrivendesign.lql.pkg.env.ILibrary;
 import com.github.specdrivendesign.lql.pkg.errors.Errors;
 import com.github.specdrivendesign.lql.pkg.param.Param;
 import com.github.specdrivendesign.lql.pkg.types.Types;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class TypeLib implements ILibrary {
 
+    private final Map<String, IFunction> functions = new HashMap<>();
+
     public TypeLib() {
+        functions.put("boolean", this::asBoolean);
+        functions.put("string", this::asString);
+        functions.put("int", this::asInt);
+        functions.put("float", this::asFloat);
+        functions.put("intArray", this::asIntArray);
+        functions.put("floatArray", this::asFloatArray);
+        functions.put("stringArray", this::asStringArray);
+        functions.put("isNumber", this::isNumber);
+        functions.put("isString", this::isString);
+        functions.put("isBoolean", this::isBoolean);
+        functions.put("isArray", this::isArray);
+        functions.put("isObject", this::isObject);
+        functions.put("isNull", this::isNull);
     }
 
     @Override
-    public Object call(String functionName, List<Param> args, int line, int col, int unused1, int unused2) throws Exception {
-        switch (functionName) {
-            case "boolean": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.boolean requires 1 argument", line, col);
-                }
-                Param arg0 = args.get(0);
-                Object val = arg0.getValue();
-                if (val == null) {
-                    return false;
-                }
-                if (val instanceof Boolean) {
-                    return val;
-                }
-                if (val instanceof String) {
-                    String s = ((String) val).trim();
-                    if (s.equals("") || s.equals("0")) {
-                        return false;
-                    }
-                    if (s.equals("1")) {
-                        return true;
-                    }
-                    throw Errors.newFunctionCallError("type.boolean: '" + val + "' cannot be converted to bool", arg0.getLine(), arg0.getColumn());
-                }
-                if (val instanceof Number) {
-                    double d = ((Number) val).doubleValue();
-                    if (d == 0.0) {
-                        return false;
-                    }
-                    if (d == 1.0) {
-                        return true;
-                    }
-                    throw Errors.newFunctionCallError("type.boolean: '" + val + "' cannot be converted to bool", arg0.getLine(), arg0.getColumn());
-                }
-                throw Errors.newFunctionCallError("type.boolean: '" + val + "' cannot be converted to bool", arg0.getLine(), arg0.getColumn());
+    public boolean isPure(String functionName) {
+        return true;
+    }
+
+    @Override
+    public Object call(String functionName, List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        IFunction function = functions.get(functionName);
+        if (function == null) {
+            throw Errors.newFunctionCallError("unknown type function '" + functionName + "'", 0, 0);
+        }
+        return function.call(args, line, col, parenLine, parenCol);
+    }
+
+    @Override
+    public IFunction resolve(String functionName) {
+        return functions.get(functionName);
+    }
+
+    private Object asBoolean(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.boolean requires 1 argument", line, col);
+        }
+        Param arg0 = args.get(0);
+        Object val = arg0.getValue();
+        if (val == null) {
+            return false;
+        }
+        if (val instanceof Boolean) {
+            return val;
+        }
+        if (val instanceof String) {
+            String s = ((String) val).trim();
+            if (s.equals("") || s.equals("0")) {
+                return false;
             }
-            case "string": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.string requires 1 argument", line, col);
-                }
-                Param arg0 = args.get(0);
-                Object val = arg0.getValue();
-                if (val == null) {
-                    return "null";
-                }
-                if (val instanceof Number) {
-                    double d = ((Number) val).doubleValue();
-                    // If the number is whole, return it without a trailing .0
-                    if (d == java.lang.Math.floor(d)) {
-                        return String.valueOf((long) d);
-                    }
-                }
-                return String.valueOf(val);
+            if (s.equals("1")) {
+                return true;
+            }
+            throw Errors.newFunctionCallError("type.boolean: '" + val + "' cannot be converted to bool", arg0.getLine(), arg0.getColumn());
+        }
+        if (val instanceof Number) {
+            double d = ((Number) val).doubleValue();
+            if (d == 0.0) {
+                return false;
+            }
+            if (d == 1.0) {
+                return true;
             }
+            throw Errors.newFunctionCallError("type.boolean: '" + val + "' cannot be converted to bool", arg0.getLine(), arg0.getColumn());
+        }
+        throw Errors.newFunctionCallError("type.boolean: '" + val + "' cannot be converted to bool", arg0.getLine(), arg0.getColumn());
+    }
 
-            case "int": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.int requires 1 argument", line, col);
-                }
-                Param arg0 = args.get(0);
-                Object val = arg0.getValue();
-                if (val == null) {
-                    return 0L;
-                }
-                if (val instanceof String) {
-                    String s = ((String) val).trim();
-                    if (s.length() >= 2 && ((s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"') ||
-                            (s.charAt(0) == '\'' && s.charAt(s.length() - 1) == '\''))) {
-                        s = s.substring(1, s.length() - 1);
-                    }
-                    try {
-                        return Long.parseLong(s);
-                    } catch (NumberFormatException e) {
-                        try {
-                            Double f = Double.parseDouble(s);
-                            return f.longValue();
-                        } catch (NumberFormatException ex) {
-                            throw Errors.newFunctionCallError("type.int: string '" + val + "' cannot be converted to int", arg0.getLine(), arg0.getColumn());
-                        }
-                    }
-                } else {
-                    Double num = Types.toFloat(val);
-                    if (num == null) {
-                        throw Errors.newTypeError("type.int: argument cannot be converted to int", arg0.getLine(), arg0.getColumn());
-                    }
-                    return num.longValue();
-                }
+    private Object asString(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.string requires 1 argument", line, col);
+        }
+        Param arg0 = args.get(0);
+        Object val = arg0.getValue();
+        if (val == null) {
+            return "null";
+        }
+        if (Types.isInt(val)) {
+            return String.valueOf(Types.toInt(val));
+        }
+        if (val instanceof Number) {
+            double d = ((Number) val).doubleValue();
+            // If the number is whole, return it without a trailing .0
+            if (d == java.lang.Math.floor(d)) {
+                return String.valueOf((long) d);
             }
-            case "float": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.float requires 1 argument", line, col);
-                }
-                Param arg0 = args.get(0);
-                Object val = arg0.getValue();
-                if (val == null) {
-                    return 0.0;
-                }
-                if (val instanceof String) {
-                    String s = ((String) val).trim();
-                    try {
-                        return Double.parseDouble(s);
-                    } catch (NumberFormatException e) {
-                        throw Errors.newFunctionCallError("type.float: string '" + val + "' cannot be converted to float", arg0.getLine(), arg0.getColumn());
-                    }
-                } else {
-                    Double num = Types.toFloat(val);
-                    if (num == null) {
-                        throw Errors.newTypeError("type.float: argument cannot be converted to float", arg0.getLine(), arg0.getColumn());
-                    }
-                    return num;
-                }
+        }
+        return String.valueOf(val);
+    }
+
+    private Object asInt(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.int requires 1 argument", line, col);
+        }
+        Param arg0 = args.get(0);
+        Object val = arg0.getValue();
+        if (val == null) {
+            return 0L;
+        }
+        if (val instanceof String) {
+            String s = ((String) val).trim();
+            if (s.length() >= 2 && ((s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"') ||
+                    (s.charAt(0) == '\'' && s.charAt(s.length() - 1) == '\''))) {
+                s = s.substring(1, s.length() - 1);
             }
-            case "intArray": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.intArray requires 1 argument", line, col);
+            try {
+                return Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                try {
+                    Double f = Double.parseDouble(s);
+                    return f.longValue();
+                } catch (NumberFormatException ex) {
+                    throw Errors.newFunctionCallError("type.int: string '" + val + "' cannot be converted to int", arg0.getLine(), arg0.getColumn());
                 }
-                Object arrObj = args.get(0).getValue();
-                List<Object> arr = Types.convertToInterfaceList(arrObj);
-                if (arr == null) {
-                    throw Errors.newFunctionCallError("intArray: value is not an array", args.get(0).getLine(), args.get(0).getColumn());
-                }
-                List<Object> result = new ArrayList<>();
-                for (int i = 0; i < arr.size(); i++) {
-                    Object elem = arr.get(i);
-                    Long iVal = null;
-                    if (elem instanceof String) {
-                        try {
-                            iVal = Long.parseLong(((String) elem).trim());
-                        } catch (NumberFormatException e) {
-                            throw Errors.newFunctionCallError("intArray: element at index " + i + " (" + elem + ") is not convertible to int", args.get(0).getLine(), args.get(0).getColumn());
-                        }
-                    } else {
-                        iVal = Types.toInt(elem);
-                    }
-                    if (iVal == null) {
-                        throw Errors.newFunctionCallError("intArray: element at index " + i + " (" + elem + ") is not convertible to int", args.get(0).getLine(), args.get(0).getColumn());
-                    }
-                    result.add(iVal);
-                }
-                return result;
             }
-            case "floatArray": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.floatArray requires 1 argument", line, col);
-                }
-                Object arrObj = args.get(0).getValue();
-                List<Object> arr = Types.convertToInterfaceList(arrObj);
-                if (arr == null) {
-                    throw Errors.newFunctionCallError("floatArray: value is not an array", args.get(0).getLine(), args.get(0).getColumn());
-                }
-                List<Object> result = new ArrayList<>();
-                for (int i = 0; i < arr.size(); i++) {
-                    Object elem = arr.get(i);
-                    Double fVal = null;
-                    if (elem instanceof String) {
-                        try {
-                            fVal = Double.parseDouble(((String) elem).trim());
-                        } catch (NumberFormatException e) {
-                            throw Errors.newFunctionCallError("floatArray: element at index " + i + " (" + elem + ") is not convertible to float", args.get(0).getLine(), args.get(0).getColumn());
-                        }
-                    } else {
-                        fVal = Types.toFloat(elem);
-                    }
-                    if (fVal == null) {
-                        throw Errors.newFunctionCallError("floatArray: element at index " + i + " (" + elem + ") is not convertible to float", args.get(0).getLine(), args.get(0).getColumn());
-                    }
-                    result.add(fVal);
-                }
-                return result;
-            }case "stringArray": {
-                 if (args.size() != 1) {
-                     throw Errors.newParameterError("type.stringArray requires 1 argument", line, col);
-                 }
-                 Object arrObj = args.get(0).getValue();
-                 List<Object> arr = Types.convertToInterfaceList(arrObj);
-                 if (arr == null) {
-                     throw Errors.newFunctionCallError("stringArray: value is not an array", args.get(0).getLine(), args.get(0).getColumn());
-                 }
-                 List<Object> result = new ArrayList<>();
-                 for (Object elem : arr) {
-                     String s;
-                     if (elem instanceof Number) {
-                         double d = ((Number) elem).doubleValue();
-                         // If the number is whole, format without trailing ".0"
-                         if (d == java.lang.Math.floor(d)) {
-                             s = String.valueOf((long) d);
-                         } else {
-                             s = String.valueOf(d);
-                         }
-                     } else if (elem instanceof String) {
-                         s = (String) elem;
-                     } else if (elem == null) {
-                         s = "null";
-                     } else {
-                         s = String.valueOf(elem);
-                     }
-                     result.add(s);
-                 }
-                 return result;
-             }
+        } else {
+            Double num = Types.toFloat(val);
+            if (num == null) {
+                throw Errors.newTypeError("type.int: argument cannot be converted to int", arg0.getLine(), arg0.getColumn());
+            }
+            return num.longValue();
+        }
+    }
 
-            case "isNumber": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.isNumber requires 1 argument", line, col);
-                }
-                Param arg0 = args.get(0);
-                Object val = arg0.getValue();
-                if (val instanceof String) {
-                    try {
-                        Double.parseDouble(((String) val).trim());
-                        return true;
-                    } catch (NumberFormatException e) {
-                        return false;
-                    }
-                } else {
-                    return Types.toFloat(val) != null;
-                }
+    private Object asFloat(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.float requires 1 argument", line, col);
+        }
+        Param arg0 = args.get(0);
+        Object val = arg0.getValue();
+        if (val == null) {
+            return 0.0;
+        }
+        if (val instanceof String) {
+            String s = ((String) val).trim();
+            try {
+                return Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                throw Errors.newFunctionCallError("type.float: string '" + val + "' cannot be converted to float", arg0.getLine(), arg0.getColumn());
             }
-            case "isString": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.isString requires 1 argument", line, col);
-                }
-                return args.get(0).getValue() instanceof String;
+        } else {
+            Double num = Types.toFloat(val);
+            if (num == null) {
+                throw Errors.newTypeError("type.float: argument cannot be converted to float", arg0.getLine(), arg0.getColumn());
             }
-            case "isBoolean": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.isBoolean requires 1 argument", line, col);
+            return num;
+        }
+    }
+
+    private Object asIntArray(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.intArray requires 1 argument", line, col);
+        }
+        Object arrObj = args.get(0).getValue();
+        List<Object> arr = Types.convertToInterfaceList(arrObj);
+        if (arr == null) {
+            throw Errors.newFunctionCallError("intArray: value is not an array", args.get(0).getLine(), args.get(0).getColumn());
+        }
+        List<Object> result = new ArrayList<>();
+        for (int i = 0; i < arr.size(); i++) {
+            Object elem = arr.get(i);
+            Long iVal = null;
+            if (elem instanceof String) {
+                try {
+                    iVal = Long.parseLong(((String) elem).trim());
+                } catch (NumberFormatException e) {
+                    throw Errors.newFunctionCallError("intArray: element at index " + i + " (" + elem + ") is not convertible to int", args.get(0).getLine(), args.get(0).getColumn());
                 }
-                return args.get(0).getValue() instanceof Boolean;
+            } else {
+                iVal = Types.toInt(elem);
             }
-            case "isArray": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.isArray requires 1 argument", line, col);
-                }
-                return Types.convertToInterfaceList(args.get(0).getValue()) != null;
+            if (iVal == null) {
+                throw Errors.newFunctionCallError("intArray: element at index " + i + " (" + elem + ") is not convertible to int", args.get(0).getLine(), args.get(0).getColumn());
             }
-            case "isObject": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.isObject requires 1 argument", line, col);
+            result.add(iVal);
+        }
+        return result;
+    }
+
+    private Object asFloatArray(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.floatArray requires 1 argument", line, col);
+        }
+        Object arrObj = args.get(0).getValue();
+        List<Object> arr = Types.convertToInterfaceList(arrObj);
+        if (arr == null) {
+            throw Errors.newFunctionCallError("floatArray: value is not an array", args.get(0).getLine(), args.get(0).getColumn());
+        }
+        List<Object> result = new ArrayList<>();
+        for (int i = 0; i < arr.size(); i++) {
+            Object elem = arr.get(i);
+            Double fVal = null;
+            if (elem instanceof String) {
+                try {
+                    fVal = Double.parseDouble(((String) elem).trim());
+                } catch (NumberFormatException e) {
+                    throw Errors.newFunctionCallError("floatArray: element at index " + i + " (" + elem + ") is not convertible to float", args.get(0).getLine(), args.get(0).getColumn());
                 }
-                return Types.convertToStringMap(args.get(0).getValue()) != null;
+            } else {
+                fVal = Types.toFloat(elem);
+            }
+            if (fVal == null) {
+                throw Errors.newFunctionCallError("floatArray: element at index " + i + " (" + elem + ") is not convertible to float", args.get(0).getLine(), args.get(0).getColumn());
             }
-            case "isNull": {
-                if (args.size() != 1) {
-                    throw Errors.newParameterError("type.isNull requires 1 argument", line, col);
+            result.add(fVal);
+        }
+        return result;
+    }
+
+    private Object asStringArray(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.stringArray requires 1 argument", line, col);
+        }
+        Object arrObj = args.get(0).getValue();
+        List<Object> arr = Types.convertToInterfaceList(arrObj);
+        if (arr == null) {
+            throw Errors.newFunctionCallError("stringArray: value is not an array", args.get(0).getLine(), args.get(0).getColumn());
+        }
+        List<Object> result = new ArrayList<>();
+        for (Object elem : arr) {
+            String s;
+            if (Types.isInt(elem)) {
+                s = String.valueOf(Types.toInt(elem));
+            } else if (elem instanceof Number) {
+                double d = ((Number) elem).doubleValue();
+                // If the number is whole, format without trailing ".0"
+                if (d == java.lang.Math.floor(d)) {
+                    s = String.valueOf((long) d);
+                } else {
+                    s = String.valueOf(d);
                 }
-                return args.get(0).getValue() == null;
+            } else if (elem instanceof String) {
+                s = (String) elem;
+            } else if (elem == null) {
+                s = "null";
+            } else {
+                s = String.valueOf(elem);
+            }
+            result.add(s);
+        }
+        return result;
+    }
+
+    private Object isNumber(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.isNumber requires 1 argument", line, col);
+        }
+        Param arg0 = args.get(0);
+        Object val = arg0.getValue();
+        if (val instanceof String) {
+            try {
+                Double.parseDouble(((String) val).trim());
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
             }
-            default:
-                throw Errors.newFunctionCallError("unknown type function '" + functionName + "'", 0, 0);
+        } else {
+            return Types.toFloat(val) != null;
+        }
+    }
+
+    private Object isString(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.isString requires 1 argument", line, col);
+        }
+        return args.get(0).getValue() instanceof String;
+    }
+
+    private Object isBoolean(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.isBoolean requires 1 argument", line, col);
+        }
+        return args.get(0).getValue() instanceof Boolean;
+    }
+
+    private Object isArray(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.isArray requires 1 argument", line, col);
+        }
+        return Types.convertToInterfaceList(args.get(0).getValue()) != null;
+    }
+
+    private Object isObject(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.isObject requires 1 argument", line, col);
+        }
+        return Types.convertToStringMap(args.get(0).getValue()) != null;
+    }
+
+    private Object isNull(List<Param> args, int line, int col, int parenLine, int parenCol) throws Exception {
+        if (args.size() != 1) {
+            throw Errors.newParameterError("type.isNull requires 1 argument", line, col);
         }
+        return args.get(0).getValue() == null;
     }
 }
 // --------- FILE END: "TypeLib.java" ----------
@@ -1,17 +1,17 @@
 package com.github.specdrivendesign.lql.pkg.lexer;
 
+import com.github.specdrivendesign.lql.pkg.bytecode.Bytecode;
 import com.github.specdrivendesign.lql.pkg.errors.Errors;
 import com.github.specdrivendesign.lql.pkg.tokens.Tokens;
 import com.github.specdrivendesign.lql.pkg.tokenstream.TokenStream;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.PrivateKey;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.security.MessageDigest;
-import java.security.Signature;
 
 public class Lexer implements TokenStream {
     private String input;
@@ -336,57 +336,70 @@ public class Lexer implements TokenStream {
     }
 
     public byte[] exportTokens() throws Exception {
-        List<Byte> byteList = new ArrayList<>();
+        ByteBuffer out = ByteBuffer.allocate(input.length() + 16);
         while (true) {
             Tokens.Token tok = nextToken();
-            Byte code = Tokens.getTokenTypeToByte().get(tok.getType());
-            if (code == null) {
-                throw new Exception("unknown token type: " + tok.getType());
+            // A literal takes at most 3 UTF-8 bytes per char, plus its length and the code.
+            int needed = 2 + 3 * tok.getLiteral().length();
+            if (out.remaining() < needed) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + needed));
+                out = larger.put(out.flip());
             }
-            byteList.add(code);
-            String fixed = Tokens.getFixedTokenLiteral(tok.getType());
-            if (fixed.isEmpty() || !fixed.equals(tok.getLiteral())) {
-                byte[] literalBytes = tok.getLiteral().getBytes();
-                if (literalBytes.length > 255) {
+            if (!writeToken(tok, out)) {
+                break;
+            }
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    // exportTokens writes the tokens to out, from its position, and returns the number of
+    // bytes written. It throws BufferOverflowException when out fills up.
+    public int exportTokens(ByteBuffer out) throws Exception {
+        int start = out.position();
+        while (writeToken(nextToken(), out)) {
+        }
+        return out.position() - start;
+    }
+
+    // writeToken writes tok to out and reports whether more tokens follow.
+    private static boolean writeToken(Tokens.Token tok, ByteBuffer out) throws Exception {
+        int code = Tokens.getTokenCode(tok.getType());
+        if (code < 0) {
+            throw new Exception("unknown token type: " + tok.getType());
+        }
+        out.put((byte) code);
+        // ByteCodeReader reads a literal only for tokens without a fixed one, so an
+        // alternate spelling (&& for AND) must not be written either.
+        if (Tokens.getFixedTokenLiteral(tok.getType()).isEmpty()) {
+            String literal = tok.getLiteral();
+            int n = literal.length();
+            int i = 0;
+            while (i < n && literal.charAt(i) < 0x80) {
+                i++;
+            }
+            if (i == n) {
+                // ASCII, the common case: one byte per char, no intermediate array.
+                if (n > 255) {
                     throw new Exception("literal too long");
                 }
-                byteList.add((byte) literalBytes.length);
-                for (byte b : literalBytes) {
-                    byteList.add(b);
+                out.put((byte) n);
+                for (i = 0; i < n; i++) {
+                    out.put((byte) literal.charAt(i));
                 }
-            }
-            if (tok.getType() == Tokens.TokenEof) {
-                break;
+            } else {
+                byte[] literalBytes = literal.getBytes(StandardCharsets.UTF_8);
+                if (literalBytes.length > 255) {
+                    throw new Exception("literal too long");
+                }
+                out.put((byte) literalBytes.length);
+                out.put(literalBytes);
             }
         }
-        byte[] result = new byte[byteList.size()];
-        for (int i = 0; i < byteList.size(); i++) {
-            result[i] = byteList.get(i);
-        }
-        return result;
+        return tok.getType() != Tokens.TokenEof;
     }
 
     public byte[] exportTokensSigned(PrivateKey privateKey) throws Exception {
-        byte[] tokenData = exportTokens();
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hash = digest.digest(tokenData);
-        Signature signature = Signature.getInstance("SHA256withRSA");
-        signature.initSign(privateKey);
-        signature.update(tokenData);
-        byte[] sigBytes = signature.sign();
-        if (tokenData.length > 0xFFFFFFFFL) {
-            throw new Exception("token data length exceeds maximum allowed size");
-        }
-        int tokenLen = tokenData.length;
-        byte[] headerMagicBytes = Tokens.HeaderMagic.getBytes();
-        int totalLength = headerMagicBytes.length + 4 + tokenLen + sigBytes.length;
-        ByteBuffer buffer = ByteBuffer.allocate(totalLength);
-        buffer.put(headerMagicBytes);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        buffer.putInt(tokenLen);
-        buffer.put(tokenData);
-        buffer.put(sigBytes);
-        return buffer.array();
+        return Bytecode.sign(exportTokens(), privateKey);
     }
 
     public List<String> extractContextIdentifiers() throws Exception {
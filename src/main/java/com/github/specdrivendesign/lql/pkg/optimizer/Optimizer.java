@@ -0,0 +1,125 @@
+package com.github.specdrivendesign.lql.pkg.optimizer;
+
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.ast.Rewriter;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ArrayLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Binary;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.FunctionCall;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Literal;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ObjectLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Unary;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.tokens.Tokens;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Optimizer simplifies an expression tree before it is compiled. Operators, member
+// accesses, array/object literals and calls to pure library functions whose operands
+// are all literals are evaluated once and replaced by a Literal; AND/OR with a literal
+// left operand that decides the result drop their right operand, exactly as the
+// short-circuit would at run time. A node whose evaluation fails is kept, so the
+// error is still raised, with its original position, when the expression runs.
+public class Optimizer {
+    private static final Map<String, Object> NO_CONTEXT = Collections.emptyMap();
+
+    // optimize expects function calls to be bound already (see Compiler.bindFunctions);
+    // unbound calls are never folded.
+    public static Expression optimize(Expression ast, Env env) throws Exception {
+        return Rewriter.rewrite(ast, node -> fold(node, env));
+    }
+
+    private static Expression fold(Expression node, Env env) {
+        if (node instanceof Binary) {
+            Binary b = (Binary) node;
+            if (b.getLeft() instanceof Literal) {
+                Object left = ((Literal) b.getLeft()).getValue();
+                if ((b.getOperator() == Tokens.TokenAnd && Boolean.FALSE.equals(left))
+                        || (b.getOperator() == Tokens.TokenOr && Boolean.TRUE.equals(left))) {
+                    return new Literal(left, b.getLine(), b.getColumn());
+                }
+            }
+            if (isConstant(b.getLeft()) && isConstant(b.getRight())) {
+                return evaluate(node, env);
+            }
+        } else if (node instanceof Unary) {
+            if (isConstant(((Unary) node).getExpr())) {
+                return evaluate(node, env);
+            }
+        } else if (node instanceof MemberAccess) {
+            MemberAccess m = (MemberAccess) node;
+            if (!isConstant(m.getTarget())) {
+                return node;
+            }
+            for (MemberAccess.MemberPart part : m.getAccessParts()) {
+                if (part.isIndex() && !isConstant(part.getExpr())) {
+                    return node;
+                }
+            }
+            return evaluate(node, env);
+        } else if (node instanceof ArrayLiteral) {
+            if (allConstant(((ArrayLiteral) node).getElements())) {
+                return evaluate(node, env);
+            }
+        } else if (node instanceof ObjectLiteral) {
+            if (allConstant(((ObjectLiteral) node).getFields().values())) {
+                return evaluate(node, env);
+            }
+        } else if (node instanceof FunctionCall) {
+            FunctionCall call = (FunctionCall) node;
+            if (call.getLibrary() != null && call.getNamespace().size() >= 2
+                    && call.getLibrary().isPure(call.getNamespace().get(1)) && allConstant(call.getArgs())) {
+                return evaluate(node, env);
+            }
+        }
+        return node;
+    }
+
+    private static boolean isConstant(Expression expr) {
+        return expr instanceof Literal;
+    }
+
+    private static boolean allConstant(Iterable<Expression> exprs) {
+        for (Expression expr : exprs) {
+            if (!isConstant(expr)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Expression evaluate(Expression node, Env env) {
+        Object value;
+        try {
+            value = node.eval(NO_CONTEXT, env);
+        } catch (Exception e) {
+            return node;
+        }
+        int[] pos = node.pos();
+        return new Literal(freeze(value), pos[0], pos[1]);
+    }
+
+    // freeze makes folded arrays and objects read-only: the same instance is now
+    // returned by every evaluation, so a caller must not be able to modify it.
+    private static Object freeze(Object value) {
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object elem : (List<?>) value) {
+                copy.add(freeze(elem));
+            }
+            return Collections.unmodifiableList(copy);
+        }
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(entry.getKey(), freeze(entry.getValue()));
+            }
+            return Collections.unmodifiableMap(copy);
+        }
+        return value;
+    }
+}
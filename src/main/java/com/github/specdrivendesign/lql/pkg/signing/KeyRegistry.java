@@ -0,0 +1,72 @@
+package com.github.specdrivendesign.lql.pkg.signing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// KeyRegistry keeps the keys Signing loads, parsed once per file. A key file is read
+// and parsed again only when its size or modification time changes, so a rotated key
+// is still picked up. A registry may be shared between threads.
+public final class KeyRegistry {
+    private static final KeyRegistry shared = new KeyRegistry();
+
+    private static final class Entry {
+        final String stamp;
+        final Key key;
+
+        Entry(String stamp, Key key) {
+            this.stamp = stamp;
+            this.key = key;
+        }
+    }
+
+    private final Map<String, Entry> keys = new ConcurrentHashMap<>();
+
+    public static KeyRegistry shared() {
+        return shared;
+    }
+
+    public PublicKey publicKey(String filename) throws Exception {
+        return (PublicKey) load(filename, true);
+    }
+
+    public PrivateKey privateKey(String filename) throws Exception {
+        return (PrivateKey) load(filename, false);
+    }
+
+    public void clear() {
+        keys.clear();
+    }
+
+    private Key load(String filename, boolean isPublic) throws Exception {
+        Path path = Paths.get(filename).toAbsolutePath().normalize();
+        String name = (isPublic ? "public:" : "private:") + path;
+        String stamp = stamp(path);
+        Entry entry = keys.get(name);
+        if (entry != null && stamp != null && entry.stamp.equals(stamp)) {
+            return entry.key;
+        }
+        // Signing reports a missing or malformed file.
+        Key key = isPublic ? Signing.loadPublicKey(filename) : Signing.loadPrivateKey(filename);
+        if (stamp != null) {
+            keys.put(name, new Entry(stamp, key));
+        }
+        return key;
+    }
+
+    private static String stamp(Path path) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return attrs.size() + "@" + attrs.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
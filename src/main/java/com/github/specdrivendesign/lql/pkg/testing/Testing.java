@@ -1,10 +1,11 @@
 package com.github.specdrivendesign.lql.pkg.testing;
 
-import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.compiler.CompiledExpression;
+import com.github.specdrivendesign.lql.pkg.compiler.Compiler;
+import com.github.specdrivendesign.lql.pkg.compiler.ExpressionCache;
 import com.github.specdrivendesign.lql.pkg.env.Env;
 import com.github.specdrivendesign.lql.pkg.errors.Errors;
-import com.github.specdrivendesign.lql.pkg.lexer.Lexer;
-import com.github.specdrivendesign.lql.pkg.parser.Parser;
+import com.github.specdrivendesign.lql.pkg.types.Schema;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -19,6 +20,7 @@ public class Testing {
         private String expectedError;
         private String expectedErrorMessage;
         private Object expectedResult;
+        private Map<String, Object> schema;
         private boolean skip;
         private boolean focus;
 
@@ -29,6 +31,7 @@ public class Testing {
         public String getExpectedError() { return expectedError; }
         public String getExpectedErrorMessage() { return expectedErrorMessage; }
         public Object getExpectedResult() { return expectedResult; }
+        public Map<String, Object> getSchema() { return schema; }
         public boolean isSkip() { return skip; }
         public boolean isFocus() { return focus; }
 
@@ -39,6 +42,7 @@ public class Testing {
         public void setExpectedError(String expectedError) { this.expectedError = expectedError; }
         public void setExpectedErrorMessage(String expectedErrorMessage) { this.expectedErrorMessage = expectedErrorMessage; }
         public void setExpectedResult(Object expectedResult) { this.expectedResult = expectedResult; }
+        public void setSchema(Map<String, Object> schema) { this.schema = schema; }
         public void setSkip(boolean skip) { this.skip = skip; }
         public void setFocus(boolean focus) { this.focus = focus; }
 
@@ -162,6 +166,12 @@ public class Testing {
 
 
     public static TestSuiteResult runTests(List<TestCase> testCases, Env env, boolean failFast, boolean benchmark) {
+        return runTests(testCases, env, failFast, benchmark, Compiler.Backend.CLOSURE);
+    }
+
+    // runTests with a backend compiles every case for it, so a suite can be checked
+    // against each way of running expressions.
+    public static TestSuiteResult runTests(List<TestCase> testCases, Env env, boolean failFast, boolean benchmark, Compiler.Backend backend) {
         TestSuiteResult suiteResult = new TestSuiteResult();
         // Determine if any test is marked as focused.
         boolean focusMode = false;
@@ -171,6 +181,8 @@ public class Testing {
                 break;
             }
         }
+        // Suites repeat expressions across contexts; each is compiled once.
+        ExpressionCache cache = new ExpressionCache(env, backend, 4096, 1 << 20);
         int testId = 1;
         for (TestCase tc : testCases) {
             TestResult result = new TestResult();
@@ -196,13 +208,13 @@ public class Testing {
             }
             suiteResult.setTotal(suiteResult.getTotal() + 1);
             try {
-                // Create a lexer and parser to build the AST
-                Lexer lex = new Lexer(tc.getExpression());
-                Parser parser = new Parser(lex);
-                Expression ast = parser.parseExpression();
+                // A case with a schema is type-checked against it when compiled.
+                CompiledExpression compiled = tc.getSchema() == null
+                        ? cache.compile(tc.getExpression())
+                        : CompiledExpression.compile(tc.getExpression(), env, backend, Schema.parse(tc.getSchema()));
                 // Update the expression field to a canonical string representation
-                result.setExpression(ast.toString());
-                Object evalResult = ast.eval(tc.getContext(), env);
+                result.setExpression(compiled.toString());
+                Object evalResult = compiled.evaluate(tc.getContext());
                 result.setActualResult(evalResult);
                 // Use deep equality for comparison
                 if (deepEquals(evalResult, tc.getExpectedResult())) {
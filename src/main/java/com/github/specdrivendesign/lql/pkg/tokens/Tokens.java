@@ -1,5 +1,6 @@
 package com.github.specdrivendesign.lql.pkg.tokens;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -44,6 +45,12 @@ public class Tokens {
 
     private static final Map<Integer, String> fixedTokenLiterals = new HashMap<>();
     private static final Map<Integer, Byte> tokenTypeToByte = new HashMap<>();
+    // Array-indexed copies of the maps, for the bytecode writers and readers: the fixed
+    // literal and the byte code by token type, and the token type by byte code (-1 when
+    // no token has that code).
+    private static final String[] fixedLiteralByType = new String[TokenModulo + 1];
+    private static final int[] codeByType = new int[TokenModulo + 1];
+    private static final int[] typeByCode = new int[256];
 
     static {
         fixedTokenLiterals.put(TokenPlus, "+");
@@ -108,10 +115,30 @@ public class Tokens {
         tokenTypeToByte.put(TokenQuestionBracket, (byte) 31);
         tokenTypeToByte.put(TokenDollar, (byte) 32);
         tokenTypeToByte.put(TokenModulo, (byte) 33);
+
+        Arrays.fill(codeByType, -1);
+        Arrays.fill(typeByCode, -1);
+        for (int type = 0; type < fixedLiteralByType.length; type++) {
+            fixedLiteralByType[type] = fixedTokenLiterals.getOrDefault(type, "");
+        }
+        for (Map.Entry<Integer, Byte> entry : tokenTypeToByte.entrySet()) {
+            codeByType[entry.getKey()] = entry.getValue() & 0xFF;
+            typeByCode[entry.getValue() & 0xFF] = entry.getKey();
+        }
     }
 
     public static String getFixedTokenLiteral(int tokenType) {
-        return fixedTokenLiterals.getOrDefault(tokenType, "");
+        return tokenType >= 0 && tokenType < fixedLiteralByType.length ? fixedLiteralByType[tokenType] : "";
+    }
+
+    // getTokenCode returns the bytecode of a token type, 0 to 255, or -1 for none.
+    public static int getTokenCode(int tokenType) {
+        return tokenType >= 0 && tokenType < codeByType.length ? codeByType[tokenType] : -1;
+    }
+
+    // getTokenTypeForCode returns the token type written as code (read unsigned), or -1.
+    public static int getTokenTypeForCode(int code) {
+        return typeByCode[code & 0xFF];
     }
 
     public static Map<Integer, Byte> getTokenTypeToByte() {
@@ -0,0 +1,269 @@
+package com.github.specdrivendesign.lql.pkg.typechecker;
+
+import com.github.specdrivendesign.lql.pkg.ast.Expression;
+import com.github.specdrivendesign.lql.pkg.ast.Rewriter;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ArrayLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Binary;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Context;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Literal;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.MemberAccess;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.ObjectLiteral;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Shared;
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Unary;
+import com.github.specdrivendesign.lql.pkg.errors.Errors;
+import com.github.specdrivendesign.lql.pkg.tokens.Tokens;
+import com.github.specdrivendesign.lql.pkg.types.Schema;
+import com.github.specdrivendesign.lql.pkg.types.Schema.Type;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// TypeChecker infers the type of every node of an expression tree, taking the types of
+// context fields from a Schema, and rejects operations that cannot succeed on the
+// types involved. The errors are the ones evaluation would raise, with the same type,
+// message and position, only reported before the expression ever runs.
+//
+// A type is proven when it holds whatever the context contains: literals, and the
+// results of comparisons, logical operators and arithmetic on proven operands. Types
+// taken from the schema are only declared; the compiled code still checks them where
+// it relies on them, so a context that does not match the schema gets the same results
+// and errors as without one.
+public class TypeChecker {
+
+    // check returns the types of ast and every node in it under schema, or throws the
+    // first error found, in evaluation order.
+    public static Typing check(Expression ast, Schema schema) throws Exception {
+        return run(ast, schema, true);
+    }
+
+    // infer is check without the errors: a node that would be rejected is given type
+    // ANY and left to fail, or not, when it runs.
+    public static Typing infer(Expression ast, Schema schema) throws Exception {
+        return run(ast, schema, false);
+    }
+
+    private static Typing run(Expression ast, Schema schema, boolean strict) throws Exception {
+        TypeChecker checker = new TypeChecker(schema, strict);
+        Rewriter.rewrite(ast, node -> {
+            checker.infer(node);
+            return node;
+        });
+        return new Typing(checker.types, checker.proven);
+    }
+
+    // Typing holds the inferred types of the nodes of one expression tree, by identity.
+    public static class Typing {
+        public static final Typing NONE = new Typing(Collections.emptyMap(), Collections.emptySet());
+
+        private final Map<Expression, Type> types;
+        private final Set<Expression> proven;
+
+        private Typing(Map<Expression, Type> types, Set<Expression> proven) {
+            this.types = types;
+            this.proven = proven;
+        }
+
+        public Type typeOf(Expression node) {
+            Type type = types.get(node);
+            return type == null ? Type.ANY : type;
+        }
+
+        public boolean isProven(Expression node) {
+            return proven.contains(node);
+        }
+    }
+
+    private final Schema schema;
+    private final boolean strict;
+    private final Map<Expression, Type> types = new IdentityHashMap<>();
+    private final Set<Expression> proven = Collections.newSetFromMap(new IdentityHashMap<>());
+    // paths holds the schema path of the nodes that read one, e.g. "user.scores[]".
+    private final Map<Expression, String> paths = new IdentityHashMap<>();
+
+    private TypeChecker(Schema schema, boolean strict) {
+        this.schema = schema;
+        this.strict = strict;
+    }
+
+    private void infer(Expression node) throws Exception {
+        if (node instanceof Literal) {
+            set(node, Type.of(((Literal) node).getValue()), true);
+        } else if (node instanceof Context) {
+            Context c = (Context) node;
+            if (c.getIdent() != null && c.getSubscript() == null) {
+                paths.put(node, c.getIdent().getName());
+                set(node, schema.typeOf(c.getIdent().getName()), false);
+            } else {
+                set(node, Type.ANY, false);
+            }
+        } else if (node instanceof MemberAccess) {
+            inferMemberAccess((MemberAccess) node);
+        } else if (node instanceof Binary) {
+            inferBinary((Binary) node);
+        } else if (node instanceof Unary) {
+            inferUnary((Unary) node);
+        } else if (node instanceof ArrayLiteral) {
+            set(node, Type.ARRAY, true);
+        } else if (node instanceof ObjectLiteral) {
+            set(node, Type.OBJECT, true);
+        } else if (node instanceof Shared) {
+            Expression inner = ((Shared) node).getExpr();
+            set(node, typeOf(inner), proven.contains(inner));
+        } else {
+            set(node, Type.ANY, false);
+        }
+    }
+
+    private void inferMemberAccess(MemberAccess m) throws Exception {
+        Type type = typeOf(m.getTarget());
+        String path = paths.get(m.getTarget());
+        for (MemberAccess.MemberPart part : m.getAccessParts()) {
+            if (type == Type.NULL && part.isOptional()) {
+                // The rest of the chain is skipped and the result is null.
+                set(m, Type.NULL, false);
+                return;
+            }
+            if (!part.isIndex()) {
+                if (type != Type.ANY && type != Type.OBJECT) {
+                    reject(m, Errors.newTypeError("dot access on non‑object", part.getLine(), part.getColumn()));
+                    return;
+                }
+                path = path == null ? null : path + "." + part.getKey();
+            } else {
+                if (type != Type.ANY && type != Type.OBJECT && type != Type.ARRAY) {
+                    reject(m, Errors.newTypeError("target is not an object or array", part.getLine(), part.getColumn()));
+                    return;
+                }
+                Type index = typeOf(part.getExpr());
+                if (type == Type.ARRAY && index != Type.ANY && !index.isNumeric()) {
+                    reject(m, Errors.newTypeError("array index must be numeric", part.getLine(), part.getColumn()));
+                    return;
+                }
+                path = path == null || type == Type.OBJECT ? null : path + "[]";
+            }
+            type = path == null ? Type.ANY : schema.typeOf(path);
+        }
+        if (path != null) {
+            paths.put(m, path);
+        }
+        set(m, type, false);
+    }
+
+    private void inferBinary(Binary b) throws Exception {
+        int op = b.getOperator();
+        Type left = typeOf(b.getLeft());
+        Type right = typeOf(b.getRight());
+        boolean bothProven = proven.contains(b.getLeft()) && proven.contains(b.getRight());
+        switch (op) {
+            case Tokens.TokenAnd:
+            case Tokens.TokenOr: {
+                String name = op == Tokens.TokenAnd ? "AND" : "OR";
+                if (isKnown(left) && left != Type.BOOLEAN || isKnown(right) && right != Type.BOOLEAN) {
+                    reject(b, Errors.newSemanticError(name + " operator requires boolean operand", b.getLine(), b.getColumn()));
+                    return;
+                }
+                set(b, Type.BOOLEAN, true);
+                return;
+            }
+            case Tokens.TokenPlus:
+            case Tokens.TokenMinus:
+            case Tokens.TokenMultiply:
+            case Tokens.TokenDivide: {
+                if (isKnown(left) && !left.isNumeric() || isKnown(right) && !right.isNumeric()) {
+                    reject(b, Errors.newSemanticError("'" + Tokens.getFixedTokenLiteral(op) + "' operator used on non‑numeric type", b.getLine(), b.getColumn()));
+                    return;
+                }
+                if (left.isNumeric() && right.isNumeric() && left != right) {
+                    reject(b, Errors.newSemanticError("Mixed numeric types require explicit conversion", b.getLine(), b.getColumn()));
+                    return;
+                }
+                set(b, left == right ? left : Type.ANY, bothProven && left == right);
+                return;
+            }
+            case Tokens.TokenModulo:
+                if (isKnown(left) && !left.isNumeric() || isKnown(right) && !right.isNumeric()) {
+                    reject(b, Errors.newSemanticError("'%' operator used on non‑numeric type", b.getLine(), b.getColumn()));
+                    return;
+                }
+                set(b, left.isNumeric() && right.isNumeric() ? Type.INT : Type.ANY, bothProven);
+                return;
+            case Tokens.TokenLt:
+            case Tokens.TokenGt:
+            case Tokens.TokenLte:
+            case Tokens.TokenGte:
+                if (!comparable(left, right)) {
+                    reject(b, Errors.newSemanticError("'" + Tokens.getFixedTokenLiteral(op) + "' operator not allowed on given types", b.getLine(), b.getColumn()));
+                    return;
+                }
+                set(b, Type.BOOLEAN, true);
+                return;
+            case Tokens.TokenEq:
+            case Tokens.TokenNeq:
+                set(b, Type.BOOLEAN, true);
+                return;
+            default:
+                set(b, Type.ANY, false);
+        }
+    }
+
+    private void inferUnary(Unary u) throws Exception {
+        Type operand = typeOf(u.getExpr());
+        boolean operandProven = proven.contains(u.getExpr());
+        if (u.getOperator() == Tokens.TokenMinus) {
+            if (isKnown(operand) && !operand.isNumeric()) {
+                reject(u, Errors.newSemanticError("unary '-' operator requires a numeric operand", u.getLine(), u.getColumn()));
+                return;
+            }
+            set(u, operand, operandProven);
+        } else if (u.getOperator() == Tokens.TokenNot) {
+            if (isKnown(operand) && operand != Type.BOOLEAN) {
+                reject(u, Errors.newSemanticError("NOT operator requires a boolean operand", u.getLine(), u.getColumn()));
+                return;
+            }
+            set(u, Type.BOOLEAN, true);
+        } else {
+            set(u, Type.ANY, false);
+        }
+    }
+
+    // comparable reports whether '<' and the like may succeed on the two types: both
+    // numbers or both strings.
+    private static boolean comparable(Type left, Type right) {
+        if (!canCompare(left) || !canCompare(right)) {
+            return false;
+        }
+        if (left == Type.ANY || right == Type.ANY) {
+            return true;
+        }
+        return left.isNumeric() == right.isNumeric();
+    }
+
+    private static boolean canCompare(Type type) {
+        return type == Type.ANY || type == Type.STRING || type.isNumeric();
+    }
+
+    private static boolean isKnown(Type type) {
+        return type != Type.ANY;
+    }
+
+    private Type typeOf(Expression node) {
+        Type type = types.get(node);
+        return type == null ? Type.ANY : type;
+    }
+
+    private void reject(Expression node, Exception error) throws Exception {
+        if (strict) {
+            throw error;
+        }
+        set(node, Type.ANY, false);
+    }
+
+    private void set(Expression node, Type type, boolean isProven) {
+        types.put(node, type);
+        if (isProven && type != Type.ANY) {
+            proven.add(node);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.specdrivendesign.lql.pkg.types;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Schema declares the types of context fields, by path: "user.age" is $user.age, and
+// "user.scores[]" is any element of the array $user.scores. A declared field is
+// expected to be present and to hold a value of its type; fields the schema does not
+// mention may hold anything. Schemas are immutable.
+public final class Schema {
+
+    // Type is the static type of a value. ANY is a value whose type is not known.
+    public enum Type {
+        ANY,
+        NULL,
+        BOOLEAN,
+        INT,
+        FLOAT,
+        STRING,
+        ARRAY,
+        OBJECT;
+
+        public boolean isNumeric() {
+            return this == INT || this == FLOAT;
+        }
+
+        // typeName is the name parse accepts and type errors report, e.g. "int".
+        public String typeName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        // of returns the type of a runtime value.
+        public static Type of(Object val) {
+            if (val == null) {
+                return NULL;
+            }
+            if (val instanceof Boolean) {
+                return BOOLEAN;
+            }
+            if (Types.isInt(val)) {
+                return INT;
+            }
+            if (val instanceof Double) {
+                return FLOAT;
+            }
+            if (val instanceof String) {
+                return STRING;
+            }
+            if (val instanceof List) {
+                return ARRAY;
+            }
+            if (val instanceof Map) {
+                return OBJECT;
+            }
+            return ANY;
+        }
+    }
+
+    private static final Schema EMPTY = new Schema(Collections.emptyMap());
+
+    private final Map<String, Type> fields;
+
+    private Schema(Map<String, Type> fields) {
+        this.fields = fields;
+    }
+
+    public static Schema empty() {
+        return EMPTY;
+    }
+
+    // of builds a schema from types keyed by path; a leading '$' on a path is ignored.
+    public static Schema of(Map<String, Type> fields) {
+        Map<String, Type> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Type> entry : fields.entrySet()) {
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException("no type given for '" + entry.getKey() + "'");
+            }
+            copy.put(normalize(entry.getKey()), entry.getValue());
+        }
+        return new Schema(Collections.unmodifiableMap(copy));
+    }
+
+    // parse builds a schema from type names ("int", "float", "string", "boolean",
+    // "array", "object", "null" or "any") keyed by path, as found in a JSON or YAML
+    // schema file.
+    public static Schema parse(Map<String, ?> fields) {
+        Map<String, Type> types = new LinkedHashMap<>();
+        for (Map.Entry<String, ?> entry : fields.entrySet()) {
+            types.put(entry.getKey(), parseType(entry.getKey(), entry.getValue()));
+        }
+        return of(types);
+    }
+
+    private static Type parseType(String path, Object name) {
+        if (name instanceof String) {
+            for (Type type : Type.values()) {
+                if (type.typeName().equals(((String) name).trim().toLowerCase(Locale.ROOT))) {
+                    return type;
+                }
+            }
+        }
+        throw new IllegalArgumentException("unknown type '" + name + "' for '" + path + "'");
+    }
+
+    private static String normalize(String path) {
+        return path.startsWith("$") ? path.substring(1) : path;
+    }
+
+    // typeOf returns the declared type of path, or ANY when it is not declared.
+    public Type typeOf(String path) {
+        Type type = fields.get(normalize(path));
+        return type == null ? Type.ANY : type;
+    }
+
+    public Map<String, Type> getFields() {
+        return fields;
+    }
+
+    public boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return fields.toString();
+    }
+}
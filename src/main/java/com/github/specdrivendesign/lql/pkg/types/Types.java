@@ -1,10 +1,14 @@
 package com.github.specdrivendesign.lql.pkg.types;
 
+import com.github.specdrivendesign.lql.pkg.adapters.ContextAdapters;
 import com.github.specdrivendesign.lql.pkg.errors.Errors;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class Types {
 
@@ -34,6 +38,45 @@ public class Types {
         return (val instanceof Integer) || (val instanceof Long);
     }
 
+    // Integer arithmetic is exact over the whole long range. A result that does not fit
+    // in a long is computed in double instead and saturates to Long.MIN_VALUE or
+    // Long.MAX_VALUE when cast back, which is what every integer result used to do.
+    public static long addInt(long a, long b) {
+        long r = a + b;
+        if (((a ^ r) & (b ^ r)) < 0) {
+            return (long) ((double) a + (double) b);
+        }
+        return r;
+    }
+
+    public static long subtractInt(long a, long b) {
+        long r = a - b;
+        if (((a ^ b) & (a ^ r)) < 0) {
+            return (long) ((double) a - (double) b);
+        }
+        return r;
+    }
+
+    public static long multiplyInt(long a, long b) {
+        long r = a * b;
+        if (java.lang.Math.multiplyHigh(a, b) != (r >> 63)) {
+            return (long) ((double) a * (double) b);
+        }
+        return r;
+    }
+
+    // divideInt truncates toward zero; the caller has ruled out b == 0.
+    public static long divideInt(long a, long b) {
+        if (a == Long.MIN_VALUE && b == -1) {
+            return Long.MAX_VALUE;
+        }
+        return a / b;
+    }
+
+    public static long negateInt(long a) {
+        return a == Long.MIN_VALUE ? Long.MAX_VALUE : -a;
+    }
+
     public static boolean equals(Object left, Object right) {
         if (left == right) return true;
         if (left == null || right == null) return false;
@@ -101,22 +144,106 @@ public class Types {
         }
     }
 
+    // convertToInterfaceList returns val itself when it is a list; lists are never copied.
+    // Arrays and collections held by domain objects are read through ContextAdapters.
     public static List<Object> convertToInterfaceList(Object val) {
+        if (val instanceof List<?>) {
+            return (List<Object>) val;
+        }
+        val = ContextAdapters.adapt(val);
         if (val instanceof List<?>) {
             return (List<Object>) val;
         }
         return null;
     }
 
+    // convertToStringMap returns val as an object with String keys, or null when val is
+    // not a map. The result is a read-only view: nothing is copied, and every lookup
+    // goes to val itself through lookupField.
     public static Map<String, Object> convertToStringMap(Object val) {
+        val = ContextAdapters.adapt(val);
         if (val instanceof Map<?, ?>) {
-            Map<?, ?> m = (Map<?, ?>) val;
-            Map<String, Object> result = new HashMap<>();
-            for (Map.Entry<?, ?> entry : m.entrySet()) {
-                result.put(String.valueOf(entry.getKey()), entry.getValue());
-            }
-            return result;
+            return new FieldView((Map<?, ?>) val);
         }
         return null;
     }
+
+    // NO_FIELD is returned by lookupField when the object has no such field.
+    public static final Object NO_FIELD = new Object();
+
+    // lookupField reads key from obj in place. Keys that are not Strings (e.g. integer
+    // keys loaded from YAML) match on their String form; they are only scanned for
+    // when the direct lookup misses. Domain objects found in a map are adapted on the
+    // way out (see ContextAdapters).
+    public static Object lookupField(Map<?, ?> obj, String key) {
+        try {
+            Object val = obj.get(key);
+            if (val != null || obj.containsKey(key)) {
+                return ContextAdapters.adapt(val);
+            }
+        } catch (ClassCastException | NullPointerException e) {
+            // Sorted maps with non-String keys reject String lookups; fall back to the scan.
+        }
+        for (Map.Entry<?, ?> entry : obj.entrySet()) {
+            Object k = entry.getKey();
+            if (!(k instanceof String) && key.equals(String.valueOf(k))) {
+                return ContextAdapters.adapt(entry.getValue());
+            }
+        }
+        return NO_FIELD;
+    }
+
+    private static final class FieldView extends AbstractMap<String, Object> {
+        private final Map<?, ?> obj;
+
+        FieldView(Map<?, ?> obj) {
+            this.obj = obj;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            Object val = lookupField(obj, (String) key);
+            return val == NO_FIELD ? null : val;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && lookupField(obj, (String) key) != NO_FIELD;
+        }
+
+        @Override
+        public int size() {
+            return obj.size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    Iterator<? extends Entry<?, ?>> it = obj.entrySet().iterator();
+                    return new Iterator<Entry<String, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            Entry<?, ?> e = it.next();
+                            return new SimpleImmutableEntry<>(String.valueOf(e.getKey()), e.getValue());
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return obj.size();
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,167 @@
+package com.github.specdrivendesign.lql;
+
+import com.github.specdrivendesign.lql.pkg.bundle.RuleBundle;
+import com.github.specdrivendesign.lql.pkg.bytecode.Bytecode;
+import com.github.specdrivendesign.lql.pkg.bytecode.SignatureCache;
+import com.github.specdrivendesign.lql.pkg.compiler.CompiledExpression;
+import com.github.specdrivendesign.lql.pkg.compiler.Compiler;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.lexer.Lexer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// BytecodeTest loads expressions back from both bytecode formats, on their own and from
+// a rule bundle, and checks they evaluate, and fail, exactly as when compiled from source.
+public class BytecodeTest {
+
+    private static final Map<String, Object> CONTEXT = Map.of(
+            "order", Map.of("total", 120.5, "items", List.of(Map.of("sku", "A-1", "qty", 3L))),
+            "customer", Map.of("name", "alice", "tags", List.of("vip")));
+
+    private static final String[] EXPRESSIONS = {
+            "$order.total > 100 && array.contains($customer.tags, \"vip\")",
+            "$order.items[0].qty * 2 + 1 || false",
+            "string.toUpper($customer.name) == \"ALICE\" AND NOT ($order?.missing != null)",
+            "{\"a\": [1, 2.5, \"x\", null], \"b\": {\"c\": true}}",
+            "$order.items[1 + 1].sku",
+            "$customer[\"name\"] + \"" + "x".repeat(300) + "\"",
+    };
+
+    private static String run(CompiledExpression compiled) {
+        try {
+            return String.valueOf(compiled.evaluate(CONTEXT));
+        } catch (Exception e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    @Test
+    public void treesLoadWithoutParsing() throws Exception {
+        // The AND/NOT/?. expression must evaluate, or the round trip only compares errors.
+        assertEquals("true", run(CompiledExpression.compile(EXPRESSIONS[2])));
+        for (String expr : EXPRESSIONS) {
+            CompiledExpression compiled = CompiledExpression.compile(expr);
+            for (boolean optimized : new boolean[]{false, true}) {
+                byte[] data = compiled.toByteCode(optimized);
+                assertTrue(Bytecode.isAst(data));
+                CompiledExpression loaded = CompiledExpression.fromByteCode(data, Env.newEnvironment());
+                assertEquals(run(compiled), run(loaded), expr);
+            }
+            assertEquals(compiled.getAst().toString(), Bytecode.readAst(compiled.toByteCode(false)).toString());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void loadedLiteralsStayReadOnly() throws Exception {
+        for (String expr : new String[]{"[1, 2, 3]", "{\"a\": [1, 2], \"b\": {\"c\": true}}"}) {
+            CompiledExpression direct = CompiledExpression.compile(expr);
+            CompiledExpression loaded = CompiledExpression.fromByteCode(direct.toByteCode(true), Env.newEnvironment());
+            for (CompiledExpression compiled : List.of(direct, loaded)) {
+                Object first = compiled.evaluate(CONTEXT);
+                if (first instanceof List) {
+                    assertThrows(UnsupportedOperationException.class, () -> ((List<Object>) first).add(99L));
+                } else {
+                    Map<String, Object> map = (Map<String, Object>) first;
+                    assertThrows(UnsupportedOperationException.class, () -> map.put("d", 1L));
+                    assertThrows(UnsupportedOperationException.class, () -> ((List<Object>) map.get("a")).add(99L));
+                    assertThrows(UnsupportedOperationException.class, () -> ((Map<String, Object>) map.get("b")).clear());
+                }
+                assertEquals(direct.evaluate(CONTEXT), compiled.evaluate(CONTEXT), expr);
+            }
+        }
+    }
+
+    @Test
+    public void tokensStillLoad() throws Exception {
+        for (String expr : Arrays.copyOf(EXPRESSIONS, EXPRESSIONS.length - 1)) {
+            CompiledExpression loaded = CompiledExpression.fromByteCode(new Lexer(expr).exportTokens(), Env.newEnvironment());
+            assertEquals(run(CompiledExpression.compile(expr)).replaceAll(" at line .*", ""), run(loaded).replaceAll(" at line .*", ""), expr);
+        }
+    }
+
+    @Test
+    public void tokensReadFromDirectBuffers() throws Exception {
+        String expr = "string.toUpper(\"héllo 中\") == $customer.name && $order.total >= 1.5e2";
+        byte[] tokens = new Lexer(expr).exportTokens();
+        ByteBuffer direct = ByteBuffer.allocateDirect(tokens.length + 10);
+        assertEquals(tokens.length, new Lexer(expr).exportTokens(direct.position(10)));
+        CompiledExpression loaded = CompiledExpression.fromTokenStream(Bytecode.newByteCodeReader(direct.flip().position(10)), Env.newEnvironment());
+        assertEquals(CompiledExpression.compile(expr).getAst().toString(), loaded.getAst().toString());
+    }
+
+    @Test
+    public void bundlesLoadRulesById(@TempDir Path dir) throws Exception {
+        Map<String, byte[]> rules = new HashMap<>();
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            byte[] code = i % 2 == 1 ? CompiledExpression.compile(EXPRESSIONS[i]).toByteCode(true) : new Lexer(EXPRESSIONS[i]).exportTokens();
+            rules.put("rule-" + i + "-\u00e9", code);
+        }
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keys = generator.generateKeyPair();
+        Path file = dir.resolve("rules.lqlr");
+        RuleBundle.write(file, rules, keys.getPrivate());
+        try (RuleBundle bundle = RuleBundle.open(file, keys.getPublic())) {
+            assertEquals(EXPRESSIONS.length, bundle.size());
+            assertFalse(bundle.contains("rule-9"));
+            for (int i = 0; i < EXPRESSIONS.length; i++) {
+                assertArrayEquals(rules.get("rule-" + i + "-\u00e9"), bundle.byteCode("rule-" + i + "-\u00e9"));
+            }
+            CompiledExpression loaded = bundle.load("rule-0-\u00e9", Env.newEnvironment(), Compiler.Backend.CLOSURE);
+            assertEquals(true, loaded.evaluate(CONTEXT));
+        }
+        byte[] data = Files.readAllBytes(file);
+        data[20] ^= 1;
+        Files.write(file, data);
+        Exception e = assertThrows(Exception.class, () -> RuleBundle.open(file, keys.getPublic()));
+        assertEquals("invalid signature", e.getMessage());
+    }
+
+    @Test
+    public void signaturesVerifyOncePerContent() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keys = generator.generateKeyPair();
+        KeyPair other = generator.generateKeyPair();
+        SignatureCache cache = new SignatureCache(8);
+        List<byte[]> files = new ArrayList<>();
+        for (String expr : EXPRESSIONS) {
+            files.add(Bytecode.sign(CompiledExpression.compile(expr).toByteCode(true), keys.getPrivate()));
+        }
+        List<byte[]> payloads = cache.verifyAll(files, keys.getPublic(), 3);
+        assertArrayEquals(payloads.get(2), cache.verify(files.get(2), keys.getPublic()));
+        assertArrayEquals(payloads.get(5), cache.verify(files.get(5), keys.getPublic()));
+        assertEquals(EXPRESSIONS.length, (int) cache.getMisses());
+        assertEquals(2, (int) cache.getHits());
+        assertEquals(EXPRESSIONS.length, cache.size());
+
+        assertEquals("invalid signature", assertThrows(Exception.class, () -> cache.verify(files.get(5), other.getPublic())).getMessage());
+        byte[] tampered = files.get(5).clone();
+        tampered[10] ^= 1;
+        assertEquals("invalid signature", assertThrows(Exception.class, () -> cache.verify(tampered, keys.getPublic())).getMessage());
+    }
+
+    @Test
+    public void rejectsDamagedTrees() throws Exception {
+        byte[] data = CompiledExpression.compile(EXPRESSIONS[0]).toByteCode(false);
+        assertThrows(Exception.class, () -> Bytecode.readAst(Arrays.copyOf(data, data.length - 3)));
+        byte[] newer = data.clone();
+        newer[4] = 3;
+        Exception e = assertThrows(Exception.class, () -> Bytecode.readAst(newer));
+        assertTrue(e.getMessage().contains("unsupported bytecode version 3"), e.getMessage());
+    }
+}
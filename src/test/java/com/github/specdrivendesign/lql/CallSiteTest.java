@@ -0,0 +1,97 @@
+package com.github.specdrivendesign.lql;
+
+import com.github.specdrivendesign.lql.pkg.env.CallSite;
+import com.github.specdrivendesign.lql.pkg.env.IFunction;
+import com.github.specdrivendesign.lql.pkg.param.Param;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// CallSiteTest checks that the pooled argument frames of CallSite keep every call's
+// arguments and positions apart, whether calls nest or throw.
+public class CallSiteTest {
+
+    private static String describe(List<Param> args) {
+        StringBuilder sb = new StringBuilder();
+        for (Param param : args) {
+            sb.append(param.getValue()).append('@').append(param.getLine()).append(':').append(param.getColumn()).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    @Test
+    public void reentrantCallsGetTheirOwnFrames() throws Exception {
+        CallSite[] sites = new CallSite[2];
+        IFunction function = (args, line, col, parenLine, parenCol) -> {
+            String before = describe(args);
+            Object depth = args.get(0).getValue();
+            if ((Long) depth < 3) {
+                // Back into this site, and into another one, while the frame is in use.
+                sites[0].call((Long) depth + 1, "again");
+                sites[1].call(new Object[]{(Long) depth + 1, "x", "y", "z"});
+            }
+            assertEquals(before, describe(args));
+            return before;
+        };
+        sites[0] = new CallSite(function, 1, 1, 1, 5, new int[]{1, 2}, new int[]{6, 10});
+        sites[1] = new CallSite(function, 3, 1, 3, 5, new int[]{3, 3, 3, 4}, new int[]{6, 9, 12, 1});
+        assertEquals("0@1:6 first@2:10", sites[0].call(0L, "first"));
+        assertEquals("1@3:6 a@3:9 b@3:12 c@4:1", sites[1].call(new Object[]{1L, "a", "b", "c"}));
+    }
+
+    @Test
+    public void framesAreClearedWhenACallThrows() throws Exception {
+        List<List<Param>> seen = new ArrayList<>();
+        IFunction failing = (args, line, col, parenLine, parenCol) -> {
+            seen.add(args);
+            throw new Exception("boom at " + describe(args));
+        };
+        IFunction echo = (args, line, col, parenLine, parenCol) -> {
+            seen.add(args);
+            return describe(args);
+        };
+        CallSite thrower = new CallSite(failing, 1, 1, 1, 5, new int[]{1, 1}, new int[]{6, 9});
+        CallSite other = new CallSite(echo, 2, 1, 2, 5, new int[]{2}, new int[]{6});
+
+        Exception e = assertThrows(Exception.class, () -> thrower.call("secret", 42L));
+        assertEquals("boom at secret@1:6 42@1:9", e.getMessage());
+        List<Param> frame = seen.get(0);
+        assertNull(frame.get(0).getValue());
+        assertNull(frame.get(1).getValue());
+
+        // The frame went back to the pool: the next call, on any site, reuses it with
+        // its own arguments and positions.
+        assertEquals("v@2:6", other.call("v"));
+        assertSame(frame, seen.get(1));
+        assertEquals(1, seen.get(1).size());
+        assertNull(frame.get(0).getValue());
+        assertThrows(Exception.class, () -> thrower.call(new Object[]{"again", 1L}));
+        assertSame(frame, seen.get(2));
+    }
+
+    @Test
+    public void framesAreNotSharedBetweenThreads() throws Exception {
+        List<List<Param>> seen = new ArrayList<>();
+        CallSite site = new CallSite((args, line, col, parenLine, parenCol) -> {
+            synchronized (seen) {
+                seen.add(args);
+            }
+            return args.get(0).getValue();
+        }, 1, 1, 1, 5, new int[]{1}, new int[]{6});
+        assertEquals("main", site.call("main"));
+        Thread thread = new Thread(() -> {
+            try {
+                assertEquals("other", site.call("other"));
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals(2, seen.size());
+        assertNotSame(seen.get(0), seen.get(1));
+    }
+}
@@ -0,0 +1,249 @@
+package com.github.specdrivendesign.lql;
+
+import com.github.specdrivendesign.lql.pkg.ast.expressions.Color;
+import com.github.specdrivendesign.lql.pkg.compiler.CompiledExpression;
+import com.github.specdrivendesign.lql.pkg.compiler.Compiler;
+import com.github.specdrivendesign.lql.pkg.compiler.ExpressionCache;
+import com.github.specdrivendesign.lql.pkg.compiler.RuleSet;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.env.ILibrary;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// ConcurrencyTest hammers one shared Env, and expressions and rule sets compiled
+// against it, from many threads at once, and checks every result against the one
+// computed on a single thread.
+public class ConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 2000;
+
+    private static final String[] EXPRESSIONS = {
+            "string.concat(string.toUpper($user.name), \"!\")",
+            "regex.match(\"^[a-z]+[0-9]*$\", $user.name)",
+            "regex.replace($user.name, \"[0-9]\", \"#\")",
+            "array.contains($user.tags, \"admin\") && $user.age >= 18",
+            "array.sort(array.flatten([$user.scores, [$user.age]]))",
+            "math.sum($user.scores) + math.abs(-$user.age)",
+            "cond.ifExpr($user.age > 30, \"senior\", \"junior\")",
+            "string.concat(type.string($user.age), \":\", type.string($user.active))",
+            "time.toEpochMillis(time.add(time.parse(\"2020-01-01T00:00:00Z\", \"iso8601\"), $user.age * 1000))",
+            "$user.address?.city == \"Paris\" || $user.name == \"bob\"",
+            "{\"n\": $user.name, \"s\": $user.scores[0] * 2}",
+    };
+
+    @Test
+    public void newEnvironmentIsShared() {
+        assertSame(Env.newEnvironment(), Env.newEnvironment());
+        assertSame(new Env().getLibrary("string"), Env.newEnvironment().getLibrary("string"));
+    }
+
+    @Test
+    public void customLibrariesExtendTheStandardEnv() throws Exception {
+        ILibrary greet = (functionName, args, line, col, parenLine, parenCol) -> "hello " + args.get(0).getValue();
+        Env env = Env.newEnvironment().with("greet", greet);
+        assertSame(greet, env.getLibrary("greet"));
+        assertSame(Env.newEnvironment().getLibrary("string"), env.getLibrary("string"));
+        assertNull(Env.newEnvironment().getLibrary("greet"));
+        assertNull(new Env(Map.of("greet", greet)).getLibrary("string"));
+        for (Compiler.Backend backend : Compiler.Backend.values()) {
+            CompiledExpression compiled = CompiledExpression.compile("greet.hi(string.toUpper($user.name))", env, backend);
+            assertEquals("hello BOB", compiled.evaluate(Map.of("user", Map.of("name", "bob"))), backend.toString());
+        }
+    }
+
+    @Test
+    public void sharedExpressionsGiveSingleThreadedResults() throws Exception {
+        Env env = Env.newEnvironment();
+        List<Map<String, Object>> contexts = contexts(64);
+        long fallbacks = Compiler.getJitFallbacks();
+        for (Compiler.Backend backend : Compiler.Backend.values()) {
+            List<CompiledExpression> compiled = new ArrayList<>();
+            for (String expr : EXPRESSIONS) {
+                compiled.add(CompiledExpression.compile(expr, env, backend));
+            }
+            Map<String, Object> expected = new HashMap<>();
+            for (int e = 0; e < compiled.size(); e++) {
+                for (int c = 0; c < contexts.size(); c++) {
+                    expected.put(e + "/" + c, outcome(compiled.get(e), contexts.get(c)));
+                }
+            }
+            runConcurrently(seed -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < ITERATIONS; i++) {
+                    int e = random.nextInt(compiled.size());
+                    int c = random.nextInt(contexts.size());
+                    assertEquals(expected.get(e + "/" + c), outcome(compiled.get(e), contexts.get(c)),
+                            () -> backend + " " + EXPRESSIONS[e] + " on context " + c);
+                }
+                return null;
+            });
+        }
+        // Every expression got a generated class; none fell back to closures.
+        assertEquals(fallbacks, Compiler.getJitFallbacks());
+    }
+
+    @Test
+    public void compilingConcurrentlyAgainstSharedEnv() throws Exception {
+        Env env = Env.newEnvironment();
+        Map<String, Object> ctx = contexts(1).get(0);
+        List<Object> expected = new ArrayList<>();
+        for (String expr : EXPRESSIONS) {
+            expected.add(outcome(CompiledExpression.compile(expr, env), ctx));
+        }
+        runConcurrently(seed -> {
+            Compiler.Backend backend = Compiler.Backend.values()[(int) (seed % Compiler.Backend.values().length)];
+            for (int i = 0; i < ITERATIONS / 20; i++) {
+                for (int e = 0; e < EXPRESSIONS.length; e++) {
+                    assertEquals(expected.get(e), outcome(CompiledExpression.compile(EXPRESSIONS[e], env, backend), ctx));
+                }
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void sharedExpressionCacheEvictsUnderContention() throws Exception {
+        Env env = Env.newEnvironment();
+        Map<String, Object> ctx = contexts(1).get(0);
+        List<Object> expected = new ArrayList<>();
+        for (String expr : EXPRESSIONS) {
+            expected.add(outcome(CompiledExpression.compile(expr, env), ctx));
+        }
+        ExpressionCache cache = new ExpressionCache(env, Compiler.Backend.CLOSURE, 5, 1000);
+        runConcurrently(seed -> {
+            Random random = new Random(seed);
+            for (int i = 0; i < ITERATIONS; i++) {
+                int e = random.nextInt(EXPRESSIONS.length);
+                assertEquals(expected.get(e), outcome(cache.compile(EXPRESSIONS[e]), ctx));
+            }
+            return null;
+        });
+        assertEquals((long) THREADS * ITERATIONS, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getHits() > 0 && cache.getEvictions() > 0);
+        assertTrue(cache.size() <= 5 && cache.getWeight() <= 1000);
+    }
+
+    @Test
+    public void sharedRuleSetGivesSingleThreadedResults() throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("adult", "$user.age >= 18 && array.contains($user.tags, \"admin\")");
+        sources.put("bob", "$user.name == \"bob\" && $user.age > 20");
+        sources.put("high", "$user.age > 40");
+        sources.put("shout", "string.toUpper($user.name) == \"ALICE1\" || string.toUpper($user.name) == \"BOB\"");
+        RuleSet rules = RuleSet.compile(sources, Env.newEnvironment());
+        List<Map<String, Object>> contexts = contexts(64);
+        List<Object> expected = new ArrayList<>();
+        for (Map<String, Object> ctx : contexts) {
+            expected.add(rules.evaluate(ctx));
+        }
+        runConcurrently(seed -> {
+            Random random = new Random(seed);
+            for (int i = 0; i < ITERATIONS; i++) {
+                int c = random.nextInt(contexts.size());
+                assertEquals(expected.get(c), rules.evaluate(contexts.get(c)));
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void paletteChangesDuringToString() throws Exception {
+        CompiledExpression compiled = CompiledExpression.compile(EXPRESSIONS[3], Env.newEnvironment());
+        boolean wasEnabled = Color.isEnabled();
+        Color.setEnabled(true);
+        try {
+            runConcurrently(seed -> {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    if (seed == 0) {
+                        switch (i % 4) {
+                            case 0: Color.applyMildPalette(); break;
+                            case 1: Color.applyVividPalette(); break;
+                            case 2: Color.applyDraculaPalette(); break;
+                            default: Color.applySolarizedPalette(); break;
+                        }
+                    } else {
+                        String s = compiled.getAst().toString();
+                        assertFalse(s.contains("null"), s);
+                    }
+                }
+                return null;
+            });
+        } finally {
+            Color.applySolarizedPalette();
+            Color.setEnabled(wasEnabled);
+        }
+    }
+
+    private interface Worker {
+        Void run(long seed) throws Exception;
+    }
+
+    // runConcurrently starts THREADS workers at the same moment and rethrows the first
+    // failure.
+    private static void runConcurrently(Worker worker) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                long seed = t;
+                Callable<Void> task = () -> {
+                    start.await();
+                    return worker.run(seed);
+                };
+                futures.add(pool.submit(task));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // outcome returns the result of evaluating compiled against ctx, or the message of
+    // the error it raised.
+    private static Object outcome(CompiledExpression compiled, Map<String, Object> ctx) {
+        try {
+            return compiled.evaluate(ctx);
+        } catch (Exception e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    private static List<Map<String, Object>> contexts(int n) {
+        Random random = new Random(42);
+        String[] names = {"alice1", "bob", "carol", "dave22"};
+        List<Map<String, Object>> contexts = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Map<String, Object> user = new HashMap<>();
+            user.put("name", names[random.nextInt(names.length)]);
+            user.put("age", (long) random.nextInt(60));
+            user.put("active", random.nextBoolean());
+            user.put("tags", random.nextBoolean() ? List.of("admin", "dev") : List.of("dev"));
+            user.put("scores", List.of((long) random.nextInt(100), (long) random.nextInt(100)));
+            if (random.nextBoolean()) {
+                user.put("address", Map.of("city", random.nextBoolean() ? "Paris" : "Oslo"));
+            }
+            Map<String, Object> ctx = new HashMap<>();
+            ctx.put("user", user);
+            contexts.add(ctx);
+        }
+        return contexts;
+    }
+}
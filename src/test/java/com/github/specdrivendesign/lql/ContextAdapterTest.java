@@ -0,0 +1,193 @@
+package com.github.specdrivendesign.lql;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.specdrivendesign.lql.pkg.adapters.ContextAdapter;
+import com.github.specdrivendesign.lql.pkg.adapters.ContextAdapters;
+import com.github.specdrivendesign.lql.pkg.adapters.LazyJsonContext;
+import com.github.specdrivendesign.lql.pkg.adapters.ProjectingJsonReader;
+import com.github.specdrivendesign.lql.pkg.compiler.CompiledExpression;
+import com.github.specdrivendesign.lql.pkg.compiler.Compiler;
+import com.github.specdrivendesign.lql.pkg.compiler.RuleSet;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.lexer.Lexer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// ContextAdapterTest evaluates expressions against records, JavaBeans, Jackson trees and
+// JSON read lazily or projected, and checks they behave as the equivalent nested maps.
+public class ContextAdapterTest {
+
+    public enum Tier { GOLD, SILVER }
+
+    public record Address(String city, String zip) {
+    }
+
+    public record Customer(String name, int age, boolean active, Tier tier, Address address,
+                           List<String> tags, int[] scores, List<Address> previous) {
+    }
+
+    public static class Order {
+        private final Customer customer;
+        private final double total;
+
+        public Order(Customer customer, double total) {
+            this.customer = customer;
+            this.total = total;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+
+        public double getTotal() {
+            return total;
+        }
+
+        public boolean isLarge() {
+            return total > 100;
+        }
+    }
+
+    // Point is handled by a registered adapter rather than the built-in one.
+    public static final class Point {
+        final long x;
+        final long y;
+
+        Point(long x, long y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private static Order order() {
+        Customer customer = new Customer("alice", 42, true, Tier.GOLD, new Address("Paris", "75001"),
+                List.of("admin", "dev"), new int[]{3, 4, 5}, List.of(new Address("Oslo", "0150")));
+        return new Order(customer, 120.5);
+    }
+
+    private static final String[] EXPRESSIONS = {
+            "$customer.name == \"alice\" && $customer.age >= 18",
+            "$customer.tier == \"GOLD\" && $large",
+            "$customer.address.city",
+            "$customer.previous[0].city",
+            "array.contains($customer.tags, \"admin\")",
+            "math.sum($customer.scores) + $customer.age * 2",
+            "$customer.address?.country",
+            "$total * 2.0",
+            "$customer.address == {\"city\": \"Paris\", \"zip\": \"75001\"}",
+    };
+
+    private static final Object[] EXPECTED = {
+            true, true, "Paris", "Oslo", true, 96L, null, 241.0, true,
+    };
+
+    private static final String JSON = "{\"customer\": {\"name\": \"alice\", \"age\": 42, \"tier\": \"GOLD\","
+            + " \"address\": {\"city\": \"Paris\", \"zip\": \"75001\"}, \"tags\": [\"admin\", \"dev\"],"
+            + " \"scores\": [3, 4, 5], \"previous\": [{\"city\": \"Oslo\"}]}, \"total\": 120.5, \"large\": true}";
+
+    @Test
+    public void readsRecordsAndBeansInPlace() throws Exception {
+        for (Compiler.Backend backend : Compiler.Backend.values()) {
+            for (int i = 0; i < EXPRESSIONS.length; i++) {
+                CompiledExpression compiled = CompiledExpression.compile(EXPRESSIONS[i], Env.newEnvironment(), backend);
+                assertEquals(EXPECTED[i], compiled.evaluate((Object) order()), backend + " " + EXPRESSIONS[i]);
+            }
+        }
+    }
+
+    @Test
+    public void readsJsonNodesInPlace() throws Exception {
+        JsonNode tree = new ObjectMapper().readTree(JSON);
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            CompiledExpression compiled = CompiledExpression.compile(EXPRESSIONS[i]);
+            assertEquals(EXPECTED[i], compiled.evaluate((Object) tree), EXPRESSIONS[i]);
+        }
+    }
+
+    @Test
+    public void readsLazyJsonInPlace() throws Exception {
+        byte[] json = JSON.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            List<String> paths = new Lexer(EXPRESSIONS[i]).extractContextIdentifiers();
+            assertEquals(EXPECTED[i], CompiledExpression.compile(EXPRESSIONS[i]).evaluate(LazyJsonContext.parse(json, paths)), EXPRESSIONS[i]);
+            assertEquals(EXPECTED[i], CompiledExpression.compile(EXPRESSIONS[i]).evaluate(LazyJsonContext.parse(json)), EXPRESSIONS[i]);
+        }
+        // Fields outside the paths given are still found.
+        Map<String, Object> ctx = LazyJsonContext.parse(json, List.of("customer.name"));
+        assertEquals(true, CompiledExpression.compile("$large && $customer.tags[1] == \"dev\"").evaluate(ctx));
+        // Of a repeated field the last occurrence wins, as with a full parse.
+        byte[] repeated = "{\"a\": {\"b\": 1}, \"c\": 2, \"a\": {\"b\": 5}}".getBytes(StandardCharsets.UTF_8);
+        assertEquals(6L, CompiledExpression.compile("$a.b + 1").evaluate(LazyJsonContext.parse(repeated, List.of("a.b"))));
+        assertEquals(7L, CompiledExpression.compile("$a.b + $c").evaluate(LazyJsonContext.parse(repeated, List.of("a.b"))));
+        // Malformed and truncated documents are rejected, by validate and by the lookup
+        // that scans the broken object.
+        byte[] truncated = "{\"a\": {\"b\": 1}, \"c\": [1, 2,".getBytes(StandardCharsets.UTF_8);
+        assertThrows(IllegalArgumentException.class, () -> LazyJsonContext.validate(truncated));
+        assertThrows(IllegalArgumentException.class, () -> CompiledExpression.compile("$a.b").evaluate(LazyJsonContext.parse(truncated)));
+        assertThrows(IllegalArgumentException.class, () -> LazyJsonContext.validate("{\"a\": 1, \"b\": [oops]}".getBytes(StandardCharsets.UTF_8)));
+        LazyJsonContext.validate(json);
+        assertThrows(IllegalArgumentException.class, () -> LazyJsonContext.parse("[1]".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void projectsOnlyTheRequiredPaths() throws Exception {
+        byte[] json = JSON.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            CompiledExpression compiled = CompiledExpression.compile(EXPRESSIONS[i]);
+            Map<String, Object> ctx = new ProjectingJsonReader(compiled.getRequiredPaths()).read(json);
+            assertEquals(EXPECTED[i], compiled.evaluate(ctx), EXPRESSIONS[i]);
+        }
+        CompiledExpression compiled = CompiledExpression.compile("$customer.previous[0].city == $customer[\"name\"] || $customer.tags[$i] == \"x\"");
+        assertEquals(Set.of("customer.name", "customer.previous.*.city", "customer.tags", "i"), compiled.getRequiredPaths());
+        Map<String, Object> ctx = new ProjectingJsonReader(compiled.getRequiredPaths()).read(json);
+        assertEquals(Set.of("customer"), ctx.keySet());
+        assertEquals(Set.of("name", "previous", "tags"), ((Map<?, ?>) ctx.get("customer")).keySet());
+        assertNull(CompiledExpression.compile("$ == {}").getRequiredPaths());
+    }
+
+    @Test
+    public void adaptsObjectsHeldInMaps() throws Exception {
+        Map<String, Object> ctx = new LinkedHashMap<>();
+        ctx.put("order", order());
+        assertEquals("Paris", CompiledExpression.compile("$order.customer.address.city").evaluate(ctx));
+        RuleSet rules = RuleSet.compile(Map.of("gold", "$order.customer.tier == \"GOLD\""), Env.newEnvironment());
+        assertEquals(List.of("gold"), rules.matches(ctx));
+    }
+
+    @Test
+    public void missingFieldsRaiseTheUsualErrors() throws Exception {
+        Exception e = assertThrows(Exception.class, () -> CompiledExpression.compile("$customer.email").evaluate((Object) order()));
+        assertTrue(e.getMessage().contains("field 'email' not found"), e.getMessage());
+    }
+
+    @Test
+    public void registeredAdaptersComeFirst() throws Exception {
+        ContextAdapters.register(new ContextAdapter() {
+            @Override
+            public boolean supports(Class<?> type) {
+                return type == Point.class;
+            }
+
+            @Override
+            public Object adapt(Object obj) {
+                Point p = (Point) obj;
+                return Map.of("x", p.x, "y", p.y);
+            }
+        });
+        Map<String, Object> ctx = Map.of("p", new Point(3, 4));
+        assertEquals(25L, CompiledExpression.compile("$p.x * $p.x + $p.y * $p.y").evaluate(ctx));
+    }
+
+    @Test
+    public void rejectsNonObjectRoots() {
+        assertThrows(IllegalArgumentException.class, () -> CompiledExpression.compile("1 + 1").evaluate((Object) "text"));
+    }
+}
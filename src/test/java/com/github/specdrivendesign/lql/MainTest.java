@@ -1,11 +1,20 @@
 package com.github.specdrivendesign.lql;
 
+import com.github.specdrivendesign.lql.main.Main;
+import com.github.specdrivendesign.lql.pkg.compiler.Compiler;
 import com.github.specdrivendesign.lql.pkg.env.Env;
 import com.github.specdrivendesign.lql.pkg.testing.Testing;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.yaml.snakeyaml.Yaml;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -14,24 +23,122 @@ import static org.junit.jupiter.api.Assertions.*;
 
 public class MainTest {
 
+    // Every case runs on every backend, so the interpreter and the generated classes are
+    // held to the same results as the closures.
     @ParameterizedTest
     @MethodSource("testCasesProvider")
-    public void runTestCase(Testing.TestCase tc) {
+    public void runTestCase(Compiler.Backend backend, Testing.TestCase tc) {
 
         Env env = Env.newEnvironment();
-        Testing.TestSuiteResult suiteResult = Testing.runTests(List.of(tc), env, false, false);
+        Testing.TestSuiteResult suiteResult = Testing.runTests(List.of(tc), env, false, false, backend);
         // just a sanity check
         assertEquals(1, suiteResult.getTestResults().size());
         final var result = suiteResult.getTestResults().get(0);
         assertNotEquals("FAILED", result.getStatus(), () -> generateFailureMessage(result));
     }
 
+    @Test
+    public void execStreamsNdjsonAndJsonArrays() {
+        String expr = "[$id, $order.total > 100]";
+        List<String> expected = List.of(
+                "[1,true]",
+                "[2,false]",
+                "{\"error\":\"ReferenceError: field 'order' not found at line 1, column 8\"}",
+                "[\"four\",true]");
+        String ndjson = "{\"id\": 1, \"order\": {\"total\": 120.5}}\n"
+                + "\n"
+                + "{\"order\": {\"total\": 99}, \"id\": 2}\n"
+                + "{\"id\": 3}\n"
+                + "{\"id\": \"four\", \"order\": {\"total\": 101, \"lines\": [1, 2]}}\n";
+        assertEquals(expected, exec(ndjson, "exec", "-expr", expr, "--stream", "ndjson"));
+        String array = "[" + String.join(",", ndjson.trim().split("\n+")) + "]";
+        assertEquals(expected, exec(array, "exec", "-expr", expr, "--stream", "json"));
+
+        assertEquals(List.of("{\"error\":\"context must be a JSON object\"}", "1"),
+                exec("[[1], {\"a\": 1}]", "exec", "-expr", "$a", "--stream", "json"));
+        assertEquals(List.of(), exec("[]", "exec", "-expr", "$a", "--stream", "json"));
+    }
+
+    @Test
+    public void parallelStreamsKeepInputOrder() {
+        // Several chunks of records, with malformed ones in the middle of a chunk.
+        StringBuilder ndjson = new StringBuilder();
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            String record = i == 1500 ? "{\"n\": 1500," : i == 2049 ? "not json" : "{\"n\": " + i + "}";
+            ndjson.append(record).append('\n');
+            if (i != 1500 && i != 2049) {
+                records.add(record);
+            }
+        }
+        List<String> sequential = exec(ndjson.toString(), "exec", "-expr", "$n * 2", "--stream", "ndjson");
+        assertEquals(5000, sequential.size());
+        for (int i = 0; i < 5000; i++) {
+            if (i == 1500 || i == 2049) {
+                assertTrue(sequential.get(i).startsWith("{\"error\":"), sequential.get(i));
+            } else {
+                assertEquals(String.valueOf(i * 2), sequential.get(i));
+            }
+        }
+        assertEquals(sequential, exec(ndjson.toString(), "exec", "-expr", "$n * 2", "--stream", "ndjson", "--parallelism", "4"));
+
+        String array = "[" + String.join(",", records) + "]";
+        List<String> arraySequential = exec(array, "exec", "-expr", "$n * 2", "--stream", "json");
+        assertEquals(4998, arraySequential.size());
+        assertEquals(arraySequential, exec(array, "exec", "-expr", "$n * 2", "--stream", "json", "--parallelism", "4"));
+    }
+
+    @Test
+    public void truncatedJsonArraysKeepTheResultsBeforeThem() {
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            array.append("{\"n\": ").append(i).append("},");
+        }
+        for (String tail : new String[]{"{\"n\": 1", "{\"n\": }]", "", "}"}) {
+            for (String parallelism : new String[]{"1", "2"}) {
+                List<String> lines = exec(array + tail, "exec", "-expr", "$n * 2", "--stream", "json", "--parallelism", parallelism);
+                assertEquals(101, lines.size(), tail);
+                for (int i = 0; i < 100; i++) {
+                    assertEquals(String.valueOf(i * 2), lines.get(i));
+                }
+                assertTrue(lines.get(100).startsWith("{\"error\":\"malformed JSON array: "), lines.get(100));
+            }
+        }
+    }
+
+    // exec runs the lql command line with args and stdin as its input, and returns the
+    // lines it writes.
+    private static List<String> exec(String stdin, String... args) {
+        InputStream in = System.in;
+        PrintStream out = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            System.setIn(new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8)));
+            System.setOut(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+            Main.main(args);
+        } finally {
+            System.setIn(in);
+            System.setOut(out);
+        }
+        return buffer.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+
     private String generateFailureMessage(Testing.TestResult result) {
         Yaml yaml = new Yaml();
         return yaml.dump(result);
     }
 
-    private static List<Testing.TestCase> testCasesProvider() throws Exception {
+    private static List<Arguments> testCasesProvider() throws Exception {
+        List<Arguments> arguments = new ArrayList<>();
+        for (Compiler.Backend backend : Compiler.Backend.values()) {
+            for (Testing.TestCase tc : testCases()) {
+                arguments.add(Arguments.of(backend, tc));
+            }
+        }
+        return arguments;
+    }
+
+    private static List<Testing.TestCase> testCases() throws Exception {
         final var dataStream = MainTest.class.getResourceAsStream("/testcases.yml");
         byte[] data = dataStream.readAllBytes();
         Yaml yaml = new Yaml();
@@ -58,6 +165,7 @@ public class MainTest {
                 tc.setExpectedError((String) map.get("expectedError"));
                 tc.setExpectedErrorMessage((String) map.get("expectedErrorMessage"));
                 tc.setExpectedResult(map.get("expectedResult"));
+                tc.setSchema((Map<String, Object>) map.get("schema"));
                 Object skipObj = map.get("skip");
                 if (skipObj instanceof Boolean) {
                     tc.setSkip((Boolean) skipObj);
@@ -0,0 +1,252 @@
+package com.github.specdrivendesign.lql;
+
+import com.github.specdrivendesign.lql.pkg.compiler.CompiledExpression;
+import com.github.specdrivendesign.lql.pkg.compiler.Compiler;
+import com.github.specdrivendesign.lql.pkg.compiler.RuleSet;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.env.ILibrary;
+import com.github.specdrivendesign.lql.pkg.param.Param;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// RuleSetTest checks that a RuleSet, with its guard index and shared sub-expressions,
+// returns exactly what evaluating each of its rules alone returns, errors included.
+public class RuleSetTest {
+
+    @Test
+    public void equalityGuardsOnlySkipFalseRules() throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("admin", "$user.role == \"admin\" && $user.age > 1");
+        sources.put("guest", "\"guest\" == $user.role");
+        sources.put("active", "$user.active == true");
+        sources.put("inactiveAdmin", "$user.active == false && $user.role == \"admin\"");
+        sources.put("noNick", "$user.nick == null");
+        sources.put("paris", "$user?.address?.city == \"Paris\"");
+        sources.put("noCity", "$user?.address?.city == null");
+        sources.put("five", "$user.role == 5");
+        sources.put("notLeftmost", "array.contains($user.tags, \"x\") && $user.role == \"admin\"");
+        sources.put("unguarded", "$user.age > 1 || $user.role == \"guest\"");
+
+        List<Map<String, Object>> contexts = new ArrayList<>();
+        for (Object role : Arrays.asList("admin", "guest", "Admin", 5L, 5.0, true, null)) {
+            for (Object active : Arrays.asList(true, false, "true", 1L, null)) {
+                Map<String, Object> user = new HashMap<>();
+                user.put("role", role);
+                user.put("active", active);
+                user.put("nick", role == null ? "x" : null);
+                user.put("age", 30L);
+                user.put("tags", List.of("x"));
+                if (active instanceof Boolean) {
+                    Map<String, Object> address = new HashMap<>();
+                    address.put("city", (Boolean) active ? "Paris" : null);
+                    user.put("address", address);
+                }
+                contexts.add(Map.of("user", user));
+            }
+        }
+        // Missing fields, and a missing $user for the optional chains.
+        Map<String, Object> noRole = new HashMap<>();
+        noRole.put("active", true);
+        noRole.put("nick", null);
+        contexts.add(Map.of("user", noRole));
+        contexts.add(Map.of("user", Map.of("role", "admin", "age", 30L, "active", true, "tags", List.of())));
+        contexts.add(Map.of());
+
+        assertSameAsAlone(sources, contexts);
+    }
+
+    @Test
+    public void thresholdGuardsOnlySkipFalseRules() throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("lt", "$x < 10");
+        sources.put("lte", "$x <= 10");
+        sources.put("gt", "$x > 10");
+        sources.put("gte", "$x >= 10");
+        sources.put("mirrored", "10 < $x");
+        sources.put("ltDouble", "$x < 10.0");
+        sources.put("gteDouble", "$x >= 9.5 && $x != 11");
+        sources.put("between", "$x > 2.5 && $x < 20");
+        sources.put("negative", "$x >= -1");
+        sources.put("unguarded", "$y == 1 || $x == 10");
+
+        List<Map<String, Object>> contexts = new ArrayList<>();
+        for (Object x : Arrays.asList(10L, 10, 10.0, 9L, 11L, 9.5, 9.999, 10.0001, 2.5, -1L, -2.0,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Long.MAX_VALUE)) {
+            contexts.add(Map.of("x", x, "y", 1L));
+        }
+        assertSameAsAlone(sources, contexts);
+
+        // A value no threshold can be compared with, and a path that cannot be read,
+        // leave every guarded rule a candidate, so each of them raises its error.
+        List<Map<String, Object>> failing = new ArrayList<>();
+        for (Object x : Arrays.asList("10", "x", true, List.of(10L))) {
+            failing.add(Map.of("x", x, "y", 1L));
+        }
+        Map<String, Object> nullX = new HashMap<>();
+        nullX.put("x", null);
+        nullX.put("y", 1L);
+        failing.add(nullX);
+        failing.add(Map.of("y", 1L));
+        assertSameAsAlone(sources, failing);
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            if (source.getKey().equals("unguarded")) {
+                continue;
+            }
+            Map<String, String> guarded = new LinkedHashMap<>();
+            guarded.put("other", "$y > 5");
+            guarded.put(source.getKey(), source.getValue());
+            RuleSet rules = RuleSet.compile(guarded, Env.newEnvironment());
+            for (Map<String, Object> ctx : failing) {
+                Object matched = outcome(() -> rules.matches(ctx));
+                assertTrue(matched instanceof String && ((String) matched).startsWith("error: "), source.getValue() + " on " + ctx + " gave " + matched);
+            }
+        }
+    }
+
+    @Test
+    public void sharedValuesGiveTheSameResultsAndErrors() throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("big", "math.abs($n.v) * 2 > 10");
+        sources.put("bigger", "math.abs($n.v) * 2 > 20 || $n.flag");
+        sources.put("ratio", "$n.flag && math.abs($n.v) * 2 / $n.d > 1");
+        sources.put("name", "string.toUpper($n.s) == \"X\"");
+        sources.put("nameLength", "string.startsWith(string.toUpper($n.s), \"A\") && math.abs($n.v) * 2 > 0");
+        sources.put("total", "math.sum($n.items) > 3 && $n.items[0] > 0");
+        sources.put("count", "array.contains($n.items, 5) || math.sum($n.items) == 0");
+
+        List<Map<String, Object>> contexts = new ArrayList<>();
+        for (Object v : Arrays.asList(3L, -12L, 7.5, "x")) {
+            for (Object d : Arrays.asList(2L, 0L)) {
+                for (Object s : Arrays.asList("x", "ab")) {
+                    for (Object items : Arrays.asList(List.of(1L, 5L), List.of(), List.of(2L))) {
+                        Map<String, Object> n = new HashMap<>();
+                        n.put("v", v);
+                        n.put("d", d);
+                        n.put("s", s);
+                        n.put("flag", d.equals(2L));
+                        n.put("items", items);
+                        contexts.add(Map.of("n", n));
+                    }
+                }
+            }
+        }
+        // Errors: in a shared value, in a path read and in a rule of its own.
+        contexts.add(Map.of("n", Map.of("v", 1L, "d", 0L, "s", "x", "flag", true, "items", List.of(1L))));
+        contexts.add(Map.of("n", Map.of("v", 1L, "d", 2L, "s", 5L, "flag", true, "items", List.of(1L))));
+        contexts.add(Map.of("n", Map.of("v", 1L, "d", 2L, "s", "x", "flag", true, "items", List.of("a"))));
+        contexts.add(Map.of("n", Map.of("v", 1L)));
+        contexts.add(Map.of());
+
+        assertTrue(RuleSet.compile(sources, Env.newEnvironment()).getSharedCount() >= 3);
+        assertSameAsAlone(sources, contexts);
+    }
+
+    @Test
+    public void impureCallsAreNotShared() throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("a", "time.toEpochMillis(time.now()) > $x && counter.next($x) > 0");
+        sources.put("b", "time.toEpochMillis(time.now()) > $x || counter.next($x) > 0");
+        sources.put("c", "counter.next($x) > 0");
+        Map<String, Object> ctx = Map.of("x", 1L);
+
+        AtomicInteger calls = new AtomicInteger();
+        ILibrary impure = (functionName, args, line, col, parenLine, parenCol) -> (long) calls.incrementAndGet();
+        RuleSet rules = RuleSet.compile(sources, Env.newEnvironment().with("counter", impure));
+        assertEquals(0, rules.getSharedCount());
+        assertEquals(List.of("a", "b", "c"), rules.matches(ctx));
+        assertEquals(2, calls.get());
+
+        // The same calls to a pure function are made once per evaluation.
+        calls.set(0);
+        ILibrary pure = new ILibrary() {
+            @Override
+            public Object call(String functionName, List<Param> args, int line, int col, int parenLine, int parenCol) {
+                return (long) calls.incrementAndGet();
+            }
+
+            @Override
+            public boolean isPure(String functionName) {
+                return true;
+            }
+        };
+        rules = RuleSet.compile(sources, Env.newEnvironment().with("counter", pure));
+        assertEquals(2, rules.getSharedCount());
+        assertEquals(List.of("a", "b", "c"), rules.matches(ctx));
+        assertEquals(1, calls.get());
+    }
+
+    // assertSameAsAlone compiles sources as a RuleSet and checks, on every backend and
+    // context, that evaluate and matches agree with the rules evaluated one by one.
+    private static void assertSameAsAlone(Map<String, String> sources, List<Map<String, Object>> contexts) throws Exception {
+        Env env = Env.newEnvironment();
+        for (Compiler.Backend backend : Compiler.Backend.values()) {
+            Map<String, CompiledExpression> alone = new LinkedHashMap<>();
+            for (Map.Entry<String, String> source : sources.entrySet()) {
+                alone.put(source.getKey(), CompiledExpression.compile(source.getValue(), env, backend));
+            }
+            RuleSet compiled = RuleSet.compile(sources, env, backend);
+            RuleSet recompiled = RuleSet.of(alone);
+            for (int c = 0; c < contexts.size(); c++) {
+                Map<String, Object> ctx = contexts.get(c);
+                String where = backend + " on context " + c + " " + ctx;
+                Object evaluated = evaluateAlone(alone, ctx);
+                Object matched = matchAlone(alone, ctx);
+                for (RuleSet rules : List.of(compiled, recompiled)) {
+                    assertEquals(evaluated, outcome(() -> rules.evaluate(ctx)), where);
+                    assertEquals(matched, outcome(() -> rules.matches(ctx)), where);
+                }
+            }
+        }
+    }
+
+    // evaluateAlone returns what RuleSet.evaluate should: every rule's result by name, or
+    // the error of the first rule that fails.
+    private static Object evaluateAlone(Map<String, CompiledExpression> rules, Map<String, Object> ctx) {
+        Map<String, Object> results = new LinkedHashMap<>();
+        for (Map.Entry<String, CompiledExpression> rule : rules.entrySet()) {
+            Object result = outcome(() -> rule.getValue().evaluate(ctx));
+            if (result instanceof String && ((String) result).startsWith("error: ")) {
+                return result;
+            }
+            results.put(rule.getKey(), result);
+        }
+        return results;
+    }
+
+    // matchAlone returns what RuleSet.matches should: the names of the true rules, or the
+    // error of the first rule that fails.
+    private static Object matchAlone(Map<String, CompiledExpression> rules, Map<String, Object> ctx) {
+        Object results = evaluateAlone(rules, ctx);
+        if (!(results instanceof Map)) {
+            return results;
+        }
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<?, ?> result : ((Map<?, ?>) results).entrySet()) {
+            if (Boolean.TRUE.equals(result.getValue())) {
+                names.add((String) result.getKey());
+            }
+        }
+        return names;
+    }
+
+    private interface Evaluation {
+        Object run() throws Exception;
+    }
+
+    private static Object outcome(Evaluation evaluation) {
+        try {
+            return evaluation.run();
+        } catch (Exception e) {
+            return "error: " + e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.specdrivendesign.lql;
+
+import com.github.specdrivendesign.lql.pkg.compiler.CompiledExpression;
+import com.github.specdrivendesign.lql.pkg.compiler.Compiler;
+import com.github.specdrivendesign.lql.pkg.env.Env;
+import com.github.specdrivendesign.lql.pkg.env.ILibrary;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// TypedArithmeticTest checks that arithmetic evaluated over primitives, when it meets a
+// value it cannot handle, gives the interpreter's result or error without evaluating
+// any operand twice, and that nested arithmetic compiles each operand once.
+public class TypedArithmeticTest {
+
+    @Test
+    public void deoptimizedTreesEvaluateEachOperandOnce() throws Exception {
+        List<Object> calls = new ArrayList<>();
+        ILibrary probe = (functionName, args, line, col, parenLine, parenCol) -> {
+            calls.add(args.get(0).getValue());
+            return args.get(0).getValue();
+        };
+        Env env = Env.newEnvironment().with("probe", probe);
+        String[] expressions = {
+                "probe.f(1) + probe.f($x) * probe.f(3) - 4",
+                "probe.f(6) / probe.f($x) + probe.f(1) + 2",
+                "-probe.f($x) + probe.f(2.5) * 2.0 / probe.f(0.5)",
+        };
+        for (String expr : expressions) {
+            for (Object x : Arrays.asList(2L, 3, (short) 3, 0L, 2.5, "s", null)) {
+                Map<String, Object> ctx = new HashMap<>();
+                ctx.put("x", x);
+                calls.clear();
+                Object expected = outcome(CompiledExpression.compile(expr, env, Compiler.Backend.INTERPRETER), ctx);
+                List<Object> expectedCalls = new ArrayList<>(calls);
+                for (Compiler.Backend backend : Arrays.asList(Compiler.Backend.CLOSURE, Compiler.Backend.JIT)) {
+                    CompiledExpression compiled = CompiledExpression.compile(expr, env, backend);
+                    calls.clear();
+                    assertEquals(expected, outcome(compiled, ctx), backend + " " + expr + " with " + x);
+                    assertEquals(expectedCalls, calls, backend + " " + expr + " with " + x);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nestedArithmeticCompilesInLinearTime() throws Exception {
+        String expr = "$x";
+        for (int i = 0; i < 40; i++) {
+            expr = "math.abs(" + expr + " + 1) + 1";
+        }
+        for (Compiler.Backend backend : Compiler.Backend.values()) {
+            long start = System.nanoTime();
+            CompiledExpression compiled = CompiledExpression.compile(expr, Env.newEnvironment(), backend);
+            assertEquals(81L, compiled.evaluate(Map.of("x", 1L)), backend.toString());
+            // Compiling every operand once per path through the tree takes 2^40 steps.
+            assertTrue(System.nanoTime() - start < 5_000_000_000L, backend.toString());
+        }
+    }
+
+    private static Object outcome(CompiledExpression compiled, Map<String, Object> ctx) {
+        try {
+            return compiled.evaluate(ctx);
+        } catch (Exception e) {
+            return "error: " + e.getMessage();
+        }
+    }
+}